@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package bacter.benchmark;
+
+import bacter.ConversionGraph;
+import bacter.Locus;
+import bacter.model.SimulatedACG;
+import bacter.model.SimulatedAlignment;
+import beast.base.evolution.alignment.Alignment;
+import beast.base.evolution.alignment.Taxon;
+import beast.base.evolution.alignment.TaxonSet;
+import beast.base.evolution.sitemodel.SiteModel;
+import beast.base.evolution.substitutionmodel.JukesCantor;
+import beast.base.evolution.tree.coalescent.ConstantPopulation;
+import beast.base.inference.parameter.RealParameter;
+import beast.base.util.Randomizer;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Simulated conversion graph and alignment shared by benchmarks.
+ * The graph is generated from a fixed seed so that results can be
+ * compared between commits.
+ *
+ * @author agent <agent@local>
+ */
+@State(Scope.Benchmark)
+public class ACGState {
+
+    @Param({"10", "50"})
+    public int taxonCount;
+
+    @Param({"10000", "100000"})
+    public int locusLength;
+
+    /**
+     * Expected number of conversions.  (The actual number is Poisson
+     * distributed about this value.)
+     */
+    @Param({"10", "100"})
+    public int conversionCount;
+
+    @Param({"53"})
+    public long seed;
+
+    public static final double DELTA = 500.0;
+
+    public Locus locus;
+    public ConstantPopulation popFunc;
+    public SiteModel siteModel;
+    public ConversionGraph acg;
+    public Alignment alignment;
+
+    @Setup
+    public void setup() throws Exception {
+        Randomizer.setSeed(seed);
+
+        locus = new Locus("locus", locusLength);
+
+        popFunc = new ConstantPopulation();
+        popFunc.initByName("popSize", new RealParameter("1.0"));
+
+        List<Taxon> taxonList = new ArrayList<>();
+        for (int i=0; i<taxonCount; i++)
+            taxonList.add(new Taxon("t" + i));
+        TaxonSet taxonSet = new TaxonSet(taxonList);
+
+        // Simulate clonal frame first, so that the recombination rate
+        // giving the requested expected conversion count can be found.
+        SimulatedACG clonalFrame = new SimulatedACG();
+        clonalFrame.initByName(
+                "rho", 0.0,
+                "delta", DELTA,
+                "populationModel", popFunc,
+                "locus", locus,
+                "taxonset", taxonSet);
+
+        double rho = conversionCount/(clonalFrame.getClonalFrameLength()
+                *(locusLength + DELTA - 1.0));
+
+        acg = new SimulatedACG();
+        acg.initByName(
+                "rho", rho,
+                "delta", DELTA,
+                "populationModel", popFunc,
+                "locus", locus,
+                "taxonset", taxonSet,
+                "clonalFrame", clonalFrame);
+
+        JukesCantor jc = new JukesCantor();
+        jc.initByName();
+        siteModel = new SiteModel();
+        siteModel.initByName(
+                "mutationRate", new RealParameter("1"),
+                "substModel", jc);
+
+        alignment = new SimulatedAlignment();
+        alignment.initByName(
+                "acg", acg,
+                "siteModel", siteModel);
+    }
+}
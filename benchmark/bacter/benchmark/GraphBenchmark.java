@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package bacter.benchmark;
+
+import bacter.AffectedSiteList;
+import bacter.MarginalTree;
+import bacter.Region;
+import bacter.RegionList;
+import bacter.model.ACGCoalescent;
+import beast.base.inference.parameter.RealParameter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of region list, affected site list and marginal tree
+ * construction, and of the ACG coalescent prior.
+ *
+ * @author agent <agent@local>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GraphBenchmark {
+
+    @State(Scope.Thread)
+    public static class Regions {
+        RegionList regionList;
+
+        @Setup(Level.Trial)
+        public void setup(ACGState state) {
+            regionList = new RegionList(state.acg, state.locus);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Coalescent {
+        ACGCoalescent coalescent;
+
+        @Setup(Level.Trial)
+        public void setup(ACGState state) {
+            coalescent = new ACGCoalescent();
+            coalescent.initByName(
+                    "tree", state.acg,
+                    "populationModel", state.popFunc,
+                    "rho", new RealParameter("1e-5"),
+                    "delta", new RealParameter(String.valueOf(ACGState.DELTA)));
+        }
+    }
+
+    @Benchmark
+    public int regionListUpdate(Regions regions) {
+        regions.regionList.reset();
+        regions.regionList.updateRegionList();
+        return regions.regionList.getRegionCount();
+    }
+
+    @Benchmark
+    public AffectedSiteList affectedSiteList(ACGState state) {
+        return new AffectedSiteList(state.acg);
+    }
+
+    @Benchmark
+    public void marginalTrees(ACGState state, Blackhole blackhole) {
+        for (Region region : state.acg.getRegions(state.locus))
+            blackhole.consume(new MarginalTree(state.acg, region));
+    }
+
+    @Benchmark
+    public double acgCoalescent(Coalescent coalescent) {
+        return coalescent.coalescent.calculateLogP();
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package bacter.benchmark;
+
+import bacter.model.ACGLikelihood;
+import bacter.model.ACGLikelihoodApprox;
+import bacter.model.ACGLikelihoodSlow;
+import beast.base.inference.parameter.RealParameter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the exact and approximate ACG likelihood calculations.
+ *
+ * Run using "ant benchmark", passing JMH options via the benchmark.args
+ * property, e.g. ant benchmark -Dbenchmark.args="Likelihood -p taxonCount=10".
+ *
+ * @author agent <agent@local>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LikelihoodBenchmark {
+
+    /**
+     * Likelihood whose region caches are discarded before every call.
+     */
+    @State(Scope.Thread)
+    public static class ColdLikelihood {
+        ACGLikelihood likelihood;
+
+        @Param({"BEAST", "BACTER"})
+        public ACGLikelihood.Kernel kernel;
+
+        @Setup(Level.Invocation)
+        public void setup(ACGState state) {
+            likelihood = new ACGLikelihood();
+            likelihood.initByName(
+                    "locus", state.locus,
+                    "data", state.alignment,
+                    "tree", state.acg,
+                    "siteModel", state.siteModel,
+                    "kernel", kernel);
+        }
+    }
+
+    /**
+     * Likelihood whose region caches are filled before measurement.
+     */
+    @State(Scope.Thread)
+    public static class WarmLikelihood {
+        ACGLikelihood likelihood;
+
+        @Setup(Level.Trial)
+        public void setup(ACGState state) {
+            likelihood = new ACGLikelihood();
+            likelihood.initByName(
+                    "locus", state.locus,
+                    "data", state.alignment,
+                    "tree", state.acg,
+                    "siteModel", state.siteModel);
+            likelihood.calculateLogP();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class SlowLikelihood {
+        ACGLikelihoodSlow likelihood;
+
+        @Setup(Level.Trial)
+        public void setup(ACGState state) {
+            likelihood = new ACGLikelihoodSlow();
+            likelihood.initByName(
+                    "locus", state.locus,
+                    "data", state.alignment,
+                    "tree", state.acg,
+                    "siteModel", state.siteModel);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ApproxLikelihood {
+        ACGLikelihoodApprox likelihood;
+
+        @Setup(Level.Trial)
+        public void setup(ACGState state) {
+            likelihood = new ACGLikelihoodApprox();
+            likelihood.initByName(
+                    "acg", state.acg,
+                    "substitutionRate", new RealParameter("1.0"),
+                    "alignment", state.alignment,
+                    "locus", state.locus);
+        }
+    }
+
+    @Benchmark
+    public double acgLikelihoodCold(ColdLikelihood cold) {
+        return cold.likelihood.calculateLogP();
+    }
+
+    @Benchmark
+    public double acgLikelihoodWarm(WarmLikelihood warm) {
+        return warm.likelihood.calculateLogP();
+    }
+
+    @Benchmark
+    public double acgLikelihoodSlow(SlowLikelihood slow) {
+        return slow.likelihood.calculateLogP();
+    }
+
+    @Benchmark
+    public double acgLikelihoodApprox(ApproxLikelihood approx) {
+        return approx.likelihood.calculateLogP();
+    }
+}
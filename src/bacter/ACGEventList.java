@@ -20,6 +20,7 @@ package bacter;
 import beast.base.evolution.tree.Node;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -83,7 +84,7 @@ public class ACGEventList {
      * @param acg Conversion graph from which to compute event list.
      */
     public ACGEventList(ConversionGraph acg) {
-        this(acg, null);
+        this(acg, (Collection<Conversion>) null);
     }
 
     /**
@@ -93,6 +94,18 @@ public class ACGEventList {
      * @param locus conversions for this event only are included
      */
     public ACGEventList(ConversionGraph acg, Locus locus) {
+        this(acg, locus == null ? null : acg.getConversions(locus));
+    }
+
+    /**
+     * Construct a new event list for the given ACG including only the
+     * given conversions.
+     *
+     * @param acg Conversion graph from which to compute event list
+     * @param conversions conversions to include, or null to include
+     *                    the conversions of every locus
+     */
+    public ACGEventList(ConversionGraph acg, Collection<Conversion> conversions) {
         this.events = new ArrayList<>();
 
         // Create unsorted event list.
@@ -103,7 +116,7 @@ public class ACGEventList {
         }
 
         // Add conversion events:
-        if (locus == null) {
+        if (conversions == null) {
             for (Locus l : acg.getConvertibleLoci()) {
                 for (Conversion conv : acg.getConversions(l)) {
                     events.add(new Event(conv, true));
@@ -111,7 +124,7 @@ public class ACGEventList {
                 }
             }
         } else {
-            for (Conversion conv : acg.getConversions(locus)) {
+            for (Conversion conv : conversions) {
                 events.add(new Event(conv, true));
                 events.add(new Event(conv, false));
             }
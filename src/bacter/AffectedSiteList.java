@@ -1,6 +1,6 @@
 package bacter;
 
-import bacter.util.IntRanges;
+import bacter.util.IntRangeSet;
 import beast.base.evolution.tree.Node;
 
 import java.util.*;
@@ -15,34 +15,126 @@ import java.util.*;
 public class AffectedSiteList {
 
     ConversionGraph acg;
-    public Map<Conversion, List<Integer>> affectedSites;
+    public Map<Conversion, IntRangeSet> affectedSites;
     public Map<Conversion, Integer> affectedSiteCount;
     public Map<Conversion, Double> affectedSiteFraction;
 
     ACGEventList acgEventList;
 
+    /**
+     * Scratch buffers used when checking whether all MRCAs have been
+     * reached.
+     */
+    private int[] startSites = new int[16], endSites = new int[16];
+
+    /**
+     * Loci whose sites are tracked.
+     */
+    private final List<Locus> loci;
+
+    /**
+     * Sites assigned to each leaf, or null if every site of each locus
+     * is assigned to the leaves.
+     */
+    private final Map<Locus, IntRangeSet> leafSites;
+
+    /**
+     * Height of the event at which the MRCAs of all tracked sites were
+     * reached, or positive infinity if this did not occur.
+     */
+    public double mrcaHeight = Double.POSITIVE_INFINITY;
+
+    /**
+     * For single-locus lists, the sites whose MRCA lies at mrcaHeight,
+     * i.e. the sites carried by both lineages merged at that event.
+     * Empty if the MRCAs were not reached.
+     */
+    public IntRangeSet mrcaSites = new IntRangeSet();
+
     public AffectedSiteList(ConversionGraph acg) {
         this.acg = acg;
+        this.loci = acg.getConvertibleLoci();
+        this.leafSites = null;
 
         acgEventList = new ACGEventList(acg);
+        walkEvents(true);
+    }
+
+    /**
+     * Construct list of sites affected by the conversions belonging to
+     * a single locus.  Conversions departing above the MRCA of every
+     * site of the locus affect no sites.
+     *
+     * @param acg conversion graph
+     * @param locus locus
+     */
+    public AffectedSiteList(ConversionGraph acg, Locus locus) {
+        this.acg = acg;
+        this.loci = Collections.singletonList(locus);
+        this.leafSites = null;
+
+        acgEventList = new ACGEventList(acg, locus);
+        walkEvents(true);
+    }
+
+    /**
+     * Construct list of sites affected by a subset of the conversions
+     * belonging to a single locus, considering only the given sites.
+     * The subset must include every conversion of the locus which
+     * overlaps these sites, as the ancestry of a site is then fully
+     * determined by the conversions in the subset.
+     *
+     * Unlike the full list, the walk continues past the point at which
+     * the MRCAs of the considered sites are reached, with this point
+     * recorded in mrcaHeight.  Sites assigned to conversions departing
+     * above mrcaHeight may not be assigned to these conversions by the
+     * full list, which stops at the MRCA of all sites in the ACG.
+     *
+     * @param acg conversion graph
+     * @param locus locus to which the conversions belong
+     * @param sites sites to consider
+     * @param conversions conversions to consider
+     */
+    public AffectedSiteList(ConversionGraph acg, Locus locus, IntRangeSet sites,
+                            Collection<Conversion> conversions) {
+        this.acg = acg;
+        this.loci = Collections.singletonList(locus);
+
+        IntRangeSet locusSites = new IntRangeSet();
+        IntRangeSet.intersection(sites,
+                new IntRangeSet(0, locus.getSiteCount() - 1), locusSites);
+        this.leafSites = Collections.singletonMap(locus, locusSites);
+
+        acgEventList = new ACGEventList(acg, conversions);
+        walkEvents(false);
+    }
+
+    /**
+     * Walk up the ACG event list, recording the sites carried by each
+     * conversion.
+     *
+     * @param stopAtMRCA if true, conversions departing after the MRCAs
+     *                   of all sites have been reached carry no sites.
+     */
+    private void walkEvents(boolean stopAtMRCA) {
         affectedSites = new HashMap<>();
         affectedSiteCount = new HashMap<>();
         affectedSiteFraction = new HashMap<>();
 
-        Map<Node, Map<Locus, List<Integer>>> activeCFNodes = new HashMap<>();
+        Map<Node, Map<Locus, IntRangeSet>> activeCFNodes = new HashMap<>();
         Map<Locus, Set<Conversion>> activeConversions = new HashMap<>();
-        for (Locus locus : acg.getConvertibleLoci())
+        for (Locus locus : loci)
             activeConversions.put(locus, new HashSet<>());
 
-        Map<Locus, List<Integer>> ancestralSitesCF;
+        IntRangeSet outside = new IntRangeSet();
 
         int leavesSeen = 0;
         boolean mrcaReached = false;
         for (ACGEventList.Event event : acgEventList.getACGEvents()) {
 
-            if (mrcaReached) {
+            if (mrcaReached && stopAtMRCA) {
                 if (event.type == ACGEventList.EventType.CONV_DEPART) {
-                    affectedSites.put(event.conversion, new ArrayList<>());
+                    affectedSites.put(event.conversion, new IntRangeSet());
                     affectedSiteCount.put(event.conversion, 0);
                     affectedSiteFraction.put(event.conversion, 0.0);
                 }
@@ -60,52 +152,77 @@ public class AffectedSiteList {
                     Node node1 = event.node.getLeft();
                     Node node2 = event.node.getRight();
 
-                    ancestralSitesCF = new HashMap<>();
-                    for (Locus locus : acg.getConvertibleLoci()) {
-                        ancestralSitesCF.put(locus,
-                                IntRanges.getUnion(activeCFNodes.get(node1).get(locus),
-                                        activeCFNodes.get(node2).get(locus)));
-                    }
+                    // Ancestral sites of node1 are no longer needed, so
+                    // their sets are extended in place.
+                    Map<Locus, IntRangeSet> ancestralSitesCF = activeCFNodes.remove(node1);
+                    Map<Locus, IntRangeSet> ancestralSites2 = activeCFNodes.remove(node2);
+                    if (!mrcaReached && loci.size() == 1)
+                        recordMergedSites(ancestralSitesCF, ancestralSites2.get(loci.get(0)));
+
+                    for (Locus locus : loci)
+                        ancestralSitesCF.get(locus).unionWith(ancestralSites2.get(locus));
 
-                    activeCFNodes.remove(node1);
-                    activeCFNodes.remove(node2);
                     activeCFNodes.put(event.node, ancestralSitesCF);
 
-                    if (leavesSeen == acg.getLeafNodeCount() && haveReachedAllMRCAs(activeCFNodes, activeConversions))
+                    if (!mrcaReached && leavesSeen == acg.getLeafNodeCount()
+                            && haveReachedAllMRCAs(activeCFNodes, activeConversions)) {
                         mrcaReached = true;
+                        mrcaHeight = event.t;
+                    }
 
                     break;
 
                 case CONV_DEPART:
-                    List<Integer> inside = new ArrayList<>();
-                    List<Integer> outside = new ArrayList<>();
-                    IntRanges.partitionRanges(activeCFNodes.get(event.node).get(event.conversion.getLocus()),
+                    IntRangeSet inside = new IntRangeSet();
+                    IntRangeSet nodeSites = activeCFNodes.get(event.node).get(event.conversion.getLocus());
+                    IntRangeSet.partition(nodeSites,
                             event.conversion.getStartSite(),
                             event.conversion.getEndSite() + 1,
                             inside, outside);
+                    nodeSites.copyFrom(outside);
 
+                    int insideSiteCount = inside.getTotalSites();
                     affectedSites.put(event.conversion, inside);
-                    affectedSiteCount.put(event.conversion, IntRanges.getTotalSites(inside));
+                    affectedSiteCount.put(event.conversion, insideSiteCount);
                     affectedSiteFraction.put(event.conversion,
-                            IntRanges.getTotalSites(inside) / (double) event.conversion.getSiteCount());
-                    activeCFNodes.get(event.node).put(
-                            event.conversion.getLocus(), outside);
+                            insideSiteCount / (double) event.conversion.getSiteCount());
                     activeConversions.get(event.conversion.locus).add(event.conversion);
 
                     break;
 
                 case CONV_ARRIVE:
-                    activeCFNodes.get(event.node).put(event.conversion.getLocus(),
-                            IntRanges.getUnion(affectedSites.get(event.conversion),
-                                    activeCFNodes.get(event.node).get(event.conversion.getLocus())));
+                    if (!mrcaReached && loci.size() == 1)
+                        recordMergedSites(activeCFNodes.get(event.node),
+                                affectedSites.get(event.conversion));
+
+                    activeCFNodes.get(event.node).get(event.conversion.getLocus())
+                            .unionWith(affectedSites.get(event.conversion));
                     activeConversions.get(event.conversion.getLocus()).remove(event.conversion);
 
-                    if (leavesSeen == acg.getLeafNodeCount() && haveReachedAllMRCAs(activeCFNodes, activeConversions))
+                    if (!mrcaReached && leavesSeen == acg.getLeafNodeCount()
+                            && haveReachedAllMRCAs(activeCFNodes, activeConversions)) {
                         mrcaReached = true;
+                        mrcaHeight = event.t;
+                    }
                     break;
             }
 
         }
+
+        if (!mrcaReached)
+            mrcaSites.clear();
+    }
+
+    /**
+     * Record the sites shared by two lineages about to be merged.  The
+     * result is retained in mrcaSites if the merger turns out to be
+     * the MRCA event.
+     *
+     * @param nodeSites ancestral sites of first lineage
+     * @param otherSites ancestral sites of second lineage
+     */
+    private void recordMergedSites(Map<Locus, IntRangeSet> nodeSites, IntRangeSet otherSites) {
+        IntRangeSet.intersection(nodeSites.get(loci.get(0)), otherSites, mrcaSites);
     }
 
     /**
@@ -113,14 +230,17 @@ public class AffectedSiteList {
      *
      * @return list of sites
      */
-    protected Map<Locus, List<Integer>> getLeafAncestralSites() {
-        Map<Locus, List<Integer>> res = new HashMap<>();
-
-        for (Locus locus : acg.getConvertibleLoci()) {
-            List<Integer> siteRange = new ArrayList<>();
-            siteRange.add(0);
-            siteRange.add(locus.getSiteCount() - 1);
-            res.put(locus, siteRange);
+    protected Map<Locus, IntRangeSet> getLeafAncestralSites() {
+        Map<Locus, IntRangeSet> res = new HashMap<>();
+
+        for (Locus locus : loci) {
+            if (leafSites == null)
+                res.put(locus, new IntRangeSet(0, locus.getSiteCount() - 1));
+            else {
+                IntRangeSet sites = new IntRangeSet();
+                sites.copyFrom(leafSites.get(locus));
+                res.put(locus, sites);
+            }
         }
 
         return res;
@@ -134,31 +254,22 @@ public class AffectedSiteList {
      * @param activeConversions set of active conversions and the sites they represent
      * @return true if all sites have found an MRCA, false otherwise
      */
-    protected boolean haveReachedAllMRCAs(Map<Node, Map<Locus, List<Integer>>> activeCFNodes,
+    protected boolean haveReachedAllMRCAs(Map<Node, Map<Locus, IntRangeSet>> activeCFNodes,
                                 Map<Locus, Set<Conversion>> activeConversions) {
 
-        for (Locus locus : acg.getConvertibleLoci()) {
-            List<Integer> startSites = new ArrayList<>();
-            List<Integer> endSites = new ArrayList<>();
-            for (Node node : activeCFNodes.keySet()) {
-                for (int i = 0; i < activeCFNodes.get(node).get(locus).size(); i += 2) {
-                    startSites.add(activeCFNodes.get(node).get(locus).get(i));
-                    endSites.add(activeCFNodes.get(node).get(locus).get(i + 1));
-                }
-            }
+        for (Locus locus : loci) {
+            int n = 0;
+            for (Map<Locus, IntRangeSet> nodeSites : activeCFNodes.values())
+                n = addRanges(nodeSites.get(locus), n);
 
-            for (Conversion conv : activeConversions.get(locus)) {
-                for (int i = 0; i < affectedSites.get(conv).size(); i += 2) {
-                    startSites.add(affectedSites.get(conv).get(i));
-                    endSites.add(affectedSites.get(conv).get(i + 1));
-                }
-            }
+            for (Conversion conv : activeConversions.get(locus))
+                n = addRanges(affectedSites.get(conv), n);
 
-            Collections.sort(startSites);
-            Collections.sort(endSites);
+            Arrays.sort(startSites, 0, n);
+            Arrays.sort(endSites, 0, n);
 
-            for (int i = 0; i < startSites.size() - 1; i++) {
-                if (startSites.get(i + 1) < endSites.get(i))
+            for (int i = 0; i < n - 1; i++) {
+                if (startSites[i + 1] < endSites[i])
                     return false;
             }
         }
@@ -166,6 +277,26 @@ public class AffectedSiteList {
         return true;
     }
 
+    /**
+     * Append start and end sites of ranges to scratch buffers.
+     *
+     * @param ranges range set
+     * @param n number of ranges already in buffers
+     * @return new number of ranges in buffers
+     */
+    private int addRanges(IntRangeSet ranges, int n) {
+        int nNew = n + ranges.size()/2;
+        if (startSites.length < nNew) {
+            startSites = Arrays.copyOf(startSites, 2*nNew);
+            endSites = Arrays.copyOf(endSites, 2*nNew);
+        }
 
+        for (int i = 0; i < ranges.size(); i += 2) {
+            startSites[n] = ranges.get(i);
+            endSites[n] = ranges.get(i + 1);
+            n += 1;
+        }
 
+        return n;
+    }
 }
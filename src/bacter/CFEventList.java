@@ -105,6 +105,16 @@ public class CFEventList {
     private final List<Event> events;
     private boolean dirty;
 
+    /**
+     * Clonal frame edges, identified by the nodes below them and laid
+     * end to end in node order, together with the total length of the
+     * edges up to and including each one.  Edge starts are indexed by
+     * node number.
+     */
+    private Node[] edgeNodes;
+    private double[] edgeEnds;
+    private double[] edgeStarts;
+
     public CFEventList(ConversionGraph acg) {
         this.acg = acg;
         
@@ -125,6 +135,73 @@ public class CFEventList {
         return events;
     }
 
+    /**
+     * @return total length of all edges in clonal frame
+     */
+    public double getClonalFrameLength() {
+        updateEvents();
+
+        return edgeEnds.length > 0 ? edgeEnds[edgeEnds.length-1] : 0.0;
+    }
+
+    /**
+     * Locate the edge containing the point lying the given distance
+     * along the clonal frame when its edges are laid end to end in node
+     * order.  Uses a binary search of the cumulative edge lengths.
+     *
+     * @param length distance along clonal frame
+     * @return node below edge containing point
+     */
+    public Node getEdgeNode(double length) {
+        updateEvents();
+
+        int lo = 0, hi = edgeEnds.length-1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (edgeEnds[mid] <= length)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+
+        return edgeNodes[lo];
+    }
+
+    /**
+     * @param node non-root clonal frame node
+     * @return distance along clonal frame at which the edge above node
+     * begins, when edges are laid end to end in node order
+     */
+    public double getEdgeStart(Node node) {
+        updateEvents();
+
+        return edgeStarts[node.getNr()];
+    }
+
+    /**
+     * Locate the interval between events containing the given height.
+     * Uses a binary search of the event list.
+     *
+     * @param height height
+     * @return index i of the event beginning the interval, such that
+     * event i+1 is the first event after the first lying at or above
+     * the given height
+     */
+    public int getIntervalIndex(double height) {
+        updateEvents();
+
+        int lo = 1, hi = events.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (events.get(mid).t < height)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+
+        return lo - 1;
+    }
+
     /**
      * Mark the event list as dirty.
      */
@@ -170,6 +247,25 @@ public class CFEventList {
             event.lineages = k;
         }
 
+        // Compute cumulative edge lengths:
+        Node[] nodes = acg.getNodesAsArray();
+        if (edgeStarts == null || edgeStarts.length != nodes.length) {
+            edgeNodes = new Node[nodes.length-1];
+            edgeEnds = new double[nodes.length-1];
+            edgeStarts = new double[nodes.length];
+        }
+
+        int i = 0;
+        double length = 0.0;
+        for (Node node : nodes) {
+            if (node.isRoot())
+                continue;
+
+            edgeStarts[node.getNr()] = length;
+            length += node.getLength();
+            edgeNodes[i] = node;
+            edgeEnds[i++] = length;
+        }
 
         dirty = false;
     }
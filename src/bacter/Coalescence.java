@@ -17,6 +17,8 @@
 
 package bacter;
 
+import bacter.util.IntRangeSet;
+
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.List;
@@ -29,17 +31,17 @@ import java.util.List;
  */
 public class Coalescence {
     public List<BitSet> descendantLeaves1, descendantLeaves2;
-    public List<Integer> siteRanges;
+    public IntRangeSet siteRanges;
 
     public Coalescence() {
         descendantLeaves1 = new ArrayList<>();
         descendantLeaves2 = new ArrayList<>();
-        siteRanges = new ArrayList<>();
+        siteRanges = new IntRangeSet();
     }
 
     public Coalescence(String string) {
 
-        siteRanges = new ArrayList<>();
+        siteRanges = new IntRangeSet();
         descendantLeaves1 = new ArrayList<>();
         descendantLeaves2 = new ArrayList<>();
 
@@ -55,8 +57,7 @@ public class Coalescence {
             String[] split2 = aSplit1.split("]\\{");
             String[] rangeStr = split2[0].split(",");
 
-            siteRanges.add(Integer.parseInt(rangeStr[0]));
-            siteRanges.add(Integer.parseInt(rangeStr[1]));
+            siteRanges.add(Integer.parseInt(rangeStr[0]), Integer.parseInt(rangeStr[1]));
 
             String[] split3 = split2[1].split("\\}\\{");
 
@@ -97,15 +98,14 @@ public class Coalescence {
 
     public void addInterval(int x, int y, BitSet dl1, BitSet dl2) {
         if (getIntervalCount()>0
-                && x == siteRanges.get(siteRanges.size()-1)
+                && x == siteRanges.getLast()
                 && ((descendantLeaves1.get(descendantLeaves1.size()-1).equals(dl1)
                 && descendantLeaves2.get(descendantLeaves2.size()-1).equals(dl2))
                 || (descendantLeaves1.get(descendantLeaves1.size()-1).equals(dl2)
                 && descendantLeaves2.get(descendantLeaves2.size()-1).equals(dl1))))
             siteRanges.set(siteRanges.size()-1, y);
         else {
-            siteRanges.add(x);
-            siteRanges.add(y);
+            siteRanges.add(x, y);
             descendantLeaves1.add(dl1);
             descendantLeaves2.add(dl2);
         }
@@ -67,6 +67,12 @@ public class Conversion {
      */
     public int acgIndex;
 
+    /**
+     * Used by ConversionJournal to record whether the state of this
+     * conversion has already been journaled since the last store.
+     */
+    long journalGeneration = -1;
+
     public Conversion() { }
 
     /**
@@ -144,7 +150,7 @@ public class Conversion {
      * @param startSite 
      */
     public void setStartSite(int startSite) {
-        startEditing();
+        startEditing(ConversionGraph.ChangeKind.SITES);
         this.startSite = startSite;
     }
     
@@ -162,7 +168,7 @@ public class Conversion {
      * @param endSite 
      */
     public void setEndSite(int endSite) {
-        startEditing();
+        startEditing(ConversionGraph.ChangeKind.SITES);
         this.endSite = endSite;
     }
 
@@ -173,7 +179,9 @@ public class Conversion {
      * @param node1 
      */
     public void setNode1(Node node1) {
-        startEditing();
+        startEditing(ConversionGraph.ChangeKind.TOPOLOGY);
+        if (acg != null)
+            acg.conversionDepartureEdgeChanging(this, node1);
         this.node1 = node1;
     }
 
@@ -184,7 +192,9 @@ public class Conversion {
      * @param node2 
      */
     public void setNode2(Node node2) {
-        startEditing();
+        startEditing(ConversionGraph.ChangeKind.TOPOLOGY);
+        if (acg != null)
+            acg.conversionArrivalEdgeChanging(this, node2);
         this.node2 = node2;
     }
 
@@ -195,8 +205,10 @@ public class Conversion {
      * @param height1 
      */
     public void setHeight1(double height1) {
-        startEditing();
+        startEditing(ConversionGraph.ChangeKind.HEIGHTS_ONLY);
         this.height1 = height1;
+        if (acg != null)
+            acg.conversionDepartureHeightChanged(this);
     }
 
     /**
@@ -205,8 +217,10 @@ public class Conversion {
      * @param height2 
      */
     public void setHeight2(double height2) {
-        startEditing();
+        startEditing(ConversionGraph.ChangeKind.HEIGHTS_ONLY);
         this.height2 = height2;
+        if (acg != null)
+            acg.conversionArrivalHeightChanged(this);
     }
 
     /**
@@ -281,8 +295,18 @@ public class Conversion {
      * Mark ARG statenode as dirty if available.
      */
     public void startEditing() {
+        startEditing(ConversionGraph.ChangeKind.SITES);
+    }
+
+    /**
+     * Mark ARG statenode as dirty if available, recording the kind of
+     * modification about to be made to this conversion.
+     *
+     * @param kind kind of modification
+     */
+    public void startEditing(ConversionGraph.ChangeKind kind) {
         if (acg != null)
-            acg.startEditing(null);
+            acg.conversionModified(this, kind);
     }
     
     /**
@@ -318,8 +342,10 @@ public class Conversion {
         if (endSite != that.endSite) return false;
         if (acg != null ? !acg.equals(that.acg) : that.acg != null)
             return false;
-        if (!node1.equals(that.node1)) return false;
-        return node2.equals(that.node2);
+        // Nodes are compared by number, as Tree.restore() replaces the
+        // node objects of the ACG with their stored counterparts.
+        if (node1.getNr() != that.node1.getNr()) return false;
+        return node2.getNr() == that.node2.getNr();
 
     }
 
@@ -328,8 +354,8 @@ public class Conversion {
         int result;
         long temp;
         result = acg != null ? acg.hashCode() : 0;
-        result = 31 * result + node1.hashCode();
-        result = 31 * result + node2.hashCode();
+        result = 31 * result + node1.getNr();
+        result = 31 * result + node2.getNr();
         temp = Double.doubleToLongBits(height1);
         result = 31 * result + (int) (temp ^ (temp >>> 32));
         temp = Double.doubleToLongBits(height2);
@@ -73,6 +73,13 @@ public class ConversionGraph extends Tree {
             "wholeLocusConversionsOnly",
             "Force region boundaries to coincide with locus boundaries.", false);
 
+    public Input<Boolean> journalStoreRestoreInput = new Input<>(
+            "journalStoreRestore",
+            "If true (default), store() records an undo journal of " +
+                    "conversion modifications instead of copying every " +
+                    "conversion.  Set to false to use full copies, e.g. " +
+                    "for validation.", true);
+
     /**
      * List of recombinations on graph.
      */
@@ -86,9 +93,62 @@ public class ConversionGraph extends Tree {
     protected Map<Locus, RegionList> regionLists;
     protected CFEventList cfEventList;
 
+    /**
+     * Index from CF edges to attached conversions.  Created on demand.
+     */
+    protected EdgeConversionIndex edgeIndex, storedEdgeIndex;
+
+    /**
+     * Undo journal used in place of storedConvs when enabled.
+     */
+    protected ConversionJournal journal;
+    protected boolean journalStoreRestore = true;
+
     protected List<Locus> loci, convertibleLoci;
     protected int totalConvertibleSequenceLength;
 
+    /**
+     * Kinds of modification which may be made to the graph, in order
+     * of increasing severity.
+     */
+    public enum ChangeKind {
+        /**
+         * Only node and conversion heights change.  Region boundaries
+         * and site patterns are unaffected.
+         */
+        HEIGHTS_ONLY,
+
+        /**
+         * Edges to which nodes or conversions attach may change, but
+         * conversion sites do not.
+         */
+        TOPOLOGY,
+
+        /**
+         * Conversions may be added, removed, or have their affected
+         * sites changed.
+         */
+        SITES
+    }
+
+    /**
+     * Kind of change declared by the operator currently modifying the
+     * graph, or null if no declaration has been made.
+     */
+    protected ChangeKind declaredChangeKind = null;
+
+    /**
+     * Loci whose conversions have been added, removed or modified since
+     * the last store() or restore().
+     */
+    protected Set<Locus> dirtyLoci = new HashSet<>();
+
+    /**
+     * Cumulative conversion counts of the convertible loci, or null if
+     * these must be recomputed.
+     */
+    protected int[] cumulativeConvCounts;
+
     @Override
     public void initAndValidate() {
     	
@@ -96,6 +156,9 @@ public class ConversionGraph extends Tree {
         convs = new HashMap<>();
         storedConvs = new HashMap<>();
 
+        journalStoreRestore = journalStoreRestoreInput.get();
+        journal = new ConversionJournal(this);
+
         if (lociInput.get().isEmpty())
                 throw new RuntimeException("Must specify at least one locus " +
                         "as an input to ConversionGraph.");
@@ -178,7 +241,7 @@ public class ConversionGraph extends Tree {
      * @param conv conversion to add
      */
     public void addConversion(Conversion conv) {
-        startEditing(null);
+        startEditingConversions();
         
         conv.setConversionGraph(this);
 
@@ -193,6 +256,18 @@ public class ConversionGraph extends Tree {
                 break;
         
         convs.get(locus).add(i, conv);
+        cumulativeConvCounts = null;
+
+        if (journal != null)
+            journal.recordAdd(conv);
+
+        if (edgeIndex != null)
+            edgeIndex.add(conv);
+
+        if (regionLists != null)
+            regionLists.get(locus).conversionAdded(conv);
+
+        dirtyLoci.add(locus);
     }
     
     /**
@@ -201,12 +276,153 @@ public class ConversionGraph extends Tree {
      * @param conv conversion to remove.
      */
     public void deleteConversion(Conversion conv) {
-        startEditing(null);
+        startEditingConversions();
 
         if (!conv.getLocus().conversionsAllowed())
             throw new IllegalStateException("Tried to remove a conversion from a conversion-free locus.");
 
-        convs.get(conv.getLocus()).remove(conv);
+        List<Conversion> locusConvs = convs.get(conv.getLocus());
+        int idx = locusConvs.indexOf(conv);
+        if (idx < 0)
+            return;
+
+        conv = locusConvs.remove(idx);
+        cumulativeConvCounts = null;
+
+        if (journal != null)
+            journal.recordDelete(conv, idx);
+
+        if (edgeIndex != null)
+            edgeIndex.remove(conv);
+
+        if (regionLists != null)
+            regionLists.get(conv.getLocus()).conversionRemoved(conv);
+
+        dirtyLoci.add(conv.getLocus());
+    }
+
+    /**
+     * Record modification of a conversion attached to this graph.
+     * Called by Conversion setters so that region lists need only
+     * re-derive the regions affected by the change.
+     *
+     * @param conv conversion being modified
+     * @param kind kind of modification
+     */
+    void conversionModified(Conversion conv, ChangeKind kind) {
+        startEditingConversions();
+
+        if (journal != null)
+            journal.recordModify(conv);
+
+        if (regionLists != null && conv.getLocus() != null
+                && regionLists.containsKey(conv.getLocus()))
+            regionLists.get(conv.getLocus()).conversionModified(conv, kind);
+
+        if (conv.getLocus() != null)
+            dirtyLoci.add(conv.getLocus());
+    }
+
+    /**
+     * Update edge index prior to a change in the departure edge of
+     * a conversion attached to this graph.
+     *
+     * @param conv conversion being modified
+     * @param newNode1 node below new departure edge
+     */
+    void conversionDepartureEdgeChanging(Conversion conv, Node newNode1) {
+        if (edgeIndex != null)
+            edgeIndex.moveDeparture(conv, newNode1);
+    }
+
+    /**
+     * Update edge index prior to a change in the arrival edge of
+     * a conversion attached to this graph.
+     *
+     * @param conv conversion being modified
+     * @param newNode2 node below new arrival edge
+     */
+    void conversionArrivalEdgeChanging(Conversion conv, Node newNode2) {
+        if (edgeIndex != null)
+            edgeIndex.moveArrival(conv, newNode2);
+    }
+
+    /**
+     * Update edge index following a change in the departure height
+     * of a conversion attached to this graph.
+     *
+     * @param conv conversion modified
+     */
+    void conversionDepartureHeightChanged(Conversion conv) {
+        if (edgeIndex != null)
+            edgeIndex.departureHeightChanged(conv);
+    }
+
+    /**
+     * Update edge index following a change in the arrival height
+     * of a conversion attached to this graph.
+     *
+     * @param conv conversion modified
+     */
+    void conversionArrivalHeightChanged(Conversion conv) {
+        if (edgeIndex != null)
+            edgeIndex.arrivalHeightChanged(conv);
+    }
+
+    /**
+     * Retrieve index from CF edges to attached conversions, building
+     * it if necessary.
+     *
+     * @return edge conversion index
+     */
+    protected EdgeConversionIndex getEdgeIndex() {
+        if (edgeIndex == null || edgeIndex.getNodeCount() != getNodeCount()) {
+            edgeIndex = new EdgeConversionIndex(getNodeCount());
+            for (Locus locus : convertibleLoci)
+                for (Conversion conv : convs.get(locus))
+                    edgeIndex.add(conv);
+        }
+
+        return edgeIndex;
+    }
+
+    /**
+     * Obtain conversions (on all loci) departing from the CF edge above
+     * the given node, sorted in order of increasing departure height.
+     * The returned list is read-only and must be copied before modifying
+     * the departure points of any conversions it contains.
+     *
+     * @param node CF node below edge
+     * @return list of conversions
+     */
+    public List<Conversion> getDepartingConversions(Node node) {
+        return getEdgeIndex().getDepartingConversions(node);
+    }
+
+    /**
+     * Obtain conversions (on all loci) arriving at the CF edge above
+     * the given node, sorted in order of increasing arrival height.
+     * The returned list is read-only and must be copied before modifying
+     * the arrival points of any conversions it contains.
+     *
+     * @param node CF node below edge
+     * @return list of conversions
+     */
+    public List<Conversion> getArrivingConversions(Node node) {
+        return getEdgeIndex().getArrivingConversions(node);
+    }
+
+    /**
+     * Discard edge indices following wholesale replacement of nodes
+     * or conversions.
+     */
+    protected void resetEdgeIndex() {
+        edgeIndex = null;
+        storedEdgeIndex = null;
+        cumulativeConvCounts = null;
+
+        if (journal != null)
+            journal.stop();
     }
     
     /**
@@ -241,11 +457,49 @@ public class ConversionGraph extends Tree {
      * @return Number of conversions.
      */
     public int getTotalConvCount() {
-        int convCount = 0;
-        for (Locus locus : convertibleLoci)
-            convCount += convs.get(locus).size();
+        int[] counts = getCumulativeConvCounts();
+        return counts.length > 0 ? counts[counts.length-1] : 0;
+    }
+
+    /**
+     * @return cumulative conversion counts of the convertible loci,
+     * recomputed only after conversions are added or removed
+     */
+    protected int[] getCumulativeConvCounts() {
+        if (cumulativeConvCounts == null) {
+            cumulativeConvCounts = new int[convertibleLoci.size()];
+            int total = 0;
+            for (int i=0; i<convertibleLoci.size(); i++) {
+                total += convs.get(convertibleLoci.get(i)).size();
+                cumulativeConvCounts[i] = total;
+            }
+        }
+
+        return cumulativeConvCounts;
+    }
+
+    /**
+     * Obtain conversion by its position in the list formed by
+     * concatenating the conversions of each convertible locus.  The
+     * locus is found by binary search of cumulative conversion counts.
+     *
+     * @param idx index of conversion, less than getTotalConvCount()
+     * @return conversion
+     */
+    public Conversion getConversion(int idx) {
+        int[] counts = getCumulativeConvCounts();
+
+        int lo = 0, hi = counts.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (counts[mid] <= idx)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
 
-        return convCount;
+        int offset = lo > 0 ? counts[lo-1] : 0;
+        return convs.get(convertibleLoci.get(lo)).get(idx - offset);
     }
 
     /**
@@ -313,6 +567,16 @@ public class ConversionGraph extends Tree {
         return cfEventList.getCFEvents();
     }
 
+    /**
+     * Obtain the clonal frame event list, which also provides cached
+     * lookups of clonal frame edges and event intervals for operators.
+     *
+     * @return clonal frame event list
+     */
+    public CFEventList getCFEventList() {
+        return cfEventList;
+    }
+
     /**
      * @return Total length of all edges in clonal frame.
      */
@@ -421,6 +685,12 @@ public class ConversionGraph extends Tree {
         for (Locus locus : convertibleLoci)
             convs.get(locus).clear();
 
+        resetEdgeIndex();
+
+        if (regionLists != null)
+            for (RegionList regionList : regionLists.values())
+                regionList.reset();
+
         while(convMatcher.find()) {
             String [] elements = convMatcher.group(1).split(",");
 
@@ -475,6 +745,9 @@ public class ConversionGraph extends Tree {
         acg.convs = new HashMap<>();
         acg.storedConvs = new HashMap<>();
 
+        acg.journalStoreRestore = journalStoreRestore;
+        acg.journal = new ConversionJournal(acg);
+
         acg.loci = loci;
         acg.convertibleLoci = convertibleLoci;
         for (Locus locus : convertibleLoci) {
@@ -526,8 +799,12 @@ public class ConversionGraph extends Tree {
                 }
             }
 
+            resetEdgeIndex();
+
             if (cfEventList == null)
                 cfEventList = new CFEventList(this);
+            else
+                cfEventList.makeDirty();
 
             regionLists.clear();
             for (Locus locus : loci) {
@@ -576,7 +853,8 @@ public class ConversionGraph extends Tree {
         if (computeAffectedSites)
             asList = new AffectedSiteList(this);
 
-        return extendedNewickTraverse(root, asList, false) + ";";
+        return extendedNewickTraverse(root, asList, false,
+                getLocusConversionIndices()) + ";";
 
     }
 
@@ -590,12 +868,49 @@ public class ConversionGraph extends Tree {
      */
     public String getTrimmedExtendedNewick() {
 
-        return extendedNewickTraverse(root, null, true) + ";";
+        return extendedNewickTraverse(root, null, true,
+                getLocusConversionIndices()) + ";";
+    }
+
+    /**
+     * @return map from conversions to their indices within their
+     * respective locus conversion lists.
+     */
+    private Map<Conversion, Integer> getLocusConversionIndices() {
+        Map<Conversion, Integer> convIndices = new IdentityHashMap<>();
+        for (Locus locus : getConvertibleLoci()) {
+            List<Conversion> locusConvs = getConversions(locus);
+            for (int i=0; i<locusConvs.size(); i++)
+                convIndices.put(locusConvs.get(i), i);
+        }
+
+        return convIndices;
+    }
+
+    /**
+     * Obtain index of conversion when conversions are listed in order
+     * of alignment and start site.
+     *
+     * @param conv conversion whose index is required
+     * @param locusConvIndices map from conversions to indices within loci
+     * @return Conversion index
+     */
+    private int getConversionIndex(Conversion conv, Map<Conversion, Integer> locusConvIndices) {
+        int index = 0;
+        for (Locus locus : getConvertibleLoci()) {
+            if (locus == conv.getLocus())
+                return index + locusConvIndices.get(conv);
+            else
+                index += getConvCount(locus);
+        }
+
+        return index;
     }
     
     private String extendedNewickTraverse(Node node,
                                           AffectedSiteList asList,
-                                          boolean intraCFOnly) {
+                                          boolean intraCFOnly,
+                                          Map<Conversion, Integer> locusConvIndices) {
         StringBuilder sb = new StringBuilder();
         
         // Determine sequence of events along this node.
@@ -611,16 +926,13 @@ public class ConversionGraph extends Tree {
             }
         }
         List<Event> events = new ArrayList<>();
-        for (Locus locus : getConvertibleLoci()) {
-            for (Conversion conv : getConversions(locus)) {
-                if (intraCFOnly && conv.node2.isRoot())
-                    continue;
-
-                if (conv.node1 == node)
-                    events.add(new Event(false, conv.getHeight1(), conv));
-                if (conv.node2 == node)
-                    events.add(new Event(true, conv.getHeight2(), conv));
-            }
+        for (Conversion conv : getDepartingConversions(node)) {
+            if (!intraCFOnly || !conv.node2.isRoot())
+                events.add(new Event(false, conv.getHeight1(), conv));
+        }
+        for (Conversion conv : getArrivingConversions(node)) {
+            if (!intraCFOnly || !conv.node2.isRoot())
+                events.add(new Event(true, conv.getHeight2(), conv));
         }
         
         // Sort events from oldest to youngest.
@@ -652,7 +964,7 @@ public class ConversionGraph extends Tree {
             if (event.isArrival) {
                 String meta =  String.format(Locale.ENGLISH,
                         "[&conv=%d, region={%d,%d}, locus=\"%s\", relSize=%g",
-                        convs.get(event.conv.getLocus()).indexOf(event.conv),
+                        locusConvIndices.get(event.conv),
                         event.conv.getStartSite(),
                         event.conv.getEndSite(),
                         event.conv.getLocus().getID(),
@@ -677,7 +989,7 @@ public class ConversionGraph extends Tree {
                 else
                     parentMeta = "";
 
-                sb.insert(cursor, "(,#" + getConversionIndex(event.conv)
+                sb.insert(cursor, "(,#" + getConversionIndex(event.conv, locusConvIndices)
                         + meta
                         + ":" + (event.conv.height2-event.conv.height1)
                         + ")"
@@ -691,7 +1003,7 @@ public class ConversionGraph extends Tree {
                 else
                     meta = "";
 
-                sb.insert(cursor, "()#" + getConversionIndex(event.conv)
+                sb.insert(cursor, "()#" + getConversionIndex(event.conv, locusConvIndices)
                         + meta
                         + ":" + thisLength);
                 cursor += 1;
@@ -703,8 +1015,10 @@ public class ConversionGraph extends Tree {
         // Process this node and its children.
 
         if (!node.isLeaf()) {
-            String subtree1 = extendedNewickTraverse(node.getChild(0), asList, intraCFOnly);
-            String subtree2 = extendedNewickTraverse(node.getChild(1), asList, intraCFOnly);
+            String subtree1 = extendedNewickTraverse(node.getChild(0), asList,
+                    intraCFOnly, locusConvIndices);
+            String subtree2 = extendedNewickTraverse(node.getChild(1), asList,
+                    intraCFOnly, locusConvIndices);
             sb.insert(cursor, "(" + subtree1 + "," + subtree2 + ")");
             cursor += subtree1.length() + subtree2.length() + 3;
         }
@@ -959,6 +1273,12 @@ public class ConversionGraph extends Tree {
         for (Locus locus : getConvertibleLoci())
             convs.get(locus).clear();
 
+        resetEdgeIndex();
+
+        if (regionLists != null)
+            for (RegionList regionList : regionLists.values())
+                regionList.reset();
+
         for (Conversion conv : convIDMap.values())
             addConversion(conv);
 
@@ -971,6 +1291,29 @@ public class ConversionGraph extends Tree {
     @Override
     protected void store () {
         super.store();
+
+        // The declared change kind is deliberately retained: the state
+        // stores this node lazily, from within the first startEditing()
+        // call of the operator which made the declaration.
+        dirtyLoci.clear();
+
+        if (regionLists != null)
+            for (RegionList regionList : regionLists.values())
+                regionList.store();
+
+        if (journalStoreRestore) {
+            storedEdgeIndex = null;
+            journal.start();
+            return;
+        }
+
+        if (edgeIndex != null) {
+            if (storedEdgeIndex == null || storedEdgeIndex.getNodeCount() != getNodeCount())
+                storedEdgeIndex = new EdgeConversionIndex(getNodeCount());
+            else
+                storedEdgeIndex.clear();
+        } else
+            storedEdgeIndex = null;
         
         for (Locus locus : convertibleLoci) {
             storedConvs.get(locus).clear();
@@ -993,6 +1336,9 @@ public class ConversionGraph extends Tree {
                 convCopy.setConversionGraph(this);
 
                 storedConvs.get(locus).add(convCopy);
+
+                if (storedEdgeIndex != null)
+                    storedEdgeIndex.add(convCopy);
             }
         }
     }
@@ -1000,14 +1346,116 @@ public class ConversionGraph extends Tree {
     @Override
     public void restore() {
         super.restore();
-        
-        Map<Locus, List<Conversion>> tmp = storedConvs;
-        storedConvs = convs;
-        convs = tmp;
+
+        declaredChangeKind = null;
+        cumulativeConvCounts = null;
+
+        if (journalStoreRestore) {
+            journal.undo();
+
+            // Tree.restore() swaps the current and stored node arrays,
+            // so conversions must be reattached to the restored nodes.
+            for (Locus locus : convertibleLoci) {
+                for (Conversion conv : convs.get(locus)) {
+                    conv.node1 = m_nodes[conv.node1.getNr()];
+                    conv.node2 = m_nodes[conv.node2.getNr()];
+                }
+            }
+        } else if (dirtyLoci.containsAll(convertibleLoci)) {
+            Map<Locus, List<Conversion>> tmp = storedConvs;
+            storedConvs = convs;
+            convs = tmp;
+
+            EdgeConversionIndex tmpEdgeIndex = storedEdgeIndex;
+            storedEdgeIndex = edgeIndex;
+            edgeIndex = tmpEdgeIndex;
+        } else {
+            // Only the conversions of dirty loci are replaced by their
+            // stored copies.  Those of clean loci are kept, so that the
+            // region lists built from them remain valid.
+            for (Locus locus : convertibleLoci) {
+                if (dirtyLoci.contains(locus)) {
+                    if (edgeIndex != null)
+                        for (Conversion conv : convs.get(locus))
+                            edgeIndex.remove(conv);
+
+                    List<Conversion> tmp = storedConvs.get(locus);
+                    storedConvs.put(locus, convs.get(locus));
+                    convs.put(locus, tmp);
+
+                    if (edgeIndex != null)
+                        for (Conversion conv : convs.get(locus))
+                            edgeIndex.add(conv);
+                } else {
+                    for (Conversion conv : convs.get(locus)) {
+                        conv.node1 = m_nodes[conv.node1.getNr()];
+                        conv.node2 = m_nodes[conv.node2.getNr()];
+                    }
+                }
+            }
+        }
 
         cfEventList.makeDirty();
-        for (Locus locus : loci)
-            regionLists.get(locus).makeDirty();
+        for (Locus locus : loci) {
+            if (journalStoreRestore || !dirtyLoci.contains(locus))
+                regionLists.get(locus).restore();
+            else
+                regionLists.get(locus).reset();
+        }
+
+        dirtyLoci.clear();
+    }
+
+    @Override
+    public void setEverythingDirty(boolean isDirty) {
+        super.setEverythingDirty(isDirty);
+
+        // Called with isDirty false once a proposal has been accepted
+        // or rejected, ending the lifetime of any declaration.
+        if (!isDirty)
+            declaredChangeKind = null;
+    }
+
+    /**
+     * Declare the kind of change about to be made to the graph.  Used
+     * by operators whose modifications are known to leave the region
+     * structure intact, allowing region lists and the caches keyed on
+     * them to survive the move.  Edits made without a declaration are
+     * assumed to be of kind SITES.  The declaration lasts until the
+     * proposal is accepted or rejected.
+     *
+     * @param kind kind of change
+     */
+    public void setChangeKind(ChangeKind kind) {
+        declaredChangeKind = kind;
+    }
+
+    /**
+     * @return kind of change declared by current operator, or SITES
+     * if no declaration has been made.
+     */
+    public ChangeKind getChangeKind() {
+        return declaredChangeKind != null ? declaredChangeKind : ChangeKind.SITES;
+    }
+
+    /**
+     * @param locus locus
+     * @return true if conversions belonging to locus have been added,
+     * removed or modified since the last store() or restore().
+     */
+    public boolean locusIsDirty(Locus locus) {
+        return dirtyLoci.contains(locus);
+    }
+
+    /**
+     * Notify the state that this graph is being edited without marking
+     * the clonal frame event list or the region lists of other loci as
+     * dirty.  Used for modifications of conversions, which only affect
+     * the region list of their own locus.
+     */
+    protected void startEditingConversions() {
+        if (state != null)
+            super.startEditing(null);
     }
 
     @Override
@@ -1020,7 +1468,7 @@ public class ConversionGraph extends Tree {
 
         if (regionLists != null)
             for (RegionList regionList : regionLists.values())
-                regionList.makeDirty();
+                regionList.recordChange(getChangeKind());
     }
 
     /**
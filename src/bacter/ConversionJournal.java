@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package bacter;
+
+import beast.base.evolution.tree.Node;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Undo journal used by ConversionGraph to implement store() and restore()
+ * without copying every conversion.  Mutations of the graph's conversions
+ * record enough information to reverse them, and restore() simply replays
+ * the recorded entries in reverse order.
+ *
+ * @author agent <agent@local>
+ */
+public class ConversionJournal {
+
+    private enum EntryType { ADD, DELETE, MODIFY }
+
+    private static class Entry {
+        EntryType type;
+        Conversion conv;
+        int listIndex;
+
+        Node node1, node2;
+        double height1, height2;
+        int startSite, endSite;
+    }
+
+    private final ConversionGraph acg;
+    private final List<Entry> entries;
+
+    /**
+     * Journal generation, incremented on every store.  Used to avoid
+     * recording more than one snapshot per conversion per generation.
+     */
+    private long generation;
+
+    private boolean active;
+
+    /**
+     * Construct new journal for given conversion graph.
+     *
+     * @param acg conversion graph whose mutations are recorded
+     */
+    public ConversionJournal(ConversionGraph acg) {
+        this.acg = acg;
+        entries = new ArrayList<>();
+        generation = 0;
+        active = false;
+    }
+
+    /**
+     * Discard all entries and begin recording mutations relative to the
+     * current state.
+     */
+    public void start() {
+        entries.clear();
+        generation += 1;
+        active = true;
+    }
+
+    /**
+     * Discard all entries and cease recording.  Used when the conversions
+     * are replaced wholesale, after which the journal is meaningless
+     * until the next call to start().
+     */
+    public void stop() {
+        entries.clear();
+        active = false;
+    }
+
+    /**
+     * @return true if mutations are currently being recorded
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Record addition of a conversion.
+     *
+     * @param conv conversion added
+     */
+    void recordAdd(Conversion conv) {
+        if (!active)
+            return;
+
+        Entry entry = new Entry();
+        entry.type = EntryType.ADD;
+        entry.conv = conv;
+        entries.add(entry);
+    }
+
+    /**
+     * Record deletion of a conversion.
+     *
+     * @param conv conversion deleted
+     * @param listIndex index of conversion in its locus conversion list
+     */
+    void recordDelete(Conversion conv, int listIndex) {
+        if (!active)
+            return;
+
+        Entry entry = new Entry();
+        entry.type = EntryType.DELETE;
+        entry.conv = conv;
+        entry.listIndex = listIndex;
+        entries.add(entry);
+    }
+
+    /**
+     * Record the state of a conversion prior to its modification.  Only
+     * the first modification of each conversion following a call to
+     * start() is recorded.
+     *
+     * @param conv conversion about to be modified
+     */
+    void recordModify(Conversion conv) {
+        if (!active || conv.journalGeneration == generation)
+            return;
+
+        conv.journalGeneration = generation;
+
+        Entry entry = new Entry();
+        entry.type = EntryType.MODIFY;
+        entry.conv = conv;
+        entry.node1 = conv.node1;
+        entry.node2 = conv.node2;
+        entry.height1 = conv.height1;
+        entry.height2 = conv.height2;
+        entry.startSite = conv.startSite;
+        entry.endSite = conv.endSite;
+        entries.add(entry);
+    }
+
+    /**
+     * Reverse all recorded mutations, returning the conversion lists
+     * (and the edge index, if present) to their state at the last call
+     * to start().  Conversion fields are assigned directly to avoid
+     * triggering further calls to startEditing().
+     */
+    void undo() {
+        for (int i=entries.size()-1; i>=0; i--) {
+            Entry entry = entries.get(i);
+            Conversion conv = entry.conv;
+            List<Conversion> locusConvs = acg.convs.get(conv.getLocus());
+
+            switch (entry.type) {
+                case ADD:
+                    for (int j=locusConvs.size()-1; j>=0; j--) {
+                        if (locusConvs.get(j) == conv) {
+                            locusConvs.remove(j);
+                            break;
+                        }
+                    }
+
+                    if (acg.edgeIndex != null)
+                        acg.edgeIndex.remove(conv);
+                    break;
+
+                case DELETE:
+                    locusConvs.add(entry.listIndex, conv);
+
+                    if (acg.edgeIndex != null)
+                        acg.edgeIndex.add(conv);
+                    break;
+
+                case MODIFY:
+                    if (acg.edgeIndex != null) {
+                        acg.edgeIndex.moveDeparture(conv, entry.node1);
+                        acg.edgeIndex.moveArrival(conv, entry.node2);
+                    }
+
+                    conv.node1 = entry.node1;
+                    conv.node2 = entry.node2;
+                    conv.height1 = entry.height1;
+                    conv.height2 = entry.height2;
+                    conv.startSite = entry.startSite;
+                    conv.endSite = entry.endSite;
+
+                    if (acg.edgeIndex != null) {
+                        acg.edgeIndex.departureHeightChanged(conv);
+                        acg.edgeIndex.arrivalHeightChanged(conv);
+                    }
+                    break;
+            }
+        }
+
+        entries.clear();
+        generation += 1;
+    }
+}
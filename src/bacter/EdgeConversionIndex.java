@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package bacter;
+
+import beast.base.evolution.tree.Node;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Index from clonal frame node numbers to the conversions departing from
+ * and arriving at the edges above the corresponding nodes.  Each list is
+ * kept sorted by attachment height, with re-sorting deferred until the
+ * list is next requested.
+ *
+ * @author agent <agent@local>
+ */
+public class EdgeConversionIndex {
+
+    private final List<List<Conversion>> departing, arriving;
+    private final boolean[] departingSorted, arrivingSorted;
+
+    /**
+     * Construct an empty index for a clonal frame with the given
+     * number of nodes.
+     *
+     * @param nodeCount number of nodes in clonal frame
+     */
+    public EdgeConversionIndex(int nodeCount) {
+        departing = new ArrayList<>(nodeCount);
+        arriving = new ArrayList<>(nodeCount);
+        for (int i=0; i<nodeCount; i++) {
+            departing.add(new ArrayList<>());
+            arriving.add(new ArrayList<>());
+        }
+
+        departingSorted = new boolean[nodeCount];
+        arrivingSorted = new boolean[nodeCount];
+    }
+
+    /**
+     * @return number of clonal frame nodes this index supports
+     */
+    public int getNodeCount() {
+        return departing.size();
+    }
+
+    /**
+     * Obtain conversions departing from the edge above the given node,
+     * in order of increasing departure height.  The returned list is a
+     * read-only view: it must be copied before modifying the attachment
+     * of any of the conversions it contains.
+     *
+     * @param node clonal frame node
+     * @return sorted list of departing conversions
+     */
+    public List<Conversion> getDepartingConversions(Node node) {
+        int nr = node.getNr();
+        if (!departingSorted[nr]) {
+            departing.get(nr).sort(Comparator.comparingDouble(Conversion::getHeight1));
+            departingSorted[nr] = true;
+        }
+
+        return Collections.unmodifiableList(departing.get(nr));
+    }
+
+    /**
+     * Obtain conversions arriving at the edge above the given node,
+     * in order of increasing arrival height.  The returned list is a
+     * read-only view: it must be copied before modifying the attachment
+     * of any of the conversions it contains.
+     *
+     * @param node clonal frame node
+     * @return sorted list of arriving conversions
+     */
+    public List<Conversion> getArrivingConversions(Node node) {
+        int nr = node.getNr();
+        if (!arrivingSorted[nr]) {
+            arriving.get(nr).sort(Comparator.comparingDouble(Conversion::getHeight2));
+            arrivingSorted[nr] = true;
+        }
+
+        return Collections.unmodifiableList(arriving.get(nr));
+    }
+
+    /**
+     * Remove all conversions from index.
+     */
+    void clear() {
+        for (int i=0; i<departing.size(); i++) {
+            departing.get(i).clear();
+            arriving.get(i).clear();
+            departingSorted[i] = true;
+            arrivingSorted[i] = true;
+        }
+    }
+
+    /**
+     * Add conversion to index.
+     *
+     * @param conv conversion to add
+     */
+    void add(Conversion conv) {
+        int nr1 = conv.getNode1().getNr();
+        departing.get(nr1).add(conv);
+        departingSorted[nr1] = false;
+
+        int nr2 = conv.getNode2().getNr();
+        arriving.get(nr2).add(conv);
+        arrivingSorted[nr2] = false;
+    }
+
+    /**
+     * Remove conversion from index.
+     *
+     * @param conv conversion to remove
+     */
+    void remove(Conversion conv) {
+        removeInstance(departing.get(conv.getNode1().getNr()), conv);
+        removeInstance(arriving.get(conv.getNode2().getNr()), conv);
+    }
+
+    /**
+     * Move an indexed conversion's departure point to a new edge.
+     * Conversions not present in the index are ignored.
+     *
+     * @param conv conversion whose node1 is about to change
+     * @param newNode1 new value of node1
+     */
+    void moveDeparture(Conversion conv, Node newNode1) {
+        if (conv.getNode1() == null
+                || !removeInstance(departing.get(conv.getNode1().getNr()), conv))
+            return;
+
+        departing.get(newNode1.getNr()).add(conv);
+        departingSorted[newNode1.getNr()] = false;
+    }
+
+    /**
+     * Move an indexed conversion's arrival point to a new edge.
+     * Conversions not present in the index are ignored.
+     *
+     * @param conv conversion whose node2 is about to change
+     * @param newNode2 new value of node2
+     */
+    void moveArrival(Conversion conv, Node newNode2) {
+        if (conv.getNode2() == null
+                || !removeInstance(arriving.get(conv.getNode2().getNr()), conv))
+            return;
+
+        arriving.get(newNode2.getNr()).add(conv);
+        arrivingSorted[newNode2.getNr()] = false;
+    }
+
+    /**
+     * Record change to the departure height of a conversion.
+     *
+     * @param conv conversion whose height1 has changed
+     */
+    void departureHeightChanged(Conversion conv) {
+        if (conv.getNode1() != null)
+            departingSorted[conv.getNode1().getNr()] = false;
+    }
+
+    /**
+     * Record change to the arrival height of a conversion.
+     *
+     * @param conv conversion whose height2 has changed
+     */
+    void arrivalHeightChanged(Conversion conv) {
+        if (conv.getNode2() != null)
+            arrivingSorted[conv.getNode2().getNr()] = false;
+    }
+
+    /**
+     * Remove the given conversion object (not merely an equal one)
+     * from a list.
+     *
+     * @param list list to remove conversion from
+     * @param conv conversion to remove
+     * @return true if conversion was found
+     */
+    private static boolean removeInstance(List<Conversion> list, Conversion conv) {
+        for (int i=list.size()-1; i>=0; i--) {
+            if (list.get(i) == conv) {
+                list.remove(i);
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
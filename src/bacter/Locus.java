@@ -42,6 +42,16 @@ public class Locus extends BEASTObject {
             "If false, no conversions will be allowed on this locus. (Default true.)",
             true);
 
+    public Input<Boolean> sparseAlignmentInput = new Input<>(
+            "sparseAlignment",
+            "If true, likelihood cores hold only the variable columns of " +
+                    "the alignment.  Constant columns are represented by " +
+                    "per-state counts along the locus, and their contribution " +
+                    "to each region is computed from one set of root partials " +
+                    "per state.  Recommended for long, mostly invariant " +
+                    "alignments. (Default false.)",
+            false);
+
     protected int siteCount;
     protected Alignment alignment;
 
@@ -104,4 +114,11 @@ public class Locus extends BEASTObject {
     public boolean conversionsAllowed() {
         return conversionsAllowedInput.get();
     }
+
+    /**
+     * @return true if only variable alignment columns should be indexed
+     */
+    public boolean useSparseAlignment() {
+        return sparseAlignmentInput.get();
+    }
 }
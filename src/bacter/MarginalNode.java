@@ -33,4 +33,12 @@ public class MarginalNode extends Node {
      * not correspond to any CF node.
      */
     public int cfNodeNr = -1;
+
+    /**
+     * Bookkeeping used by MarginalTreeSweep: whether the node is linked
+     * into the current tree, whether it holds a node number there, and
+     * whether the subtree below it differs from that of the preceding
+     * tree.
+     */
+    boolean sweepLinked, sweepNumbered, sweepChanged;
 }
@@ -34,11 +34,16 @@ public class MarginalTree {
         return marginalRoot;
     }
 
+    /**
+     * Construct empty marginal tree, for use by MarginalTreeSweep.
+     */
+    MarginalTree() { }
+
     public MarginalTree(ConversionGraph acg, Region region) {
         this(acg, region.activeConversions);
     }
 
-    public MarginalTree(ConversionGraph acg, Set<Conversion> convSet) {
+    public MarginalTree(ConversionGraph acg, Collection<Conversion> convSet) {
 
         Map<Conversion, MarginalNode> activeConversions = new HashMap<>();
         Map<Node, MarginalNode> activeCFlineages = new HashMap<>();
@@ -0,0 +1,736 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package bacter;
+
+import beast.base.evolution.tree.Node;
+
+import java.util.*;
+
+/**
+ * Generates the marginal trees of a sequence of regions, typically
+ * visited in site order.  The first tree, and the first following a
+ * reset, is assembled in a single pass over the clonal frame and
+ * conversion events as MarginalTree does.  Each later tree is obtained
+ * from its predecessor by applying only the difference between the
+ * active conversion sets of successive regions: a conversion which
+ * becomes active prunes the lineage it finds at its departure point and
+ * regrafts it at its arrival point, while one which becomes inactive
+ * returns the lineage it carried to the departure edge.  The effects of
+ * each such change are propagated up the clonal frame in order of
+ * height, stopping wherever the lineage occupying an edge is unaffected.
+ *
+ * Marginal nodes are recycled between trees and keep their numbers
+ * while they remain in the tree, so internal node numbers are not in
+ * general ordered by height.  The nodes whose subtrees changed are
+ * reported by getChangedNodes(), and a fingerprint of each tree's
+ * topology and node heights is maintained by recomputing it only at
+ * these nodes.
+ *
+ * The tree returned by advance() is only valid until the next call.
+ *
+ * @author agent <agent@local>
+ */
+public class MarginalTreeSweep {
+
+    /**
+     * Departure or arrival of a conversion edge.
+     */
+    private static class SweepEvent {
+        final Conversion conversion;
+        final boolean isDeparture;
+        final double height;
+
+        /**
+         * Number of CF node below the edge on which the event lies.
+         */
+        final int edgeNr;
+
+        SweepEvent partner;
+
+        /**
+         * Marginal lineage carried away from the clonal frame by the
+         * conversion edge (departures only).
+         */
+        MarginalNode carried;
+
+        /**
+         * Marginal lineage occupying the CF edge immediately above the
+         * event.
+         */
+        MarginalNode above;
+
+        /**
+         * Marginal node created where the conversion edge coalesces
+         * with the clonal frame (arrivals only).
+         */
+        MarginalNode arrivalNode;
+
+        /**
+         * Most recent call to updateEvents() in which the conversion was
+         * found to be active (departures only).
+         */
+        long lastActiveUpdate;
+
+        boolean queued;
+
+        SweepEvent(Conversion conversion, boolean isDeparture) {
+            this.conversion = conversion;
+            this.isDeparture = isDeparture;
+            this.height = isDeparture ? conversion.height1 : conversion.height2;
+            this.edgeNr = isDeparture
+                    ? conversion.getNode1().getNr()
+                    : conversion.getNode2().getNr();
+        }
+    }
+
+    private final ConversionGraph acg;
+
+    /**
+     * Conversion events sorted by height, both in total and separately
+     * for each CF edge.  Edges are indexed by the number of the node
+     * below them.
+     */
+    private final List<SweepEvent> events = new ArrayList<>();
+    private final List<List<SweepEvent>> edgeEvents = new ArrayList<>();
+
+    private final Map<Conversion, SweepEvent> activeDepartures = new IdentityHashMap<>();
+    private final List<Conversion> departingConversions = new ArrayList<>();
+    private long updateCount = 0;
+    private final List<SweepEvent> modifiedEvents = new ArrayList<>();
+
+    private final MarginalNode[] cfNodes;
+
+    /**
+     * Marginal lineages occupying the bottom of each CF edge.
+     */
+    private final MarginalNode[] bottomLineages;
+
+    /**
+     * Events and CF nodes whose inputs have changed, in order of height.
+     */
+    private final PriorityQueue<SweepEvent> eventQueue = new PriorityQueue<>(
+            Comparator.comparingDouble(event -> event.height));
+    private final PriorityQueue<Node> cfNodeQueue = new PriorityQueue<>(
+            Comparator.comparingDouble(Node::getHeight));
+    private final boolean[] cfNodeQueued;
+
+    /**
+     * Nodes linked into or out of the tree, or given new children,
+     * since the previous tree.
+     */
+    private final List<MarginalNode> relinkedNodes = new ArrayList<>();
+    private final List<MarginalNode> changedNodes = new ArrayList<>();
+
+    /**
+     * Internal node numbers not in use by the current tree.
+     */
+    private final int[] freeNrs;
+    private int freeNrCount;
+
+    /**
+     * Fingerprints of the subtrees below the nodes of the current tree,
+     * indexed by marginal node number.
+     */
+    private final long[] fingerprints, secondaryFingerprints;
+
+    private static final long PRIMARY_SEED = 0x632be59bd9b4e019L;
+    private static final long SECONDARY_SEED = 0x85157af5a1b2c3d4L;
+
+    private MarginalTree tree = new MarginalTree();
+
+    /**
+     * True if tree is the marginal tree of the current events, so that
+     * the next tree can be derived from it.
+     */
+    private boolean treeValid = false;
+
+    /**
+     * @param acg conversion graph whose marginal trees are required
+     */
+    public MarginalTreeSweep(ConversionGraph acg) {
+        this.acg = acg;
+
+        cfNodes = new MarginalNode[acg.getNodeCount()];
+        bottomLineages = new MarginalNode[acg.getNodeCount()];
+        cfNodeQueued = new boolean[acg.getNodeCount()];
+        for (int nr=0; nr<acg.getNodeCount(); nr++)
+            edgeEvents.add(new ArrayList<>());
+
+        freeNrs = new int[acg.getNodeCount()];
+
+        fingerprints = new long[acg.getNodeCount()];
+        secondaryFingerprints = new long[acg.getNodeCount()];
+    }
+
+    /**
+     * Forget the conversion events of the previous tree.  Must be called
+     * whenever the clonal frame or conversions may have been modified
+     * since the last call to advance().
+     */
+    public void reset() {
+        events.clear();
+        for (List<SweepEvent> edge : edgeEvents)
+            edge.clear();
+        activeDepartures.clear();
+        treeValid = false;
+    }
+
+    /**
+     * Obtain the marginal tree of the given region.
+     *
+     * @param region region
+     * @return marginal tree, valid until the next call to this method
+     */
+    public MarginalTree advance(Region region) {
+        return advance(region.activeConversions);
+    }
+
+    /**
+     * Obtain the marginal tree corresponding to the given set of
+     * active conversions.
+     *
+     * @param convSet active conversions, each appearing once
+     * @return marginal tree, valid until the next call to this method
+     */
+    public MarginalTree advance(Collection<Conversion> convSet) {
+        clearChangedNodes();
+        updateEvents(convSet);
+
+        if (treeValid)
+            propagateChanges();
+        else
+            buildTree();
+
+        finishTree();
+
+        return tree;
+    }
+
+    /**
+     * Obtain the nodes of the current tree whose subtrees differ from
+     * those below the same nodes in the previous tree: the nodes on the
+     * paths from each point at which a lineage was pruned or regrafted
+     * to the root.  Only the partials of these nodes need recomputing
+     * when moving between the two trees.  Following a reset, every
+     * internal node is reported.
+     *
+     * @return changed nodes, in which each node follows its descendants
+     */
+    public List<MarginalNode> getChangedNodes() {
+        return Collections.unmodifiableList(changedNodes);
+    }
+
+    /**
+     * @return 64-bit fingerprint of the topology and node heights of the
+     * current tree.  Independent of the order of children.
+     */
+    public long getFingerprint() {
+        return fingerprints[tree.marginalRoot.getNr()];
+    }
+
+    /**
+     * @return fingerprint computed independently of getFingerprint(),
+     * used to guard against collisions
+     */
+    public long getSecondaryFingerprint() {
+        return secondaryFingerprints[tree.marginalRoot.getNr()];
+    }
+
+    /**
+     * Relinquish the nodes of the current tree, so that the tree remains
+     * valid after subsequent calls to advance().  The next tree is then
+     * assembled from scratch.
+     *
+     * @return current tree
+     */
+    public MarginalTree detachTree() {
+        MarginalTree detachedTree = tree;
+        tree = new MarginalTree();
+
+        clearChangedNodes();
+        Arrays.fill(cfNodes, null);
+        for (SweepEvent event : events)
+            event.arrivalNode = null;
+
+        treeValid = false;
+
+        return detachedTree;
+    }
+
+    private void clearChangedNodes() {
+        for (MarginalNode node : changedNodes)
+            node.sweepChanged = false;
+        changedNodes.clear();
+    }
+
+    /**
+     * Apply the difference between the current and new active
+     * conversion sets to the sorted event lists, and queue the events
+     * and CF nodes affected.
+     *
+     * @param convSet new active conversions
+     */
+    private void updateEvents(Collection<Conversion> convSet) {
+        modifiedEvents.clear();
+
+        // Mark the departures of conversions which remain active, so
+        // that convSet need only be iterated over.
+        updateCount += 1;
+        for (Conversion conv : convSet) {
+            SweepEvent departure = activeDepartures.get(conv);
+            if (departure != null)
+                departure.lastActiveUpdate = updateCount;
+        }
+
+        departingConversions.clear();
+        for (SweepEvent departure : activeDepartures.values()) {
+            if (departure.lastActiveUpdate != updateCount)
+                departingConversions.add(departure.conversion);
+        }
+
+        for (Conversion conv : departingConversions) {
+            SweepEvent departure = activeDepartures.remove(conv);
+            SweepEvent arrival = departure.partner;
+            removeEvent(departure);
+            removeEvent(arrival);
+
+            if (arrival.arrivalNode != null)
+                unlink(arrival.arrivalNode);
+
+            modifiedEvents.add(departure);
+            modifiedEvents.add(arrival);
+        }
+
+        for (Conversion conv : convSet) {
+            if (activeDepartures.containsKey(conv))
+                continue;
+
+            SweepEvent departure = new SweepEvent(conv, true);
+            SweepEvent arrival = new SweepEvent(conv, false);
+            departure.partner = arrival;
+            arrival.partner = departure;
+
+            insertEvent(departure);
+            insertEvent(arrival);
+            activeDepartures.put(conv, departure);
+
+            modifiedEvents.add(departure);
+            modifiedEvents.add(arrival);
+        }
+
+        if (!treeValid)
+            return;
+
+        // Queue the new events themselves and the events or CF nodes
+        // immediately above each modified event, once all lists are
+        // up to date.
+        for (SweepEvent event : modifiedEvents) {
+            if (activeDepartures.containsKey(event.conversion))
+                queueEvent(event);
+
+            queueFirstAbove(event.edgeNr, event.height);
+        }
+    }
+
+    /**
+     * @param eventList list of events sorted by height
+     * @param height height
+     * @return index of first event in list having a greater height
+     */
+    private static int findFirstEventAbove(List<SweepEvent> eventList, double height) {
+        int lo = 0, hi = eventList.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (eventList.get(mid).height <= height)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+
+        return lo;
+    }
+
+    /**
+     * @param eventList list of events sorted by height
+     * @param event event present in list
+     * @return index of event in list
+     */
+    private static int findEvent(List<SweepEvent> eventList, SweepEvent event) {
+        int idx = findFirstEventAbove(eventList, event.height) - 1;
+        while (eventList.get(idx) != event)
+            idx -= 1;
+
+        return idx;
+    }
+
+    private void insertEvent(SweepEvent event) {
+        events.add(findFirstEventAbove(events, event.height), event);
+
+        List<SweepEvent> edge = edgeEvents.get(event.edgeNr);
+        edge.add(findFirstEventAbove(edge, event.height), event);
+    }
+
+    private void removeEvent(SweepEvent event) {
+        events.remove(findEvent(events, event));
+
+        List<SweepEvent> edge = edgeEvents.get(event.edgeNr);
+        edge.remove(findEvent(edge, event));
+    }
+
+    /**
+     * Queue event for recomputation.  Nothing is queued while a tree is
+     * assembled from scratch, as every event and CF node is then visited
+     * in order of height regardless.
+     *
+     * @param event event
+     */
+    private void queueEvent(SweepEvent event) {
+        if (treeValid && !event.queued) {
+            event.queued = true;
+            eventQueue.add(event);
+        }
+    }
+
+    private void queueCFNode(Node cfNode) {
+        if (treeValid && !cfNodeQueued[cfNode.getNr()]) {
+            cfNodeQueued[cfNode.getNr()] = true;
+            cfNodeQueue.add(cfNode);
+        }
+    }
+
+    /**
+     * Queue whichever of the events on the given CF edge or the CF node
+     * at the top of the edge lies first above the given height.
+     *
+     * @param edgeNr number of CF node below edge
+     * @param height height on edge
+     */
+    private void queueFirstAbove(int edgeNr, double height) {
+        List<SweepEvent> edge = edgeEvents.get(edgeNr);
+        int idx = findFirstEventAbove(edge, height);
+        if (idx < edge.size())
+            queueEvent(edge.get(idx));
+        else if (!acg.getNode(edgeNr).isRoot())
+            queueCFNode(acg.getNode(edgeNr).getParent());
+    }
+
+    /**
+     * @param edgeNr number of CF node below edge
+     * @return marginal lineage occupying the top of the CF edge
+     */
+    private MarginalNode getTopLineage(int edgeNr) {
+        List<SweepEvent> edge = edgeEvents.get(edgeNr);
+        return edge.isEmpty()
+                ? bottomLineages[edgeNr]
+                : edge.get(edge.size()-1).above;
+    }
+
+    /**
+     * @param event event
+     * @param idx index of event in its edge list
+     * @return marginal lineage occupying the CF edge immediately below
+     * the event
+     */
+    private MarginalNode getLineageBelow(SweepEvent event, int idx) {
+        return idx > 0
+                ? edgeEvents.get(event.edgeNr).get(idx-1).above
+                : bottomLineages[event.edgeNr];
+    }
+
+    /**
+     * Recompute the marginal lineages affected by the modified events,
+     * in order of height.  Each event or CF node is revisited whenever
+     * one of its input lineages changes.
+     */
+    private void propagateChanges() {
+        while (!eventQueue.isEmpty() || !cfNodeQueue.isEmpty()) {
+            if (eventQueue.isEmpty() || (!cfNodeQueue.isEmpty()
+                    && cfNodeQueue.peek().getHeight() <= eventQueue.peek().height)) {
+                Node cfNode = cfNodeQueue.poll();
+                cfNodeQueued[cfNode.getNr()] = false;
+                updateCoalescence(cfNode);
+            } else {
+                SweepEvent event = eventQueue.poll();
+                event.queued = false;
+                if (event.isDeparture)
+                    updateDeparture(event);
+                else
+                    updateArrival(event);
+            }
+        }
+    }
+
+    /**
+     * Assemble marginal tree from the clonal frame and sorted conversion
+     * events, without reference to the previous tree.
+     */
+    private void buildTree() {
+        for (MarginalNode node : cfNodes) {
+            if (node != null) {
+                node.sweepLinked = false;
+                node.sweepNumbered = false;
+            }
+        }
+
+        for (SweepEvent event : events) {
+            event.carried = null;
+            event.above = null;
+            if (event.arrivalNode != null) {
+                event.arrivalNode.sweepLinked = false;
+                event.arrivalNode.sweepNumbered = false;
+            }
+        }
+
+        Arrays.fill(bottomLineages, null);
+        relinkedNodes.clear();
+
+        // Numbers are handed out in order of increasing height.
+        freeNrCount = 0;
+        for (int nr=acg.getNodeCount()-1; nr>=acg.getLeafNodeCount(); nr--)
+            freeNrs[freeNrCount++] = nr;
+
+        List<CFEventList.Event> cfEvents = acg.getCFEvents();
+
+        int convEventIdx=0;
+        for (int eventIdx=0; eventIdx<cfEvents.size(); eventIdx++) {
+            CFEventList.Event event = cfEvents.get(eventIdx);
+            Node cfNode = event.getNode();
+
+            switch (event.getType()) {
+                case SAMPLE:
+                    MarginalNode marginalLeaf = getCFNode(cfNode);
+                    marginalLeaf.setHeight(event.getHeight());
+                    marginalLeaf.setNr(cfNode.getNr());
+                    bottomLineages[cfNode.getNr()] = marginalLeaf;
+
+                    long heightBits = Double.doubleToLongBits(event.getHeight());
+                    fingerprints[cfNode.getNr()] = Region.mix(
+                            Region.mix(PRIMARY_SEED ^ cfNode.getNr()) ^ heightBits);
+                    secondaryFingerprints[cfNode.getNr()] = Region.mix(
+                            Region.mix(SECONDARY_SEED ^ cfNode.getNr()) ^ heightBits);
+                    break;
+
+                case COALESCENCE:
+                    updateCoalescence(cfNode);
+                    break;
+            }
+
+            while (convEventIdx < events.size() &&
+                    (event.node.isRoot() || events.get(convEventIdx).height < cfEvents.get(eventIdx + 1).getHeight())) {
+                SweepEvent convEvent = events.get(convEventIdx++);
+
+                if (convEvent.isDeparture)
+                    updateDeparture(convEvent);
+                else
+                    updateArrival(convEvent);
+            }
+        }
+
+        treeValid = true;
+    }
+
+    /**
+     * Recompute the lineage leaving a CF coalescence.
+     *
+     * @param cfNode internal CF node
+     */
+    private void updateCoalescence(Node cfNode) {
+        MarginalNode left = getTopLineage(cfNode.getLeft().getNr());
+        MarginalNode right = getTopLineage(cfNode.getRight().getNr());
+        MarginalNode marginalNode = getCFNode(cfNode);
+
+        MarginalNode lineage;
+        if (left != null && right != null) {
+            link(marginalNode, cfNode.getHeight(), left, right);
+            lineage = marginalNode;
+        } else {
+            unlink(marginalNode);
+            lineage = left != null ? left : right;
+        }
+
+        if (lineage != bottomLineages[cfNode.getNr()]) {
+            bottomLineages[cfNode.getNr()] = lineage;
+            queueFirstAbove(cfNode.getNr(), Double.NEGATIVE_INFINITY);
+        }
+    }
+
+    /**
+     * Recompute the lineage carried away by a conversion edge.  The CF
+     * edge above a departure is always empty.
+     *
+     * @param departure departure event
+     */
+    private void updateDeparture(SweepEvent departure) {
+        MarginalNode lineage = getLineageBelow(departure,
+                findEvent(edgeEvents.get(departure.edgeNr), departure));
+
+        if (lineage != departure.carried) {
+            departure.carried = lineage;
+            queueEvent(departure.partner);
+        }
+    }
+
+    /**
+     * Recompute the lineage leaving the arrival of a conversion edge.
+     *
+     * @param arrival arrival event
+     */
+    private void updateArrival(SweepEvent arrival) {
+        List<SweepEvent> edge = edgeEvents.get(arrival.edgeNr);
+        int idx = findEvent(edge, arrival);
+        MarginalNode below = getLineageBelow(arrival, idx);
+        MarginalNode carried = arrival.partner.carried;
+
+        MarginalNode lineage;
+        if (below != null && carried != null) {
+            if (arrival.arrivalNode == null)
+                arrival.arrivalNode = new MarginalNode();
+
+            link(arrival.arrivalNode, arrival.height, below, carried);
+            lineage = arrival.arrivalNode;
+        } else {
+            if (arrival.arrivalNode != null)
+                unlink(arrival.arrivalNode);
+
+            lineage = below != null ? below : carried;
+        }
+
+        if (lineage != arrival.above) {
+            arrival.above = lineage;
+            if (idx+1 < edge.size())
+                queueEvent(edge.get(idx+1));
+            else
+                queueFirstAbove(arrival.edgeNr, arrival.height);
+        }
+    }
+
+    /**
+     * @param cfNode clonal frame node
+     * @return marginal node associated with CF node
+     */
+    private MarginalNode getCFNode(Node cfNode) {
+        MarginalNode marginalNode = cfNodes[cfNode.getNr()];
+        if (marginalNode == null) {
+            marginalNode = new MarginalNode();
+            marginalNode.setID(cfNode.getID());
+            marginalNode.cfNodeNr = cfNode.getNr();
+            cfNodes[cfNode.getNr()] = marginalNode;
+        }
+
+        return marginalNode;
+    }
+
+    /**
+     * Make left and right the children of the given node, recording the
+     * node as relinked unless it already had these children.
+     *
+     * @param node parent node
+     * @param height height of parent
+     * @param left left child
+     * @param right right child
+     */
+    private void link(MarginalNode node, double height,
+                      MarginalNode left, MarginalNode right) {
+        if (node.sweepLinked && node.getLeft() == left && node.getRight() == right) {
+            left.setParent(node);
+            right.setParent(node);
+            return;
+        }
+
+        node.removeAllChildren(false);
+        node.setHeight(height);
+        node.addChild(left);
+        node.addChild(right);
+        node.sweepLinked = true;
+        relinkedNodes.add(node);
+    }
+
+    /**
+     * Record that the given node no longer belongs to the tree.
+     *
+     * @param node node
+     */
+    private void unlink(MarginalNode node) {
+        if (node.sweepLinked) {
+            node.sweepLinked = false;
+            relinkedNodes.add(node);
+        }
+    }
+
+    /**
+     * Number the nodes which have entered the tree, using the numbers of
+     * those which have left it, then identify the changed nodes and
+     * update their fingerprints.  Numbers are only reassigned here, once
+     * the new tree is complete, so that they never exceed the range of
+     * internal node numbers.
+     */
+    private void finishTree() {
+        tree.marginalRoot = getTopLineage(acg.getRoot().getNr());
+        tree.marginalRoot.setParent(null);
+
+        for (MarginalNode node : relinkedNodes) {
+            if (!node.sweepLinked && node.sweepNumbered) {
+                freeNrs[freeNrCount++] = node.getNr();
+                node.sweepNumbered = false;
+            }
+        }
+
+        for (MarginalNode node : relinkedNodes) {
+            if (node.sweepLinked && !node.sweepNumbered) {
+                node.setNr(freeNrs[--freeNrCount]);
+                node.sweepNumbered = true;
+            }
+        }
+
+        for (MarginalNode node : relinkedNodes) {
+            if (!node.sweepLinked)
+                continue;
+
+            MarginalNode ancestor = node;
+            while (ancestor != null && !ancestor.sweepChanged) {
+                ancestor.sweepChanged = true;
+                changedNodes.add(ancestor);
+                ancestor = (MarginalNode)ancestor.getParent();
+            }
+        }
+        relinkedNodes.clear();
+
+        changedNodes.sort(Comparator.comparingDouble(Node::getHeight));
+        for (MarginalNode node : changedNodes)
+            updateFingerprints(node);
+    }
+
+    /**
+     * Compute the fingerprints of the subtree below an internal node
+     * from those of its children.  Child fingerprints are summed so
+     * that the result does not depend on their order.
+     *
+     * @param node internal node
+     */
+    private void updateFingerprints(MarginalNode node) {
+        int nr = node.getNr();
+        int leftNr = node.getLeft().getNr();
+        int rightNr = node.getRight().getNr();
+
+        long heightBits = Double.doubleToLongBits(node.getHeight());
+        fingerprints[nr] = Region.mix(Region.mix(PRIMARY_SEED ^ heightBits)
+                + fingerprints[leftNr] + fingerprints[rightNr]);
+        secondaryFingerprints[nr] = Region.mix(Region.mix(SECONDARY_SEED ^ heightBits)
+                + secondaryFingerprints[leftNr] + secondaryFingerprints[rightNr]);
+    }
+}
@@ -16,33 +16,135 @@
  */
 package bacter;
 
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Set;
 
 /**
  * Represents a contiguous region in which a single set of conversions is
  * active.
  *
+ * Regions are compared using a 64-bit fingerprint computed from the
+ * region boundaries and from the attachment points, heights and sites
+ * of the active conversions.  Regions with matching fingerprints are
+ * then compared exactly using an array of these quantities built once
+ * per region.
+ *
  * @author Tim Vaughan <tgvaughan@gmail.com>
  */
 public class Region {
 
     public final int leftBoundary, rightBoundary;
-    public final Set<Conversion> activeConversions;
 
-    final int hashCodeCached;
+    /**
+     * Active conversions, ordered by their keys.
+     */
+    public final List<Conversion> activeConversions;
+
+    final long fingerprint;
+
+    /**
+     * Node numbers, height bits and sites of each active conversion,
+     * KEY_LENGTH entries per conversion, ordered as activeConversions.
+     */
+    private final long[] conversionKeys;
+
+    private static final int KEY_LENGTH = 4;
+
+    private static final long[] NO_KEYS = new long[0];
+
+    private static final Comparator<Conversion> KEY_ORDER = (c1, c2) -> {
+        for (int i=0; i<KEY_LENGTH; i++) {
+            int cmp = Long.compare(getKeyElement(c1, i), getKeyElement(c2, i));
+            if (cmp != 0)
+                return cmp;
+        }
+        return 0;
+    };
+
+    private static final long PRIMARY_SEED = 0x9e3779b97f4a7c15L;
 
     public Region(int leftBoundary, int rightBoundary, Set<Conversion> activeConversions) {
         this.leftBoundary = leftBoundary;
         this.rightBoundary = rightBoundary;
-        this.activeConversions = Collections.unmodifiableSet(new HashSet<>(activeConversions));
 
-        // Pre-compute hash code
-        int result = leftBoundary;
-        result = 31 * result + rightBoundary;
-        result = 31 * result + activeConversions.hashCode();
-        hashCodeCached = result;
+        long boundaries = ((long)leftBoundary << 32) | rightBoundary;
+        long primary = mix(PRIMARY_SEED ^ boundaries);
+
+        if (activeConversions.isEmpty()) {
+            this.activeConversions = Collections.emptyList();
+            conversionKeys = NO_KEYS;
+        } else {
+            Conversion[] convs = activeConversions.toArray(
+                    new Conversion[activeConversions.size()]);
+            Arrays.sort(convs, KEY_ORDER);
+
+            conversionKeys = new long[KEY_LENGTH*convs.length];
+            for (int c=0; c<convs.length; c++) {
+                for (int i=0; i<KEY_LENGTH; i++)
+                    conversionKeys[KEY_LENGTH*c + i] = getKeyElement(convs[c], i);
+
+                primary += getConversionFingerprint(conversionKeys, KEY_LENGTH*c);
+            }
+
+            this.activeConversions = Collections.unmodifiableList(Arrays.asList(convs));
+        }
+
+        fingerprint = primary;
+    }
+
+    /**
+     * @return 64-bit fingerprint identifying the region
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @param conv conversion
+     * @param i index of key element
+     * @return element i of the key identifying the attachment, heights
+     * and sites of conv
+     */
+    private static long getKeyElement(Conversion conv, int i) {
+        switch (i) {
+            case 0:
+                return ((long)conv.getNode1().getNr() << 32)
+                        | (conv.getNode2().getNr() & 0xffffffffL);
+            case 1:
+                return Double.doubleToLongBits(conv.height1);
+            case 2:
+                return Double.doubleToLongBits(conv.height2);
+            default:
+                return ((long)conv.startSite << 32) | (conv.endSite & 0xffffffffL);
+        }
+    }
+
+    /**
+     * @param keys conversion key array
+     * @param offset offset of conversion key in array
+     * @return fingerprint of conversion attachment, heights and sites
+     */
+    private static long getConversionFingerprint(long[] keys, int offset) {
+        long h = PRIMARY_SEED;
+        for (int i=offset; i<offset+KEY_LENGTH; i++)
+            h = mix(h ^ keys[i]);
+
+        return h;
+    }
+
+    /**
+     * SplitMix64 finalizer.
+     *
+     * @param z value to mix
+     * @return mixed value
+     */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
     }
 
     public int getRegionLength() {
@@ -74,14 +176,15 @@ public class Region {
 
         Region region = (Region) o;
 
-        if (leftBoundary != region.leftBoundary) return false;
-        if (rightBoundary != region.rightBoundary) return false;
-        return activeConversions.equals(region.activeConversions);
+        if (fingerprint != region.fingerprint) return false;
 
+        return leftBoundary == region.leftBoundary
+                && rightBoundary == region.rightBoundary
+                && Arrays.equals(conversionKeys, region.conversionKeys);
     }
 
     @Override
     public int hashCode() {
-        return hashCodeCached;
+        return (int)(fingerprint ^ (fingerprint >>> 32));
     }
 }
@@ -17,16 +17,23 @@
 
 package bacter;
 
-import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
+import bacter.util.IntRangeSet;
 
 import java.util.*;
-import java.util.function.Consumer;
 
 /**
  * This class is used to maintain a list of marginal tree regions
  * corresponding to a given ACG.
  *
+ * Rather than rebuilding the list from scratch whenever the ACG is
+ * edited, the list records which conversions have been added, removed
+ * or modified since the last update and re-derives only those regions
+ * which overlap the sites affected by these changes.  Regions lying
+ * entirely outside of the changed site ranges are retained as-is, so
+ * their identities (and hence any caches keyed on them) are preserved.
+ * The list is snapshotted on store() and reinstated on restore(), so
+ * rejected proposals do not force a rebuild.
+ *
  * @author Tim Vaughan <tgvaughan@gmail.com>
  */
 public class RegionList {
@@ -34,6 +41,50 @@ public class RegionList {
     private final List<Region> regions;
     private Locus locus;
     private boolean dirty;
+    private boolean rebuildRequired;
+
+    /**
+     * Copies of the conversions which currently contribute region
+     * boundaries, keyed by the conversion objects attached to the ACG.
+     * The copies record the state of each conversion at the time the
+     * list was last updated.
+     */
+    private final Map<Conversion, Conversion> includedConversions;
+
+    /**
+     * Conversions added, removed or modified since the last update.
+     */
+    private final Set<Conversion> modifiedConversions, removedConversions;
+
+    /**
+     * Most severe kind of change made to the ACG since the last update,
+     * or null if no change has been made.
+     */
+    private ConversionGraph.ChangeKind pendingChangeKind;
+
+    /**
+     * True if the clonal frame may have been edited since the last
+     * update, in which case the status of every conversion is checked.
+     */
+    private boolean graphChanged;
+
+    /**
+     * Height of the MRCA of all sites of the locus and the sites which
+     * coalesce at this point, as of the last update.  Conversions
+     * departing above this height are excluded.
+     */
+    private double mrcaHeight;
+    private IntRangeSet mrcaSites;
+
+    /**
+     * State of list at last store(), recorded before the first change
+     * following the store.
+     */
+    private List<Region> storedRegions;
+    private Map<Conversion, Conversion> storedIncludedConversions;
+    private double storedMRCAHeight;
+    private IntRangeSet storedMRCASites;
+    private boolean storedValid;
 
     /**
      * Ancestral conversion graph this list belongs to.
@@ -52,7 +103,16 @@ public class RegionList {
         this.acg = acg;
         this.locus = locus;
         regions = new ArrayList<>();
+        includedConversions = new IdentityHashMap<>();
+        modifiedConversions = Collections.newSetFromMap(new IdentityHashMap<>());
+        removedConversions = Collections.newSetFromMap(new IdentityHashMap<>());
         dirty = true;
+        rebuildRequired = true;
+        pendingChangeKind = null;
+        graphChanged = true;
+        mrcaHeight = Double.POSITIVE_INFINITY;
+        mrcaSites = new IntRangeSet();
+        storedValid = false;
     }
 
     /**
@@ -78,12 +138,152 @@ public class RegionList {
     }
 
     /**
-     * Mark the region list as dirty.
+     * Mark the region list as dirty.  Changes to the clonal frame can
+     * alter which conversions affect any sites, so the list will be
+     * checked for such changes during the next update.
      */
     public void makeDirty() {
+        recordChange(ConversionGraph.ChangeKind.SITES);
+    }
+
+    /**
+     * Mark the region list as dirty, recording the kind of change made
+     * to the ACG.
+     *
+     * @param kind kind of change
+     */
+    public void recordChange(ConversionGraph.ChangeKind kind) {
+        recordConversionChange(kind);
+        graphChanged = true;
+    }
+
+    /**
+     * Record a change which only involves conversions of this list's
+     * locus.
+     *
+     * @param kind kind of change
+     */
+    private void recordConversionChange(ConversionGraph.ChangeKind kind) {
+        if (pendingChangeKind == null || kind.compareTo(pendingChangeKind) > 0)
+            pendingChangeKind = kind;
         dirty = true;
     }
-   
+
+    /**
+     * Mark the region list as requiring a complete rebuild.  Used when
+     * the conversions attached to the ACG are replaced wholesale, e.g.
+     * following a restore.
+     */
+    public void reset() {
+        dirty = true;
+        rebuildRequired = true;
+        pendingChangeKind = null;
+        storedValid = false;
+    }
+
+    /**
+     * Mark the current list as the state to return to on restore().
+     * Should be called when the ACG is stored.
+     */
+    public void store() {
+        storedValid = !dirty && !rebuildRequired;
+        storedRegions = null;
+        storedIncludedConversions = null;
+        storedMRCASites = null;
+    }
+
+    /**
+     * Return the list to its state at the last store().  Only valid
+     * when the conversions attached to the ACG are returned to the
+     * same objects they were at the last store(), as is the case when
+     * the ACG uses journal-based restores or when no conversion of this
+     * list's locus has been modified.  Otherwise, reset() should be
+     * used instead.
+     */
+    public void restore() {
+        if (!storedValid) {
+            reset();
+            return;
+        }
+
+        if (storedRegions != null) {
+            regions.clear();
+            regions.addAll(storedRegions);
+            includedConversions.clear();
+            includedConversions.putAll(storedIncludedConversions);
+            mrcaHeight = storedMRCAHeight;
+            mrcaSites = storedMRCASites;
+
+            storedRegions = null;
+            storedIncludedConversions = null;
+            storedMRCASites = null;
+        }
+
+        modifiedConversions.clear();
+        removedConversions.clear();
+        pendingChangeKind = null;
+        graphChanged = false;
+        rebuildRequired = false;
+        dirty = false;
+
+        // Tree.restore() replaces the node objects of the ACG, so the
+        // conversion copies must be reattached to the current nodes.
+        for (Conversion convCopy : includedConversions.values()) {
+            convCopy.node1 = acg.getNode(convCopy.node1.getNr());
+            convCopy.node2 = acg.getNode(convCopy.node2.getNr());
+        }
+    }
+
+    /**
+     * Record the current list as the stored state, if this has not
+     * been done since the last store().  Called before the list is
+     * first modified following a store().
+     */
+    private void saveStoredState() {
+        if (!storedValid || storedRegions != null)
+            return;
+
+        storedRegions = new ArrayList<>(regions);
+        storedIncludedConversions = new IdentityHashMap<>(includedConversions);
+        storedMRCAHeight = mrcaHeight;
+        storedMRCASites = mrcaSites;
+    }
+
+    /**
+     * Record addition of a conversion to this list's locus.
+     *
+     * @param conv conversion added
+     */
+    public void conversionAdded(Conversion conv) {
+        removedConversions.remove(conv);
+        modifiedConversions.add(conv);
+        recordConversionChange(ConversionGraph.ChangeKind.SITES);
+    }
+
+    /**
+     * Record removal of a conversion from this list's locus.
+     *
+     * @param conv conversion removed
+     */
+    public void conversionRemoved(Conversion conv) {
+        modifiedConversions.remove(conv);
+        removedConversions.add(conv);
+        recordConversionChange(ConversionGraph.ChangeKind.SITES);
+    }
+
+    /**
+     * Record modification of the boundaries, heights or attachment
+     * points of a conversion belonging to this list's locus.
+     *
+     * @param conv conversion modified
+     * @param kind kind of modification
+     */
+    public void conversionModified(Conversion conv, ConversionGraph.ChangeKind kind) {
+        if (!removedConversions.contains(conv))
+            modifiedConversions.add(conv);
+        recordConversionChange(kind);
+    }
+
     /**
      * Assemble list of regions of contiguous sites that possess a single
      * marginal tree.
@@ -92,67 +292,477 @@ public class RegionList {
         if (!dirty)
             return;
 
+        saveStoredState();
+
+        if (rebuildRequired || regions.isEmpty()) {
+            rebuildRegionList();
+            return;
+        }
+
+        /* Conversions are only included if they affect at least one site.
+        As this can change with modifications to ANY part of the ACG, we
+        need to check the status of each conversion here.  If only
+        conversions have changed, just those conversions sharing sites
+        with the changes need be checked.
+        */
+        Set<Conversion> nowIncluded = null;
+        if (!graphChanged)
+            nowIncluded = getIncludedConversionsIncrementally();
+        if (nowIncluded == null)
+            nowIncluded = getIncludedConversions();
+        graphChanged = false;
+
+        ConversionGraph.ChangeKind changeKind = pendingChangeKind;
+        pendingChangeKind = null;
+
+        if (changeKind != ConversionGraph.ChangeKind.SITES
+                && removedConversions.isEmpty()
+                && refreshConversionCopies(nowIncluded)) {
+            modifiedConversions.clear();
+            dirty = false;
+            return;
+        }
+
+        boolean[] regionIsDirty = new boolean[regions.size()];
+
+        for (Conversion conv : removedConversions) {
+            Conversion oldCopy = includedConversions.remove(conv);
+            if (oldCopy != null)
+                markSitesDirty(oldCopy, regionIsDirty);
+        }
+
+        for (Conversion conv : acg.getConversions(locus)) {
+            boolean isIncluded = nowIncluded.contains(conv);
+            Conversion oldCopy = includedConversions.get(conv);
+
+            if (oldCopy != null && !isIncluded) {
+                includedConversions.remove(conv);
+                markSitesDirty(oldCopy, regionIsDirty);
+                continue;
+            }
+
+            if (isIncluded && (oldCopy == null || modifiedConversions.contains(conv))) {
+                if (oldCopy != null)
+                    markSitesDirty(oldCopy, regionIsDirty);
+
+                Conversion newCopy = conv.getCopy();
+                includedConversions.put(conv, newCopy);
+                markSitesDirty(newCopy, regionIsDirty);
+            }
+        }
+
+        modifiedConversions.clear();
+        removedConversions.clear();
+
+        // Assemble list of conversions overlapping each dirty stretch.
+
+        List<int[]> stretches = new ArrayList<>();
+        for (int i=0; i<regions.size(); i++) {
+            if (!regionIsDirty[i])
+                continue;
+
+            int left = regions.get(i).leftBoundary;
+            while (i+1<regions.size() && regionIsDirty[i+1])
+                i += 1;
+
+            stretches.add(new int[] {left, regions.get(i).rightBoundary});
+        }
+
+        if (stretches.isEmpty()) {
+            dirty = false;
+            return;
+        }
+
+        List<List<Conversion>> stretchConversions = new ArrayList<>();
+        for (int s=0; s<stretches.size(); s++)
+            stretchConversions.add(new ArrayList<>());
+
+        for (Conversion convCopy : includedConversions.values()) {
+            int s = findFirstStretchEndingAfter(stretches, convCopy.startSite);
+            for (; s<stretches.size() && stretches.get(s)[0] <= convCopy.endSite; s++)
+                stretchConversions.get(s).add(convCopy);
+        }
+
+        // Splice re-derived stretches into the region list.
+
+        List<Region> newRegions = new ArrayList<>();
+        int s = 0;
+        for (int i=0; i<regions.size(); i++) {
+            if (!regionIsDirty[i]) {
+                newRegions.add(regions.get(i));
+                continue;
+            }
+
+            while (i+1<regions.size() && regionIsDirty[i+1])
+                i += 1;
+
+            addStretchRegions(stretches.get(s)[0], stretches.get(s)[1],
+                    stretchConversions.get(s), newRegions);
+            s += 1;
+        }
+
         regions.clear();
+        regions.addAll(newRegions);
 
-        AffectedSiteList affectedSiteList = new AffectedSiteList(acg);
+        dirty = false;
+    }
+
+    /**
+     * Update the region list following a change which leaves the sites
+     * of every conversion intact.  Region boundaries are then unchanged
+     * provided the set of included conversions is unchanged, in which
+     * case regions containing modified conversions are replaced by
+     * regions with the same boundaries holding fresh conversion copies.
+     *
+     * @param nowIncluded conversions which currently affect any sites
+     * @return false if region boundaries may have changed, in which case
+     * the list is left untouched.
+     */
+    private boolean refreshConversionCopies(Set<Conversion> nowIncluded) {
+
+        for (Conversion conv : acg.getConversions(locus)) {
+            boolean isIncluded = nowIncluded.contains(conv);
+            if (isIncluded != includedConversions.containsKey(conv))
+                return false;
+        }
+
+        Map<Conversion, Conversion> replacements = new IdentityHashMap<>();
+        for (Conversion conv : modifiedConversions) {
+            Conversion oldCopy = includedConversions.get(conv);
+            if (oldCopy == null)
+                continue;
+
+            if (oldCopy.startSite != conv.startSite || oldCopy.endSite != conv.endSite)
+                return false;
+
+            replacements.put(oldCopy, conv.getCopy());
+        }
+
+        if (replacements.isEmpty())
+            return true;
+
+        boolean[] regionIsStale = new boolean[regions.size()];
+        for (Conversion oldCopy : replacements.keySet())
+            markSitesDirty(oldCopy, regionIsStale);
 
-        /* Assemble lists of conversions ordered by start and end sites.
-        Note that these are COPIES of the conversion objects attached
-        to the ACG. This ensures that subsequent modifications of these
-        objects won't break our contract with the HashSet<Conversion>
-        objects in the likelihood code.
+        for (int i=0; i<regions.size(); i++) {
+            if (!regionIsStale[i])
+                continue;
+
+            Region region = regions.get(i);
+            Set<Conversion> active = new HashSet<>();
+            boolean replaced = false;
+            for (Conversion convCopy : region.activeConversions) {
+                Conversion newCopy = replacements.get(convCopy);
+                if (newCopy != null) {
+                    active.add(newCopy);
+                    replaced = true;
+                } else
+                    active.add(convCopy);
+            }
+
+            if (replaced)
+                regions.set(i, new Region(region.leftBoundary, region.rightBoundary, active));
+        }
+
+        for (Conversion conv : modifiedConversions) {
+            Conversion oldCopy = includedConversions.get(conv);
+            if (oldCopy != null)
+                includedConversions.put(conv, replacements.get(oldCopy));
+        }
+
+        return true;
+    }
+
+    /**
+     * Rebuild the entire region list from scratch.
+     */
+    private void rebuildRegionList() {
+        regions.clear();
+        includedConversions.clear();
+        modifiedConversions.clear();
+        removedConversions.clear();
+        pendingChangeKind = null;
+        graphChanged = false;
+
+        /* Note that the included conversions are COPIES of the conversion
+        objects attached to the ACG. This ensures that subsequent
+        modifications of these objects won't break our contract with the
+        HashSet<Conversion> objects in the likelihood code.
         */
-        List<Conversion> convOrderedByStart = new ArrayList<>();
-        acg.getConversions(locus).forEach(conversion -> {
-            if (affectedSiteList.affectedSiteCount.get(conversion)>0)
-                convOrderedByStart.add(conversion.getCopy());
-        });
+        for (Conversion conv : getIncludedConversions())
+            includedConversions.put(conv, conv.getCopy());
+
+        addStretchRegions(0, locus.getSiteCount(),
+                new ArrayList<>(includedConversions.values()), regions);
+
+        dirty = false;
+        rebuildRequired = false;
+    }
+
+    /**
+     * Determine which conversions of the locus affect at least one site,
+     * recording the MRCA of the locus sites.
+     *
+     * @return set of conversions affecting any sites
+     */
+    private Set<Conversion> getIncludedConversions() {
+        Set<Conversion> included = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        if (acg.getConvCount(locus) == 0) {
+            mrcaHeight = Double.POSITIVE_INFINITY;
+            mrcaSites = new IntRangeSet();
+            return included;
+        }
+
+        AffectedSiteList affectedSiteList = new AffectedSiteList(acg, locus);
+        mrcaHeight = affectedSiteList.mrcaHeight;
+        mrcaSites = affectedSiteList.mrcaSites;
+
+        for (Conversion conv : acg.getConversions(locus)) {
+            if (affectedSiteList.affectedSiteCount.get(conv)>0)
+                included.add(conv);
+        }
+
+        return included;
+    }
+
+    /**
+     * Determine which conversions of the locus affect at least one site
+     * following changes to the conversions alone.  The ancestry of a
+     * site depends only on the conversions spanning it, so only the
+     * sites spanned by the changed conversions and by any conversions
+     * overlapping these need be traced through the ACG.
+     *
+     * The status of the remaining conversions is unchanged unless the
+     * MRCA of the locus moves.  It cannot move down while sites outside
+     * of those traced still coalesce there, and any upward move is
+     * detected by the trace itself.
+     *
+     * @return set of conversions affecting any sites, or null if the
+     * MRCA of the locus may have moved.
+     */
+    private Set<Conversion> getIncludedConversionsIncrementally() {
+        Set<Conversion> included = Collections.newSetFromMap(new IdentityHashMap<>());
+        included.addAll(includedConversions.keySet());
+        included.removeAll(removedConversions);
+
+        List<Conversion> changed = new ArrayList<>();
+        for (Conversion conv : removedConversions) {
+            Conversion oldCopy = includedConversions.get(conv);
+            if (oldCopy != null)
+                changed.add(oldCopy);
+        }
+        for (Conversion conv : modifiedConversions) {
+            changed.add(conv);
+            Conversion oldCopy = includedConversions.get(conv);
+            if (oldCopy != null)
+                changed.add(oldCopy);
+        }
+
+        if (changed.isEmpty())
+            return included;
+
+        IntRangeSet changedSites = getSiteRanges(changed);
+        List<Conversion> relevant = new ArrayList<>();
+        for (Conversion conv : acg.getConversions(locus)) {
+            if (overlaps(changedSites, conv))
+                relevant.add(conv);
+        }
+
+        changed.addAll(relevant);
+        IntRangeSet sites = getSiteRanges(changed);
+
+        IntRangeSet tracedMRCASites = new IntRangeSet();
+        IntRangeSet.intersection(mrcaSites, sites, tracedMRCASites);
+        if (tracedMRCASites.getTotalSites() == mrcaSites.getTotalSites())
+            return null;
+
+        List<Conversion> traced = new ArrayList<>();
+        for (Conversion conv : acg.getConversions(locus)) {
+            if (overlaps(sites, conv))
+                traced.add(conv);
+        }
+
+        AffectedSiteList affectedSiteList = new AffectedSiteList(acg, locus, sites, traced);
+        if (affectedSiteList.mrcaHeight > mrcaHeight)
+            return null;
+
+        for (Conversion conv : relevant) {
+            if (affectedSiteList.affectedSiteCount.get(conv)>0
+                    && conv.getHeight1() < mrcaHeight)
+                included.add(conv);
+            else
+                included.remove(conv);
+        }
+
+        // Sites within the traced region no longer coalesce at the MRCA
+        // unless they do so in the traced ancestry.
+        IntRangeSet untracedMRCASites = new IntRangeSet();
+        IntRangeSet.intersection(mrcaSites, getComplement(sites), untracedMRCASites);
+        if (affectedSiteList.mrcaHeight == mrcaHeight) {
+            mrcaSites = new IntRangeSet();
+            IntRangeSet.union(untracedMRCASites, affectedSiteList.mrcaSites, mrcaSites);
+        } else
+            mrcaSites = untracedMRCASites;
+
+        return included;
+    }
+
+    /**
+     * @param convs conversions (or copies)
+     * @return set of [start,end) site ranges spanned by the conversions
+     */
+    private static IntRangeSet getSiteRanges(List<Conversion> convs) {
+        List<Conversion> convOrderedByStart = new ArrayList<>(convs);
         convOrderedByStart.sort(Comparator.comparingInt((Conversion o) -> o.startSite));
 
-        List<Conversion> convOrderedByEnd = new ArrayList<>();
-        convOrderedByEnd.addAll(convOrderedByStart);
+        IntRangeSet ranges = new IntRangeSet();
+        for (Conversion conv : convOrderedByStart) {
+            if (!ranges.isEmpty() && conv.startSite <= ranges.getLast()) {
+                if (conv.endSite + 1 > ranges.getLast())
+                    ranges.set(ranges.size()-1, conv.endSite + 1);
+            } else
+                ranges.add(conv.startSite, conv.endSite + 1);
+        }
+
+        return ranges;
+    }
+
+    /**
+     * @param ranges set of [start,end) site ranges
+     * @return set of ranges containing all non-negative sites not in ranges
+     */
+    private static IntRangeSet getComplement(IntRangeSet ranges) {
+        IntRangeSet complement = new IntRangeSet();
+        int start = 0;
+        for (int i=0; i<ranges.size(); i+=2) {
+            if (ranges.get(i) > start)
+                complement.add(start, ranges.get(i));
+            start = ranges.get(i+1);
+        }
+        complement.add(start, Integer.MAX_VALUE);
+
+        return complement;
+    }
+
+    /**
+     * @param ranges set of [start,end) site ranges
+     * @param conv conversion
+     * @return true if conversion spans any site in ranges
+     */
+    private static boolean overlaps(IntRangeSet ranges, Conversion conv) {
+        // Binary search for first range ending after conversion start
+        int lo = 0, hi = ranges.size()/2;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ranges.get(2*mid+1) <= conv.startSite)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+
+        return lo < ranges.size()/2 && ranges.get(2*lo) <= conv.endSite;
+    }
+
+    /**
+     * Mark as dirty every region which contains or borders on the sites
+     * affected by the given conversion.  Bordering regions are included
+     * because the boundaries they share with the conversion may vanish.
+     *
+     * @param conv (copy of) conversion whose sites have changed
+     * @param regionIsDirty array of region dirty flags to update
+     */
+    private void markSitesDirty(Conversion conv, boolean[] regionIsDirty) {
+        int x = conv.startSite;
+        int y = conv.endSite + 1;
+
+        // Binary search for first region with right boundary >= x
+        int lo = 0, hi = regions.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (regions.get(mid).rightBoundary < x)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+
+        for (int i=lo; i<regions.size() && regions.get(i).leftBoundary <= y; i++)
+            regionIsDirty[i] = true;
+    }
+
+    /**
+     * @param stretches sorted list of disjoint [left,right) site stretches
+     * @param site site index
+     * @return index of first stretch whose right boundary exceeds site
+     */
+    private static int findFirstStretchEndingAfter(List<int[]> stretches, int site) {
+        int lo = 0, hi = stretches.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (stretches.get(mid)[1] <= site)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+
+        return lo;
+    }
+
+    /**
+     * Derive the regions covering sites [leftBoundary, rightBoundary)
+     * and append them to the given list.  The boundaries of the stretch
+     * must themselves be valid region boundaries.
+     *
+     * @param leftBoundary first site in stretch
+     * @param rightBoundary site following last site in stretch
+     * @param convs included conversions overlapping the stretch
+     * @param dest list to which regions are appended
+     */
+    private void addStretchRegions(int leftBoundary, int rightBoundary,
+                                   List<Conversion> convs, List<Region> dest) {
+
+        List<Conversion> convOrderedByStart = new ArrayList<>(convs);
+        convOrderedByStart.sort(Comparator.comparingInt((Conversion o) -> o.startSite));
+
+        List<Conversion> convOrderedByEnd = new ArrayList<>(convs);
         convOrderedByEnd.sort(Comparator.comparingInt((Conversion o) -> o.endSite));
 
-        Set<Conversion> activeConversions = Sets.newHashSet();
+        Set<Conversion> activeConversions = new HashSet<>();
 
-        int lastBoundary = 0;
+        int startIdx = 0, endIdx = 0;
+        while (startIdx < convOrderedByStart.size()
+                && convOrderedByStart.get(startIdx).startSite <= leftBoundary)
+            activeConversions.add(convOrderedByStart.get(startIdx++));
 
-        while (!convOrderedByStart.isEmpty() || !convOrderedByEnd.isEmpty()) {
+        int lastBoundary = leftBoundary;
 
+        while (true) {
             int nextStart;
-            if (!convOrderedByStart.isEmpty())
-                nextStart = convOrderedByStart.get(0).getStartSite();
+            if (startIdx < convOrderedByStart.size())
+                nextStart = convOrderedByStart.get(startIdx).startSite;
             else
                 nextStart = Integer.MAX_VALUE;
 
             int nextEnd;
-            if (!convOrderedByEnd.isEmpty())
-                nextEnd = convOrderedByEnd.get(0).getEndSite() + 1;
+            if (endIdx < convOrderedByEnd.size())
+                nextEnd = convOrderedByEnd.get(endIdx).endSite + 1;
             else
                 nextEnd = Integer.MAX_VALUE;
 
-            int nextBoundary = Math.min(nextStart, nextEnd);
+            int nextBoundary = Math.min(Math.min(nextStart, nextEnd), rightBoundary);
             if (nextBoundary > lastBoundary) {
-                Region region = new Region(lastBoundary, nextBoundary, activeConversions);
-                regions.add(region);
+                dest.add(new Region(lastBoundary, nextBoundary, activeConversions));
+                lastBoundary = nextBoundary;
             }
 
-            if (nextStart < nextEnd) {
-                activeConversions.add(convOrderedByStart.get(0));
-                convOrderedByStart.remove(0);
-                lastBoundary = nextStart;
-            } else {
-                activeConversions.remove(convOrderedByEnd.get(0));
-                convOrderedByEnd.remove(0);
-                lastBoundary = nextEnd;
-            }
-        }
+            if (nextBoundary >= rightBoundary)
+                break;
 
-        if (lastBoundary < locus.getSiteCount()) {
-            Region region = new Region(lastBoundary, locus.getSiteCount(), new HashSet<>());
-            regions.add(region);
+            if (nextStart < nextEnd)
+                activeConversions.add(convOrderedByStart.get(startIdx++));
+            else
+                activeConversions.remove(convOrderedByEnd.get(endIdx++));
         }
-
-        dirty = false;
     }
 }
@@ -1,5 +1,6 @@
 package bacter;
 
+import bacter.util.IntRangeSet;
 import beast.base.evolution.tree.Node;
 
 import java.util.ArrayList;
@@ -13,18 +14,16 @@ import java.util.List;
  */
 public class SiteAncestry {
 
-    public List<Integer> siteRanges;
+    public IntRangeSet siteRanges;
     public List<BitSet> descendantLeaves;
 
     public SiteAncestry() {
-        siteRanges = new ArrayList<>();
+        siteRanges = new IntRangeSet();
         descendantLeaves = new ArrayList<>();
     }
 
     public SiteAncestry(Node node, Locus locus) {
-        siteRanges = new ArrayList<>();
-        siteRanges.add(0);
-        siteRanges.add(locus.getSiteCount());
+        siteRanges = new IntRangeSet(0, locus.getSiteCount());
 
         descendantLeaves = new ArrayList<>();
         BitSet bitSet = new BitSet();
@@ -34,7 +33,7 @@ public class SiteAncestry {
 
     public SiteAncestry(String string) {
 
-        siteRanges = new ArrayList<>();
+        siteRanges = new IntRangeSet();
         descendantLeaves = new ArrayList<>();
 
         string = string.replaceAll("\\s+","");
@@ -49,8 +48,7 @@ public class SiteAncestry {
             String[] split2 = aSplit1.split("]\\{");
             String[] rangeStr = split2[0].split(",");
 
-            siteRanges.add(Integer.parseInt(rangeStr[0]));
-            siteRanges.add(Integer.parseInt(rangeStr[1]));
+            siteRanges.add(Integer.parseInt(rangeStr[0]), Integer.parseInt(rangeStr[1]));
 
             String[] bitStr = split2[1].split(",");
             BitSet theseDecendents = new BitSet();
@@ -65,14 +63,21 @@ public class SiteAncestry {
         return descendantLeaves.size();
     }
 
+    /**
+     * Remove all intervals, retaining allocated storage.
+     */
+    public void clear() {
+        siteRanges.clear();
+        descendantLeaves.clear();
+    }
+
     public void addInterval(int x, int y, BitSet dl) {
         if (getIntervalCount()>0
-                && siteRanges.get(siteRanges.size()-1)==x
+                && siteRanges.getLast()==x
                 && descendantLeaves.get(descendantLeaves.size()-1).equals(dl))
             siteRanges.set(siteRanges.size()-1, y);
         else {
-            siteRanges.add(x);
-            siteRanges.add(y);
+            siteRanges.add(x, y);
             descendantLeaves.add(dl);
         }
     }
@@ -158,8 +163,8 @@ public class SiteAncestry {
         while (j < other.getIntervalCount()) {
 
             int xp = other.siteRanges.get(2*j);
-            if (!siteRanges.isEmpty() && xp < siteRanges.get(siteRanges.size()-1))
-                xp = siteRanges.get(siteRanges.size()-1);
+            if (!siteRanges.isEmpty() && xp < siteRanges.getLast())
+                xp = siteRanges.getLast();
             int yp = other.siteRanges.get(2*j + 1);
 
             union.addInterval(xp, yp, other.descendantLeaves.get(j));
@@ -188,8 +193,7 @@ public class SiteAncestry {
             int yp = siteRanges.get(2*i+1);
             yp = yp > x ? x : yp;
 
-            outside.siteRanges.add(xp);
-            outside.siteRanges.add(yp);
+            outside.siteRanges.add(xp, yp);
             outside.descendantLeaves.add(descendantLeaves.get(i));
 
             if (siteRanges.get(2*i+1) <= x)
@@ -204,8 +208,7 @@ public class SiteAncestry {
             xp = xp < x ? x : xp;
             yp = yp > y ? y : yp;
 
-            inside.siteRanges.add(xp);
-            inside.siteRanges.add(yp);
+            inside.siteRanges.add(xp, yp);
             inside.descendantLeaves.add(descendantLeaves.get(i));
 
             if (siteRanges.get(2*i+1) <=y)
@@ -219,8 +222,7 @@ public class SiteAncestry {
             int yp = siteRanges.get(2*i+1);
             xp = xp < y ? y : xp;
 
-            outside.siteRanges.add(xp);
-            outside.siteRanges.add(yp);
+            outside.siteRanges.add(xp, yp);
             outside.descendantLeaves.add(descendantLeaves.get(i));
 
             i += 1;
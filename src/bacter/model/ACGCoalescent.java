@@ -20,8 +20,10 @@ import bacter.CFEventList;
 import bacter.Conversion;
 import bacter.ConversionGraph;
 import bacter.Locus;
+import bacter.model.pop.SortedTimesPopulationFunction;
 import beast.base.core.Description;
 import beast.base.core.Input;
+import beast.base.inference.CalculationNode;
 import beast.base.inference.State;
 import beast.base.inference.parameter.RealParameter;
 import beast.base.evolution.tree.TreeDistribution;
@@ -29,8 +31,7 @@ import beast.base.evolution.tree.coalescent.PopulationFunction;
 import org.apache.commons.math.MathException;
 import org.apache.commons.math.distribution.PoissonDistributionImpl;
 
-import java.util.List;
-import java.util.Random;
+import java.util.*;
 
 /**
  * @author Tim Vaughan <tgvaughan@gmail.com>
@@ -66,6 +67,51 @@ public class ACGCoalescent extends TreeDistribution {
     ConversionGraph acg;
     PopulationFunction popFunc;
 
+    /**
+     * Cached contribution of a single conversion to the log density,
+     * together with the conversion properties it was computed from.
+     */
+    protected static class ConversionTerm {
+        int node1Nr, node2Nr;
+        double height1, height2;
+        int startSite, endSite;
+        Locus locus;
+        double logP;
+
+        ConversionTerm(Conversion conv, double logP) {
+            node1Nr = conv.getNode1().getNr();
+            node2Nr = conv.getNode2().getNr();
+            height1 = conv.getHeight1();
+            height2 = conv.getHeight2();
+            startSite = conv.getStartSite();
+            endSite = conv.getEndSite();
+            locus = conv.getLocus();
+            this.logP = logP;
+        }
+
+        /**
+         * @param conv conversion
+         * @return true if term is valid for conversion in its current state
+         */
+        boolean isValidFor(Conversion conv) {
+            // Node objects are swapped with their stored copies on
+            // restore, so edges are compared by node number.
+            return node1Nr == conv.getNode1().getNr()
+                    && node2Nr == conv.getNode2().getNr()
+                    && height1 == conv.getHeight1() && height2 == conv.getHeight2()
+                    && startSite == conv.getStartSite() && endSite == conv.getEndSite()
+                    && locus == conv.getLocus();
+        }
+    }
+
+    protected Map<Conversion, ConversionTerm> conversionTerms, storedConversionTerms;
+    protected boolean conversionTermsReplaced;
+
+    protected double cfLogP, storedCFLogP;
+    protected boolean cfLogPKnown, storedCFLogPKnown;
+
+    private double[] eventTimes, eventIntensities, eventPopSizes;
+
     public ACGCoalescent() {
         treeInput.setRule(Input.Validate.REQUIRED);
     }
@@ -82,6 +128,11 @@ public class ACGCoalescent extends TreeDistribution {
 
         acg = (ConversionGraph)treeInput.get();
         popFunc = popFuncInput.get();
+
+        conversionTerms = new IdentityHashMap<>();
+        storedConversionTerms = new IdentityHashMap<>();
+        conversionTermsReplaced = false;
+        cfLogPKnown = false;
     }
     
     @Override
@@ -92,7 +143,12 @@ public class ACGCoalescent extends TreeDistribution {
                 || acg.getTotalConvCount()>upperCCBoundInput.get())
             return Double.NEGATIVE_INFINITY;
 
-        logP = calculateClonalFrameLogP();
+        if (!cfLogPKnown) {
+            cfLogP = calculateClonalFrameLogP();
+            cfLogPKnown = true;
+        }
+
+        logP = cfLogP;
         double poissonMean = rhoInput.get().getValue()
                 *acg.getClonalFrameLength()
                 *(acg.getTotalConvertibleSequenceLength()
@@ -108,9 +164,26 @@ public class ACGCoalescent extends TreeDistribution {
         }
         
 
-        for (Locus locus : acg.getConvertibleLoci())
-            for (Conversion conv : acg.getConversions(locus))
-                logP += calculateConversionLogP(conv);
+        // Only conversions modified since their contributions were
+        // last computed need to be revisited.
+        for (Locus locus : acg.getConvertibleLoci()) {
+            for (Conversion conv : acg.getConversions(locus)) {
+                ConversionTerm term = conversionTerms.get(conv);
+                if (term == null || !term.isValidFor(conv)) {
+                    term = new ConversionTerm(conv, calculateConversionLogP(conv));
+                    conversionTerms.put(conv, term);
+                }
+                logP += term.logP;
+            }
+        }
+
+        // Discard terms belonging to deleted conversions
+        if (conversionTerms.size() > acg.getTotalConvCount()) {
+            Set<Conversion> currentConvs = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (Locus locus : acg.getConvertibleLoci())
+                currentConvs.addAll(acg.getConversions(locus));
+            conversionTerms.keySet().retainAll(currentConvs);
+        }
         
         // This N! takes into account the permutation invariance of
         // the individual conversions, and cancels with the N! in the
@@ -140,6 +213,9 @@ public class ACGCoalescent extends TreeDistribution {
     public double calculateClonalFrameLogP() {
         
         List<CFEventList.Event> events = acg.getCFEvents();
+
+        if (popFunc instanceof SortedTimesPopulationFunction)
+            return calculateClonalFrameLogP(events, (SortedTimesPopulationFunction)popFunc);
         
         double thisLogP = 0.0;
         
@@ -157,6 +233,43 @@ public class ACGCoalescent extends TreeDistribution {
         
         return thisLogP;
     }
+
+    /**
+     * Compute probability of clonal frame under coalescent, evaluating
+     * the population function at all event times in a single pass.
+     *
+     * @param events CF events
+     * @param sortedPopFunc population function
+     * @return log(P)
+     */
+    private double calculateClonalFrameLogP(List<CFEventList.Event> events,
+                                            SortedTimesPopulationFunction sortedPopFunc) {
+        int n = events.size();
+        if (eventTimes == null || eventTimes.length < n) {
+            eventTimes = new double[n];
+            eventIntensities = new double[n];
+            eventPopSizes = new double[n];
+        }
+
+        for (int i=0; i<n; i++)
+            eventTimes[i] = events.get(i).getHeight();
+
+        sortedPopFunc.getIntensities(eventTimes, n, eventIntensities);
+        sortedPopFunc.getPopSizes(eventTimes, n, eventPopSizes);
+
+        double thisLogP = 0.0;
+
+        for (int i=0; i<n-1; i++) {
+            double intervalArea = eventIntensities[i+1] - eventIntensities[i];
+            int k = events.get(i).getLineageCount();
+            thisLogP += -0.5*k*(k-1)*intervalArea;
+
+            if (events.get(i+1).getType()==CFEventList.EventType.COALESCENCE)
+                thisLogP += Math.log(1.0/eventPopSizes[i+1]);
+        }
+
+        return thisLogP;
+    }
     
     /**
      * Compute probability of recombinant edges under conditional coalescent.
@@ -173,9 +286,7 @@ public class ACGCoalescent extends TreeDistribution {
         thisLogP += Math.log(1.0/acg.getClonalFrameLength());
 
         // Identify interval containing the start of the recombinant edge
-        int startIdx = 0;
-        while (events.get(startIdx+1).getHeight() < conv.getHeight1())
-            startIdx += 1;
+        int startIdx = acg.getCFEventList().getIntervalIndex(conv.getHeight1());
 
         for (int i=startIdx; i<events.size() && events.get(i).getHeight()<conv.getHeight2(); i++) {
 
@@ -224,11 +335,58 @@ public class ACGCoalescent extends TreeDistribution {
         return thisLogP;
     }
 
+    /**
+     * Discard cached conversion terms, setting the current terms aside
+     * so that they can be reinstated if the proposal is rejected.
+     */
+    protected void invalidateConversionTerms() {
+        if (!conversionTermsReplaced) {
+            Map<Conversion, ConversionTerm> tmp = storedConversionTerms;
+            storedConversionTerms = conversionTerms;
+            conversionTerms = tmp;
+            conversionTermsReplaced = true;
+        }
+        conversionTerms.clear();
+    }
+
     @Override
     protected boolean requiresRecalculation() {
+        boolean popFuncDirty = popFunc instanceof CalculationNode
+                && ((CalculationNode) popFunc).isDirtyCalculation();
+
+        if (acg.clonalFrameIsDirty() || popFuncDirty) {
+            cfLogPKnown = false;
+            invalidateConversionTerms();
+        } else if (deltaInput.get().somethingIsDirty())
+            invalidateConversionTerms();
+
         return true;
     }
 
+    @Override
+    public void store() {
+        storedCFLogP = cfLogP;
+        storedCFLogPKnown = cfLogPKnown;
+        conversionTermsReplaced = false;
+
+        super.store();
+    }
+
+    @Override
+    public void restore() {
+        cfLogP = storedCFLogP;
+        cfLogPKnown = storedCFLogPKnown;
+
+        if (conversionTermsReplaced) {
+            Map<Conversion, ConversionTerm> tmp = conversionTerms;
+            conversionTerms = storedConversionTerms;
+            storedConversionTerms = tmp;
+            conversionTermsReplaced = false;
+        }
+
+        super.restore();
+    }
+
     @Override
     public List<String> getArguments() {
         throw new UnsupportedOperationException("Not supported yet.");
@@ -19,8 +19,8 @@ package bacter.model;
 import bacter.*;
 import beast.base.core.Description;
 import beast.base.core.Input;
-import beast.base.inference.State;
 import beast.base.core.Log;
+import beast.base.inference.State;
 import beast.base.evolution.alignment.Alignment;
 import beast.base.evolution.branchratemodel.BranchRateModel;
 import beast.base.evolution.branchratemodel.StrictClockModel;
@@ -31,16 +31,18 @@ import beast.base.evolution.likelihood.LikelihoodCore;
 import beast.base.evolution.sitemodel.SiteModel;
 import beast.base.evolution.substitutionmodel.SubstitutionModel;
 import beast.base.evolution.tree.Node;
-import com.google.common.collect.LinkedHashMultiset;
-import com.google.common.collect.Multiset;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * @author Tim Vaughan <tgvaughan@gmail.com>
  */
 @Description("Probability of sequence data given recombination graph.")
-public class ACGLikelihood extends GenericTreeLikelihood {
+public class ACGLikelihood extends GenericTreeLikelihood implements EarlyRejectable {
 
     public Input<Locus> locusInput = new Input<>(
             "locus",
@@ -52,6 +54,67 @@ public class ACGLikelihood extends GenericTreeLikelihood {
             "Whether sites containing ambiguous states should be handled " +
                     "instead of ignored (the default)", false);
 
+    public Input<Integer> threadCountInput = new Input<>(
+            "threadCount",
+            "Number of threads used to evaluate the likelihoods of uncached " +
+                    "regions.  (Default 1, i.e. serial evaluation.)", 1);
+
+    public Input<Boolean> shareCladePartialsInput = new Input<>(
+            "shareCladePartials",
+            "Compute partials for clonal frame clades untouched by " +
+                    "conversions once across the whole locus and share them " +
+                    "between regions. (Default false.)", false);
+
+    public Input<Double> coreMemoryLimitInput = new Input<>(
+            "coreMemoryLimit",
+            "Approximate limit (in MB) on memory occupied by likelihood " +
+                    "cores.  Cores of least recently evaluated regions are " +
+                    "released when this is exceeded. (Default 0, i.e. no limit, " +
+                    "in which case released cores retained for reuse occupy " +
+                    "at most as much memory as cores in use.)",
+            0.0);
+
+    public enum Kernel {BEAST, BACTER}
+
+    public Input<Kernel> kernelInput = new Input<>(
+            "kernel",
+            "Likelihood core used to compute partials.  BEAST selects the " +
+                    "standard BEAST cores, while BACTER selects a kernel " +
+                    "specialized for nucleotide data. (Default BEAST.)",
+            Kernel.BEAST, Kernel.values());
+
+    public Input<Boolean> reusePartialsInput = new Input<>(
+            "reusePartials",
+            "Retain a record of the subtree held at each node of a likelihood " +
+                    "core, so that a region whose marginal tree differs from " +
+                    "the one last evaluated using its core recomputes partials " +
+                    "only along the modified paths.  Partials are only reused " +
+                    "within a single core at unchanged region boundaries, never " +
+                    "taken from neighbouring regions. (Default false.)", false);
+
+    public Input<Boolean> mergeEquivalentRegionsInput = new Input<>(
+            "mergeEquivalentRegions",
+            "Identify uncached regions sharing the same marginal tree " +
+                    "(topology and node heights) and evaluate each such tree " +
+                    "once over the union of their patterns. (Default false.)",
+            false);
+
+    public Input<Integer> regionMemoSizeInput = new Input<>(
+            "regionMemoSize",
+            "Maximum number of region log likelihoods retained across " +
+                    "MCMC steps, allowing regions re-proposed after a rejected " +
+                    "move to be recovered without evaluation.  Cleared whenever " +
+                    "the clonal frame or model parameters change. " +
+                    "(Default 0, i.e. no memo.)", 0);
+
+    public Input<Integer> matrixCacheSizeInput = new Input<>(
+            "matrixCacheSize",
+            "Maximum number of distinct edge lengths for which transition " +
+                    "probability matrices of non-clonal-frame edges are " +
+                    "retained and shared between regions.  Assumes matrices " +
+                    "depend on edge lengths but not on absolute heights. " +
+                    "(Default 0, i.e. no cache.)", 0);
+
     protected ConversionGraph acg;
 
     protected SiteModel.Base siteModel;
@@ -61,8 +124,9 @@ public class ACGLikelihood extends GenericTreeLikelihood {
     protected Locus locus;
     protected int nStates;
 
-    protected Map<Region, Multiset<int[]>> patterns;
-    protected Map<Region, Multiset<int[]>> storedPatterns;
+    protected SitePatternIndex sitePatternIndex;
+    protected Map<Region, SitePatternIndex.RegionPatterns> patterns;
+    protected Map<Region, SitePatternIndex.RegionPatterns> storedPatterns;
     protected Map<Region, double[]> patternLogLikelihoods;
     protected Map<Region, double[]> storedPatternLogLikelihoods;
     protected Map<Region, double[]> rootPartials;
@@ -75,9 +139,144 @@ public class ACGLikelihood extends GenericTreeLikelihood {
     protected Map<Region, Double> storedRegionLogLikelihoods;
 
     /**
-     * Memory for transition probabilities.
+     * Scratch memory used while traversing a single marginal tree.
+     * Each thread evaluating regions requires its own instance.
+     */
+    protected class TraversalScratch {
+        Deque<MarginalNode> stack = new ArrayDeque<>();
+        MarginalNode[] postOrderNodes = new MarginalNode[acg.getNodeCount()];
+
+        /**
+         * Marks marginal nodes (by node number) whose subtree is identical
+         * to the corresponding clonal frame clade.
+         */
+        boolean[] pureClade = new boolean[acg.getNodeCount()];
+
+        /**
+         * Memory for transition probabilities.
+         * (Only the first nStates*nStates elements are usually used.)
+         */
+        double[] probabilities = new double[(nStates+1)*(nStates+1)];
+
+        /**
+         * Generates marginal trees of successive regions evaluated
+         * using this scratch object.
+         */
+        MarginalTreeSweep sweep = new MarginalTreeSweep(acg);
+
+        int cacheHits = 0;
+        int cacheMisses = 0;
+
+        /**
+         * True if shared clade partials are used in the current traversal.
+         */
+        boolean useCladePartials;
+
+        /**
+         * Sparse alignments only: partials of the constant site of each
+         * state, indexed by marginal node number, together with their log
+         * scale factors and the resulting per-state site log likelihoods.
+         */
+        double[][] constantPartials;
+        double[] constantLogScales = new double[nStates];
+        double[] constantSiteLogLikelihoods = new double[nStates];
+
+        long regionsEvaluated = 0;
+        long partialUpdates = 0;
+        long partialsReused = 0;
+        long rescaleCount = 0;
+        long scalingFailureCount = 0;
+    }
+
+    /**
+     * Uncached regions found to share a marginal tree.
+     */
+    protected static class RegionGroup {
+        final long secondaryFingerprint;
+        final List<Region> regions = new ArrayList<>();
+
+        /**
+         * Shared tree, detached from the sweep which produced it.  Null
+         * until a second region is added to the group.
+         */
+        MarginalTree tree;
+
+        RegionGroup(long secondaryFingerprint) {
+            this.secondaryFingerprint = secondaryFingerprint;
+        }
+    }
+
+    protected int threadCount;
+    protected TraversalScratch scratch;
+    protected TraversalScratch[] workerScratch;
+    protected ForkJoinPool threadPool;
+
+    protected boolean shareCladePartials;
+
+    /**
+     * Leaf states (or partials, when ambiguities are used) for every
+     * alignment pattern, indexed by leaf node number.
+     */
+    protected int[][] leafStates;
+    protected double[][] leafPartials;
+
+    /**
+     * Partials of clonal frame clades computed over every alignment pattern,
+     * double buffered for store/restore and indexed by CF node number.
      */
-    protected double [] probabilities;
+    protected double[][][] cladePartials;
+    protected int cladePartialsBuf, storedCladePartialsBuf;
+    protected boolean cladePartialsDirty, storedCladePartialsDirty;
+    protected boolean cladePartialsUpdated;
+
+    protected ThresholdProvider thresholdProvider;
+    protected boolean evaluationAborted;
+
+    protected LikelihoodCorePool corePool;
+    protected Map<LikelihoodCore, Long> coreLastUsed;
+    protected long coreMemoryLimit;
+    protected long evaluationCount;
+
+    protected int coreNodeCount;
+
+    /**
+     * Partials are only reused when clade partials are not shared, as
+     * the latter are copied into cores without consulting the record.
+     */
+    protected boolean reusePartials;
+    protected Map<LikelihoodCore, NodePartialsRecord> partialsRecords;
+
+    /**
+     * Cores on which scaling has been switched on.  Updated by the threads
+     * evaluating regions, and weak so that evicted cores can be collected.
+     */
+    protected Set<LikelihoodCore> scaledCores;
+
+    protected boolean mergeEquivalentRegions;
+    protected long treeCacheLookups, treeCacheHits;
+
+    /**
+     * Least recently used region log likelihoods computed under the
+     * current clonal frame and model parameters, including those of
+     * rejected states.  Null when no memo is requested.
+     */
+    protected Map<Region, Double> regionMemo;
+    protected boolean regionMemoCleared;
+    protected long regionMemoLookups, regionMemoHits;
+
+    /**
+     * Least recently used transition probability matrices of each rate
+     * category, keyed by the bits of the edge length.  Shared by threads
+     * evaluating regions and null when no cache is requested.
+     */
+    protected Map<Long, double[][]> matrixCache;
+    protected int matrixCacheSize;
+
+    /**
+     * True if transition probabilities have been invalidated by model
+     * changes since the last call to store().
+     */
+    protected boolean matricesInvalidated;
 
     public ACGLikelihood() {
         // We allow alignments to be specified using Locus objects.
@@ -107,6 +306,10 @@ public class ACGLikelihood extends GenericTreeLikelihood {
 
         nStates = alignment.getMaxStateCount();
 
+        if (kernelInput.get() == Kernel.BACTER && nStates != 4)
+            throw new IllegalArgumentException("The BACTER likelihood kernel " +
+                    "is only available for nucleotide (4-state) data.");
+
         siteModel = (SiteModel.Base) siteModelInput.get();
         substitutionModel = (SubstitutionModel.Base) siteModel.getSubstitutionModel();
 
@@ -119,6 +322,7 @@ public class ACGLikelihood extends GenericTreeLikelihood {
         } else
             branchRateModel = new StrictClockModel();
 
+        sitePatternIndex = new SitePatternIndex(alignment, locus.useSparseAlignment());
         patterns = new HashMap<>();
         storedPatterns = new HashMap<>();
         patternLogLikelihoods = new HashMap<>();
@@ -132,192 +336,1078 @@ public class ACGLikelihood extends GenericTreeLikelihood {
         regionLogLikelihoods = new HashMap<>();
         storedRegionLogLikelihoods = new HashMap<>();
 
-        // Allocate transition probability memory:
-        // (Only the first nStates*nStates elements are usually used.)
-        probabilities = new double[(nStates+1)*(nStates+1)];
+        // Allocate traversal scratch memory:
+        scratch = new TraversalScratch();
+
+        threadCount = threadCountInput.get();
+        if (threadCount < 1)
+            throw new IllegalArgumentException("ACGLikelihood threadCount " +
+                    "must be at least 1.");
+
+        if (threadCount > 1) {
+            workerScratch = new TraversalScratch[threadCount];
+            for (int t=0; t<threadCount; t++)
+                workerScratch[t] = new TraversalScratch();
+
+            threadPool = new ForkJoinPool(threadCount);
+        }
+
+        shareCladePartials = shareCladePartialsInput.get();
+        if (shareCladePartials)
+            initCladePartials();
+
+        // Upper half of core node indices receives shared clade partials.
+        coreNodeCount = shareCladePartials ? 2*acg.getNodeCount() : acg.getNodeCount();
+        int intNodeCount = acg.getNodeCount()/2;
+        long bytesPerPattern = 8L*2*intNodeCount*siteModel.getCategoryCount()*nStates
+                + 4L*acg.getLeafNodeCount();
+        corePool = new LikelihoodCorePool(capacity -> {
+            LikelihoodCore likelihoodCore;
+            if (kernelInput.get() == Kernel.BACTER)
+                likelihoodCore = new NucleotideLikelihoodCore();
+            else if (nStates==4)
+                likelihoodCore = new BeerLikelihoodCore4();
+            else
+                likelihoodCore = new BeerLikelihoodCore(nStates);
+
+            likelihoodCore.initialize(coreNodeCount, capacity,
+                    siteModel.getCategoryCount(),
+                    true, useAmbiguitiesInput.get());
+
+            for (int i=0; i<intNodeCount; i++)
+                likelihoodCore.createNodePartials(intNodeCount+1+i);
+
+            return likelihoodCore;
+        }, bytesPerPattern);
+        coreLastUsed = new IdentityHashMap<>();
+        coreMemoryLimit = (long)(coreMemoryLimitInput.get()*1024*1024);
+
+        reusePartials = reusePartialsInput.get() && !shareCladePartials;
+        partialsRecords = new IdentityHashMap<>();
+
+        scaledCores = Collections.synchronizedSet(
+                Collections.newSetFromMap(new WeakHashMap<>()));
+
+        mergeEquivalentRegions = mergeEquivalentRegionsInput.get();
+
+        int regionMemoSize = regionMemoSizeInput.get();
+        if (regionMemoSize < 0)
+            throw new IllegalArgumentException("ACGLikelihood regionMemoSize " +
+                    "must be non-negative.");
+
+        if (regionMemoSize > 0) {
+            regionMemo = new LinkedHashMap<Region, Double>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Region, Double> eldest) {
+                    return size() > regionMemoSize;
+                }
+            };
+        }
+
+        matrixCacheSize = matrixCacheSizeInput.get();
+        if (matrixCacheSize < 0)
+            throw new IllegalArgumentException("ACGLikelihood matrixCacheSize " +
+                    "must be non-negative.");
+
+        if (matrixCacheSize > 0) {
+            matrixCache = Collections.synchronizedMap(
+                    new LinkedHashMap<Long, double[][]>(16, 0.75f, true) {
+                        @Override
+                        protected boolean removeEldestEntry(Map.Entry<Long, double[][]> eldest) {
+                            return size() > matrixCacheSize;
+                        }
+                    });
+        }
     }
 
-    protected double scaleFactor = 1.0;
-    protected double scaleFactorMultiplier = 1.01;
-    protected double maxScaleFactor = 100.0;
+    /**
+     * Set up storage and leaf data used to compute partials for
+     * clonal frame clades over the whole locus.
+     */
+    protected void initCladePartials() {
+        int nPatterns = alignment.getPatternCount();
+
+        leafStates = new int[acg.getNodeCount()][];
+        leafPartials = new double[acg.getNodeCount()][];
+        for (Node node : acg.getExternalNodes()) {
+            int taxon = alignment.getTaxonIndex(node.getID());
+
+            if (useAmbiguitiesInput.get()) {
+                double[] partials = new double[nPatterns*nStates];
+                for (int k=0; k<nPatterns; k++) {
+                    boolean[] stateSet = alignment.getDataType().getStateSet(
+                            alignment.getPattern(taxon, k));
+                    for (int i=0; i<nStates; i++)
+                        partials[k*nStates + i] = stateSet[i] ? 1.0 : 0.0;
+                }
+                leafPartials[node.getNr()] = partials;
+            } else {
+                int[] states = new int[nPatterns];
+                for (int k=0; k<nPatterns; k++) {
+                    int code = alignment.getPattern(taxon, k);
+                    int[] statesForCode = alignment.getDataType().getStatesForCode(code);
+                    states[k] = statesForCode.length == 1 ? statesForCode[0] : nStates;
+                }
+                leafStates[node.getNr()] = states;
+            }
+        }
+
+        cladePartials = new double[2][acg.getNodeCount()][];
+        cladePartialsBuf = 0;
+        cladePartialsDirty = true;
+    }
+
+    /**
+     * Scale factor passed to the cores of regions found to underflow.
+     */
+    protected static final double SCALE_FACTOR = 1.01;
+
+    protected volatile boolean scalingFailureReported = false;
 
     @Override
     public double calculateLogP() {
 
-        while (true) {
-            doLogPCalculation();
+        double threshold = thresholdProvider != null
+                ? thresholdProvider.getRejectionThreshold(this)
+                : Double.NEGATIVE_INFINITY;
+
+        doLogPCalculation(threshold);
+        enforceCoreMemoryLimit();
 
-            if (logP>Double.NEGATIVE_INFINITY || scaleFactor>=maxScaleFactor)
-                return logP;
+        return logP;
+    }
 
-            scaleFactor *= scaleFactorMultiplier;
-            Log.warning.println("Turning on scaling to prevent numeric instability. Scale factor: " + scaleFactor);
 
-            for (LikelihoodCore core : likelihoodCores.values())
-                core.setUseScaling(scaleFactor);
 
-            requiresRecalculation();
+    /**
+     * Compute log likelihood of the alignment given the ACG.  If the
+     * result is certain to fall below the given threshold, the calculation
+     * may be abandoned, in which case logP is set to negative infinity
+     * and evaluationAborted to true.
+     *
+     * @param threshold early rejection threshold
+     */
+    protected void doLogPCalculation(double threshold) {
+        evaluationAborted = false;
+
+        evaluationCount += 1;
+
+        updatePatterns();
+
+        preComputeCFTransitionProbs();
+
+        if (useCladePartials())
+            updateCladePartials();
+
+        List<Region> regionList = acg.getRegions(locus);
+        regionLogLikelihoods.keySet().retainAll(regionList);
+
+        List<Region> uncachedRegions = new ArrayList<>();
+        for (Region region : regionList) {
+            if (regionLogLikelihoods.containsKey(region))
+                continue;
+
+            if (regionMemo != null) {
+                regionMemoLookups += 1;
+                Double memoLogP = regionMemo.get(region);
+                if (memoLogP != null) {
+                    regionMemoHits += 1;
+                    regionLogLikelihoods.put(region, memoLogP);
+                    continue;
+                }
+            }
+
+            uncachedRegions.add(region);
+        }
+
+        List<Region> evaluatedRegions = regionMemo != null
+                ? new ArrayList<>(uncachedRegions)
+                : Collections.emptyList();
+
+        scratch.sweep.reset();
+        if (workerScratch != null) {
+            for (TraversalScratch ws : workerScratch)
+                ws.sweep.reset();
+        }
+
+        if (mergeEquivalentRegions && uncachedRegions.size() > 1) {
+            computeMergedRegionLogLikelihoods(uncachedRegions);
+            scratch.sweep.reset();
         }
+
+        updateCores(uncachedRegions);
+
+        if (threshold > Double.NEGATIVE_INFINITY) {
+            if (!computeRegionLogLikelihoodsAboveThreshold(regionList,
+                    uncachedRegions, threshold)) {
+                updateRegionMemo(evaluatedRegions);
+                evaluationAborted = true;
+                logP = Double.NEGATIVE_INFINITY;
+                return;
+            }
+        } else if (threadCount > 1 && uncachedRegions.size() > 1)
+            computeRegionLogLikelihoodsParallel(uncachedRegions);
+        else {
+            for (Region region : uncachedRegions)
+                regionLogLikelihoods.put(region,
+                        computeRegionLogLikelihood(region, scratch));
+        }
+
+        updateRegionMemo(evaluatedRegions);
+
+        // Sum in region order so that the result does not depend on
+        // the number of threads used.
+        logP = 0.0;
+        for (Region region : regionList)
+            logP += regionLogLikelihoods.get(region);
+
+//        System.out.println("Cache hit rate: " + scratch.cacheHits/(double)(scratch.cacheMisses + scratch.cacheHits));
     }
 
+    /**
+     * Enter the log likelihoods of newly evaluated regions into the
+     * region memo, if one is in use.
+     *
+     * @param evaluatedRegions regions which were evaluated (or, following
+     *                         early rejection, may have been evaluated)
+     */
+    protected void updateRegionMemo(List<Region> evaluatedRegions) {
+        if (regionMemo == null)
+            return;
+
+        for (Region region : evaluatedRegions) {
+            Double regionLogP = regionLogLikelihoods.get(region);
+            if (regionLogP != null)
+                regionMemo.put(region, regionLogP);
+        }
+    }
+
+    /**
+     * Compute log likelihood of a single region.  Only reads shared
+     * state, so may be called concurrently for distinct regions provided
+     * each caller uses its own scratch object.
+     *
+     * @param region region to evaluate
+     * @param scratch traversal scratch memory
+     * @return log likelihood of region
+     */
+    protected double computeRegionLogLikelihood(Region region, TraversalScratch scratch) {
+        scratch.regionsEvaluated += 1;
 
+        MarginalNode root = scratch.sweep.advance(region).getRoot();
+        traverseNoRecurse(root, region, scratch);
+        double regionLogP = getRegionLogLikelihood(region);
+        double constantSiteLogP = getConstantSiteLogLikelihood(
+                patterns.get(region).constantSiteCounts, scratch);
 
-    protected void doLogPCalculation() {
-        updatePatterns();
-        updateCores();
+        // Switch on scaling for the core of a region which underflows
+        // and evaluate the region again.  Other regions are unaffected.
+        if (regionLogP == Double.NEGATIVE_INFINITY || Double.isNaN(regionLogP)) {
+            LikelihoodCore lhc = likelihoodCores.get(region);
+
+            if (scaledCores.add(lhc)) {
+                lhc.setUseScaling(SCALE_FACTOR);
+
+                NodePartialsRecord record = partialsRecords.get(lhc);
+                if (record != null)
+                    record.invalidate();
+
+                scratch.rescaleCount += 1;
+
+                traverseNoRecurse(root, region, scratch);
+                regionLogP = getRegionLogLikelihood(region);
+            }
+
+            // Scaling is already on, so nothing further can be done.
+            if (regionLogP == Double.NEGATIVE_INFINITY || Double.isNaN(regionLogP)) {
+                scratch.scalingFailureCount += 1;
+                if (!scalingFailureReported) {
+                    scalingFailureReported = true;
+                    Log.warning.println("Warning: ACGLikelihood for locus "
+                            + locus.getID() + " obtained log likelihood "
+                            + regionLogP + " for region " + region
+                            + " despite scaling.  Further occurrences "
+                            + "will not be reported.");
+                }
+            }
+        }
+
+        return regionLogP + constantSiteLogP;
+    }
+
+    /**
+     * Group uncached regions by marginal tree and evaluate each tree shared
+     * by several regions once, using a temporary core holding the union of
+     * their patterns.  Trees are compared using the fingerprints computed
+     * by the sweep which assembles them.  The log likelihoods of these regions are entered
+     * into the region cache and the regions removed from the given list.
+     * Regions whose merged evaluation underflows are left in the list, to
+     * be evaluated individually using a core with scaling.
+     *
+     * @param uncachedRegions regions requiring evaluation
+     */
+    protected void computeMergedRegionLogLikelihoods(List<Region> uncachedRegions) {
+        Map<Long, RegionGroup> regionGroups = new LinkedHashMap<>();
+        boolean treesShared = false;
+        MarginalTreeSweep sweep = scratch.sweep;
+        for (Region region : uncachedRegions) {
+            sweep.advance(region);
+
+            treeCacheLookups += 1;
+
+            RegionGroup group = regionGroups.get(sweep.getFingerprint());
+            if (group == null) {
+                group = new RegionGroup(sweep.getSecondaryFingerprint());
+                group.regions.add(region);
+                regionGroups.put(sweep.getFingerprint(), group);
+                continue;
+            }
+
+            // Regions whose trees merely collide with that of the group
+            // are evaluated individually.
+            if (group.secondaryFingerprint != sweep.getSecondaryFingerprint())
+                continue;
+
+            treeCacheHits += 1;
+            treesShared = true;
+
+            // Tree is retained for evaluation once a second region is found.
+            if (group.tree == null)
+                group.tree = sweep.detachTree();
+
+            group.regions.add(region);
+        }
+
+        if (!treesShared)
+            return;
+
+        int[] unionPositions = new int[alignment.getPatternCount()];
+        Arrays.fill(unionPositions, -1);
+
+        Set<Region> mergedRegions = new HashSet<>();
+
+        for (RegionGroup group : regionGroups.values()) {
+            if (group.tree == null)
+                continue;
+
+            // Union of alignment patterns present in the group
+            int nUnion = 0;
+            for (Region region : group.regions) {
+                for (int p : patterns.get(region).patternIndices) {
+                    if (unionPositions[p] < 0)
+                        unionPositions[p] = nUnion++;
+                }
+            }
+
+            int[] unionIndices = new int[nUnion];
+            for (Region region : group.regions) {
+                for (int p : patterns.get(region).patternIndices)
+                    unionIndices[unionPositions[p]] = p;
+            }
+
+            LikelihoodCore lhc = corePool.acquire(nUnion);
+            setLeafData(lhc, unionIndices);
+
+            int capacity = LikelihoodCorePool.getCapacity(nUnion);
+            double[] unionRootPartials = new double[capacity*nStates];
+            double[] unionPatternLogLikelihoods = new double[capacity];
+
+            scratch.regionsEvaluated += 1;
+            traverseNoRecurse(group.tree.getRoot(), lhc, unionIndices,
+                    getConstantPatternList(unionIndices),
+                    unionRootPartials, unionPatternLogLikelihoods, scratch);
+
+            corePool.release(lhc);
+
+            if (sitePatternIndex.isSparse())
+                computeConstantSiteLogLikelihoods(scratch);
+
+            for (Region region : group.regions) {
+                SitePatternIndex.RegionPatterns regionPatterns = patterns.get(region);
+                double[] regionPatternLogLikelihoods = patternLogLikelihoods.get(region);
+
+                double regionLogP = 0.0;
+                for (int i=0; i<regionPatterns.size(); i++) {
+                    regionPatternLogLikelihoods[i] = unionPatternLogLikelihoods[
+                            unionPositions[regionPatterns.patternIndices[i]]];
+                    regionLogP += regionPatternLogLikelihoods[i]*regionPatterns.weights[i];
+                }
+
+                if (regionPatterns.constantSiteCounts != null)
+                    regionLogP += weightConstantSiteLogLikelihoods(
+                            regionPatterns.constantSiteCounts, scratch);
+
+                if (regionLogP > Double.NEGATIVE_INFINITY) {
+                    regionLogLikelihoods.put(region, regionLogP);
+                    mergedRegions.add(region);
+                }
+            }
+
+            for (int p : unionIndices)
+                unionPositions[p] = -1;
+        }
+
+        uncachedRegions.removeIf(mergedRegions::contains);
+    }
+
+    /**
+     * @param region region
+     * @return log likelihood of the patterns of region held by its core,
+     * computed from the pattern log likelihoods obtained by the most
+     * recent traversal.  Excludes constant sites omitted from the
+     * patterns of sparse alignments.
+     */
+    protected double getRegionLogLikelihood(Region region) {
+        int[] weights = patterns.get(region).weights;
+        double[] regionPatternLogLikelihoods = patternLogLikelihoods.get(region);
+
+        double regionLogP = 0.0;
+        for (int i=0; i<weights.length; i++)
+            regionLogP += regionPatternLogLikelihoods[i]*weights[i];
+
+        return regionLogP;
+    }
+
+    /**
+     * Compute the log likelihood of the constant sites omitted from the
+     * patterns of a region when a sparse alignment is used.  Requires the
+     * post-order node list of the region's marginal tree left in the
+     * scratch memory by the traversal which evaluated its patterns.
+     *
+     * @param constantSiteCounts number of constant sites of each state
+     *                           in region, or null if there are none
+     * @param scratch traversal scratch memory
+     * @return log likelihood of constant sites
+     */
+    protected double getConstantSiteLogLikelihood(int[] constantSiteCounts,
+                                                  TraversalScratch scratch) {
+        if (constantSiteCounts == null)
+            return 0.0;
+
+        computeConstantSiteLogLikelihoods(scratch);
+
+        return weightConstantSiteLogLikelihoods(constantSiteCounts, scratch);
+    }
+
+    /**
+     * @param constantSiteCounts number of constant sites of each state
+     * @param scratch traversal scratch memory holding per-state constant
+     *                site log likelihoods
+     * @return total log likelihood of the given constant sites
+     */
+    protected double weightConstantSiteLogLikelihoods(int[] constantSiteCounts,
+                                                      TraversalScratch scratch) {
+        double logP = 0.0;
+        for (int s=0; s<nStates; s++) {
+            if (constantSiteCounts[s] > 0)
+                logP += constantSiteCounts[s]*scratch.constantSiteLogLikelihoods[s];
+        }
+
+        return logP;
+    }
+
+    /**
+     * Compute the log likelihood of a single constant site of each state
+     * on the marginal tree whose post-order node list is held in the
+     * scratch memory.  The leaves of such a site all share one state, so
+     * a single pruning pass carrying one set of partials per state yields
+     * every constant site likelihood without the site occupying space in
+     * a likelihood core.  The proportion of invariant sites is added to
+     * the root partials as for constant patterns held by cores.
+     *
+     * @param scratch traversal scratch memory
+     */
+    protected void computeConstantSiteLogLikelihoods(TraversalScratch scratch) {
+        int nCategories = siteModel.getCategoryCount();
+
+        if (scratch.constantPartials == null)
+            scratch.constantPartials = new double[acg.getNodeCount()][nStates*nCategories*nStates];
+
+        double[][] partials = scratch.constantPartials;
+        double[] logScales = scratch.constantLogScales;
+        Arrays.fill(logScales, 0.0);
+
+        for (MarginalNode node : scratch.postOrderNodes) {
+            if (node.isLeaf())
+                continue;
+
+            // Partials of constant state s, rate category c and node
+            // state x are found at (s*nCategories + c)*nStates + x.
+            double[] nodePartials = partials[node.getNr()];
+            Arrays.fill(nodePartials, 1.0);
+
+            for (Node child : node.getChildren()) {
+                double[] childPartials = partials[child.getNr()];
+
+                for (int c=0; c<nCategories; c++) {
+                    double[] matrix = getEdgeMatrix((MarginalNode)child, c, scratch);
+
+                    for (int s=0; s<nStates; s++) {
+                        int offset = (s*nCategories + c)*nStates;
+
+                        for (int x=0; x<nStates; x++) {
+                            double sum;
+                            if (child.isLeaf()) {
+                                sum = matrix[x*nStates + s];
+                            } else {
+                                sum = 0.0;
+                                for (int y=0; y<nStates; y++)
+                                    sum += matrix[x*nStates + y]*childPartials[offset + y];
+                            }
+
+                            nodePartials[offset + x] *= sum;
+                        }
+                    }
+                }
+            }
+
+            // Rescale to avoid underflow on large trees.
+            for (int s=0; s<nStates; s++) {
+                int start = s*nCategories*nStates;
+                int end = start + nCategories*nStates;
+
+                double max = 0.0;
+                for (int i=start; i<end; i++)
+                    max = Math.max(max, nodePartials[i]);
+
+                if (max > 0.0) {
+                    for (int i=start; i<end; i++)
+                        nodePartials[i] /= max;
+                    logScales[s] += Math.log(max);
+                }
+            }
+
+        }
+
+        MarginalNode root = scratch.postOrderNodes[scratch.postOrderNodes.length-1];
+        double[] rootPartials = partials[root.getNr()];
+        double[] proportions = siteModel.getCategoryProportions(root);
+        double[] frequencies = substitutionModel.getFrequencies();
+        double proportionInvariant = siteModel.getProportionInvariant();
+
+        for (int s=0; s<nStates; s++) {
+            double sum = 0.0;
+            for (int c=0; c<nCategories; c++) {
+                int offset = (s*nCategories + c)*nStates;
+                for (int x=0; x<nStates; x++)
+                    sum += frequencies[x]*proportions[c]*rootPartials[offset + x];
+            }
+
+            double siteLogP = Math.log(sum) + logScales[s];
+
+            if (proportionInvariant > 0.0) {
+                double invariantLogP = Math.log(proportionInvariant*frequencies[s]);
+                double maxLogP = Math.max(siteLogP, invariantLogP);
+                siteLogP = maxLogP + Math.log(Math.exp(siteLogP - maxLogP)
+                        + Math.exp(invariantLogP - maxLogP));
+            }
+
+            scratch.constantSiteLogLikelihoods[s] = siteLogP;
+        }
+    }
+
+    /**
+     * Evaluate log likelihoods of uncached regions in order of decreasing
+     * region length, stopping as soon as the sum of the log likelihoods
+     * known so far falls below the given threshold.  Since every region
+     * log likelihood is non-positive, the total can then only be lower.
+     * When several threads are available, regions are evaluated in
+     * batches of one region per thread.
+     *
+     * @param regionList complete list of regions
+     * @param uncachedRegions regions requiring evaluation
+     * @param threshold early rejection threshold
+     * @return false if evaluation was abandoned, true otherwise
+     */
+    protected boolean computeRegionLogLikelihoodsAboveThreshold(
+            List<Region> regionList, List<Region> uncachedRegions,
+            double threshold) {
+
+        double partialLogP = 0.0;
+        for (Region region : regionList) {
+            Double regionLogP = regionLogLikelihoods.get(region);
+            if (regionLogP != null)
+                partialLogP += regionLogP;
+        }
+
+        List<Region> sortedRegions = new ArrayList<>(uncachedRegions);
+        sortedRegions.sort((r1, r2) -> r2.getRegionLength() - r1.getRegionLength());
+
+        // A region which underflows even with scaling gives -infinity,
+        // which must not be treated as grounds for rejection.
+        if (partialLogP < threshold && partialLogP > Double.NEGATIVE_INFINITY)
+            return false;
+
+        for (int start=0; start<sortedRegions.size(); start += threadCount) {
+            List<Region> batch = sortedRegions.subList(start,
+                    Math.min(start + threadCount, sortedRegions.size()));
+
+            if (batch.size() > 1)
+                computeRegionLogLikelihoodsParallel(batch);
+            else
+                regionLogLikelihoods.put(batch.get(0),
+                        computeRegionLogLikelihood(batch.get(0), scratch));
+
+            for (Region region : batch)
+                partialLogP += regionLogLikelihoods.get(region);
+
+            if (partialLogP < threshold && partialLogP > Double.NEGATIVE_INFINITY)
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Evaluate log likelihoods of the given regions using the thread pool.
+     * Regions are split into contiguous blocks, one per worker, each of
+     * which uses its own traversal scratch memory.
+     *
+     * @param uncachedRegions regions requiring evaluation
+     */
+    protected void computeRegionLogLikelihoodsParallel(List<Region> uncachedRegions) {
+
+        // Ensure lazily-computed CF event list is up to date before
+        // marginal trees are constructed concurrently.
+        acg.getCFEvents();
+
+        int nRegions = uncachedRegions.size();
+        int nTasks = Math.min(threadCount, nRegions);
+        double[] results = new double[nRegions];
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int t=0; t<nTasks; t++) {
+            int start = (int)((long)t*nRegions/nTasks);
+            int end = (int)((long)(t+1)*nRegions/nTasks);
+            TraversalScratch taskScratch = workerScratch[t];
+
+            tasks.add(() -> {
+                for (int r=start; r<end; r++)
+                    results[r] = computeRegionLogLikelihood(
+                            uncachedRegions.get(r), taskScratch);
+                return null;
+            });
+        }
+
+        try {
+            for (Future<Void> future : threadPool.invokeAll(tasks))
+                future.get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Error evaluating region likelihoods.", e);
+        }
+
+        for (int r=0; r<nRegions; r++)
+            regionLogLikelihoods.put(uncachedRegions.get(r), results[r]);
+    }
+
+    /**
+     * Hand the patterns and likelihood core of each region no longer
+     * present in the region list to any new region having the same
+     * boundaries.  Such regions arise when conversion heights or
+     * attachment points change without altering conversion sites, and
+     * share everything except their marginal trees.
+     *
+     * @param regionList current region list
+     */
+    private void transferRegionCaches(List<Region> regionList) {
+        Set<Region> currentRegions = null;
+        Map<Long, Region> staleRegions = null;
+
+        for (Region region : regionList) {
+            if (patterns.containsKey(region))
+                continue;
+
+            if (staleRegions == null) {
+                currentRegions = new HashSet<>(regionList);
+                staleRegions = new HashMap<>();
+                for (Region oldRegion : patterns.keySet()) {
+                    if (!currentRegions.contains(oldRegion))
+                        staleRegions.put(getBoundaryKey(oldRegion), oldRegion);
+                }
+            }
+
+            Region oldRegion = staleRegions.remove(getBoundaryKey(region));
+            if (oldRegion == null)
+                continue;
+
+            patterns.put(region, patterns.remove(oldRegion));
+            patternLogLikelihoods.put(region, patternLogLikelihoods.remove(oldRegion));
+            rootPartials.put(region, rootPartials.remove(oldRegion));
+            constantPatterns.put(region, constantPatterns.remove(oldRegion));
+
+            LikelihoodCore core = likelihoodCores.remove(oldRegion);
+            if (core != null)
+                likelihoodCores.put(region, core);
+        }
+    }
+
+    /**
+     * @param region region
+     * @return key identifying region boundaries
+     */
+    private static long getBoundaryKey(Region region) {
+        return ((long)region.leftBoundary << 32) | region.rightBoundary;
+    }
+
+    /**
+     * Ensure pattern counts are up to date.
+     */
+    private void updatePatterns() {
+        List<Region> regionList = acg.getRegions(locus);
+
+        transferRegionCaches(regionList);
+
+        // Remove stale pattern sets
+        patterns.keySet().retainAll(regionList);
+        patternLogLikelihoods.keySet().retainAll(regionList);
+        rootPartials.keySet().retainAll(regionList);
+        constantPatterns.keySet().retainAll(regionList);
+
+        for (Region region : regionList) {
+
+            if (patterns.containsKey(region))
+                continue;
+
+            // Add new pattern set
+            SitePatternIndex.RegionPatterns patSet = sitePatternIndex.getRegionPatterns(
+                    region.leftBoundary, region.rightBoundary);
+            patterns.put(region, patSet);
+
+            // Allocate memory for corresponding log likelihoods and root partials
+            // (Sized to match the padded likelihood core.)
+            int capacity = LikelihoodCorePool.getCapacity(patSet.size());
+            patternLogLikelihoods.put(region, new double[capacity]);
+            rootPartials.put(region, new double[capacity*nStates]);
+
+            // Compute corresponding constant pattern list
+            constantPatterns.put(region, getConstantPatternList(patSet.patternIndices));
+        }
+    }
+
+    /**
+     * Identify constant patterns among those given.
+     *
+     * @param patternIndices alignment pattern indices
+     * @return list of root partial indices (pattern position times state
+     * count plus state) corresponding to constant patterns
+     */
+    protected List<Integer> getConstantPatternList(int[] patternIndices) {
+        List<Integer> constantPatternList = new ArrayList<>();
+
+        for (int patternIdx=0; patternIdx<patternIndices.length; patternIdx++) {
+            int[] pattern = alignment.getPattern(patternIndices[patternIdx]);
+            boolean isConstant = true;
+            for (int i=1; i<pattern.length; i++)
+                if (pattern[i] != pattern[0]) {
+                    isConstant = false;
+                    break;
+                }
+
+            if (isConstant) {
+                if (alignment.getDataType().isAmbiguousCode(pattern[0])) {
+                    if (useAmbiguitiesInput.get()) {
+                        for (int state : alignment.getDataType().getStatesForCode(pattern[0]))
+                            constantPatternList.add(patternIdx * nStates + state);
+                    }
+                } else {
+                    constantPatternList.add(patternIdx * nStates + pattern[0]);
+                }
+            }
+        }
+
+        return constantPatternList;
+    }
+    
+    
+    /**
+     * Ensure likelihood cores are available for the given regions,
+     * drawing on the core pool for regions without one.
+     *
+     * @param regions regions about to be evaluated
+     */
+    private void updateCores(List<Region> regions) {
+
+        List<Region> regionList = acg.getRegions(locus);
+        likelihoodCores.keySet().retainAll(regionList);
+
+        for (Region region : regions) {
+
+            LikelihoodCore likelihoodCore = likelihoodCores.get(region);
+
+            if (likelihoodCore == null) {
+                SitePatternIndex.RegionPatterns regionPatterns = patterns.get(region);
+                likelihoodCore = corePool.acquire(regionPatterns.size());
+                likelihoodCores.put(region, likelihoodCore);
+
+                if (reusePartials) {
+                    NodePartialsRecord record = partialsRecords.get(likelihoodCore);
+                    if (record == null) {
+                        record = new NodePartialsRecord(coreNodeCount);
+                        partialsRecords.put(likelihoodCore, record);
+                    } else
+                        record.invalidate();
+                }
+
+                setLeafData(likelihoodCore, regionPatterns.patternIndices);
+            }
+
+            coreLastUsed.put(likelihoodCore, evaluationCount);
+        }
+    }
+
+    /**
+     * Set leaf states or partials (when ambiguities are used) in a
+     * likelihood core.
+     *
+     * @param lhc likelihood core
+     * @param patternIndices indices of alignment patterns held by core
+     */
+    protected void setLeafData(LikelihoodCore lhc, int[] patternIndices) {
+        int capacity = LikelihoodCorePool.getCapacity(patternIndices.length);
+        if (useAmbiguitiesInput.get())
+            setPartials(lhc, patternIndices, capacity);
+        else
+            setStates(lhc, patternIndices, capacity);
+    }
 
-        preComputeCFTransitionProbs();
+    /**
+     * Return cores referenced by neither the current nor the stored
+     * region caches to the core pool.
+     *
+     * @param candidates cores which may no longer be referenced
+     */
+    protected void releaseUnreferencedCores(Collection<LikelihoodCore> candidates) {
+        releaseCores(candidates);
 
-        logP = 0.0;
+        // Without a limit, pooled cores are bounded by the memory
+        // occupied by cores in use.
+        if (coreMemoryLimit > 0)
+            enforceCoreMemoryLimit();
+        else
+            corePool.trim(getLiveCoreBytes());
+    }
 
-        regionLogLikelihoods.keySet().retainAll(acg.getRegions(locus));
+    /**
+     * @return approximate memory occupied by cores of current regions
+     */
+    protected long getLiveCoreBytes() {
+        long liveBytes = 0;
+        for (LikelihoodCore core : likelihoodCores.values())
+            liveBytes += corePool.getCoreBytes(core);
 
-        for (Region region : acg.getRegions(locus)) {
+        return liveBytes;
+    }
 
-            if (!regionLogLikelihoods.containsKey(region)) {
-                traverseNoRecurse(new MarginalTree(acg, region.activeConversions).getRoot(), region);
+    /**
+     * Return cores referenced by neither the current nor the stored
+     * region caches to the core pool, without enforcing the memory
+     * limit.
+     *
+     * @param candidates cores which may no longer be referenced
+     */
+    private void releaseCores(Collection<LikelihoodCore> candidates) {
+        Set<LikelihoodCore> referenced = Collections.newSetFromMap(new IdentityHashMap<>());
+        referenced.addAll(likelihoodCores.values());
+        referenced.addAll(storedLikelihoodCores.values());
 
+        for (LikelihoodCore core : candidates) {
+            if (referenced.add(core)) {
+                coreLastUsed.remove(core);
+                partialsRecords.remove(core);
 
-                double regionLogP = 0.0;
-                int i = 0;
-                for (int[] pattern : patterns.get(region).elementSet()) {
-                    regionLogP += patternLogLikelihoods.get(region)[i]
-                            * patterns.get(region).count(pattern);
-                    i += 1;
-                }
-                regionLogLikelihoods.put(region, regionLogP);
+                // Pooled cores are handed out without scaling.
+                if (scaledCores.remove(core))
+                    core.setUseScaling(1.0);
 
-                logP += regionLogP;
-            } else {
-                logP += regionLogLikelihoods.get(region);
+                corePool.release(core);
             }
         }
-
-//        System.out.println("Cache hit rate: " + cacheHits/(double)(cacheMisses + cacheHits));
     }
 
     /**
-     * Ensure pattern counts are up to date.
+     * Evict cores of least recently evaluated regions and discard pooled
+     * cores until memory used by cores falls below the limit.  Evicted
+     * cores which do not belong to the stored state are returned to the
+     * pool, from which they are discarded along with other pooled cores.
      */
-    private void updatePatterns() {
-        List<Region> regionList = acg.getRegions(locus);
-
-        // Remove stale pattern sets
-        patterns.keySet().retainAll(regionList);
-        patternLogLikelihoods.keySet().retainAll(regionList);
-        rootPartials.keySet().retainAll(regionList);
-        constantPatterns.keySet().retainAll(regionList);
+    protected void enforceCoreMemoryLimit() {
+        if (coreMemoryLimit <= 0)
+            return;
+
+        long liveBytes = getLiveCoreBytes();
+
+        if (liveBytes > coreMemoryLimit) {
+            List<Map.Entry<Region, LikelihoodCore>> entries =
+                    new ArrayList<>(likelihoodCores.entrySet());
+            entries.sort(Comparator.comparingLong(
+                    e -> coreLastUsed.getOrDefault(e.getValue(), 0L)));
+
+            List<LikelihoodCore> evictedCores = new ArrayList<>();
+            for (Map.Entry<Region, LikelihoodCore> entry : entries) {
+                if (liveBytes <= coreMemoryLimit)
+                    break;
+
+                likelihoodCores.remove(entry.getKey());
+                evictedCores.add(entry.getValue());
+                liveBytes -= corePool.getCoreBytes(entry.getValue());
+                corePool.recordEviction();
+            }
 
-        for (Region region : regionList) {
+            releaseCores(evictedCores);
+        }
 
-            if (patterns.containsKey(region))
-                continue;
+        corePool.trim(Math.max(0, coreMemoryLimit - liveBytes));
+    }
 
-            // Add new pattern set
-            Multiset<int[]> patSet = LinkedHashMultiset.create();
-            for (int j=region.leftBoundary; j<region.rightBoundary; j++) {
-                int [] pat = alignment.getPattern(alignment.getPatternIndex(j));
-                patSet.add(pat);
-            }
-            patterns.put(region, patSet);
+    /**
+     * Forget the contents of every likelihood core, so that the next
+     * traversal using each core recomputes all partials.
+     */
+    protected void invalidatePartialsRecords() {
+        for (NodePartialsRecord record : partialsRecords.values())
+            record.invalidate();
+    }
 
-            // Allocate memory for corresponding log likelihoods and root partials
-            patternLogLikelihoods.put(region, new double[patSet.elementSet().size()]);
-            rootPartials.put(region, new double[patSet.elementSet().size()*nStates]);
+    /**
+     * @return total number of regions evaluated
+     */
+    public long getRegionsEvaluated() {
+        long count = scratch.regionsEvaluated;
+        if (workerScratch != null) {
+            for (TraversalScratch ws : workerScratch)
+                count += ws.regionsEvaluated;
+        }
 
-            // Compute corresponding constant pattern list
-            List<Integer> constantPatternList = new ArrayList<>();
-
-            int patternIdx = 0;
-            for (int[] pattern : patSet.elementSet()) {
-                boolean isConstant = true;
-                for (int i=1; i<pattern.length; i++)
-                    if (pattern[i] != pattern[0]) {
-                        isConstant = false;
-                        break;
-                    }
+        return count;
+    }
 
-                if (isConstant) {
-                    if (alignment.getDataType().isAmbiguousCode(pattern[0])) {
-                        if (useAmbiguitiesInput.get()) {
-                            for (int state : alignment.getDataType().getStatesForCode(pattern[0]))
-                                constantPatternList.add(patternIdx * nStates + state);
-                        }
-                    } else {
-                        constantPatternList.add(patternIdx * nStates + pattern[0]);
-                    }
-                }
+    /**
+     * @return total number of internal node partials computed
+     */
+    public long getPartialUpdateCount() {
+        long count = scratch.partialUpdates;
+        if (workerScratch != null) {
+            for (TraversalScratch ws : workerScratch)
+                count += ws.partialUpdates;
+        }
 
-                patternIdx += 1;
-            }
+        return count;
+    }
 
-            constantPatterns.put(region, constantPatternList);
+    /**
+     * @return total number of internal node partials found to be
+     * already present in a likelihood core
+     */
+    public long getPartialReuseCount() {
+        long count = scratch.partialsReused;
+        if (workerScratch != null) {
+            for (TraversalScratch ws : workerScratch)
+                count += ws.partialsReused;
         }
+
+        return count;
     }
-    
-    
+
     /**
-     * Initialize likelihood cores.
+     * @return total number of regions whose cores have had scaling
+     * switched on following underflow
      */
-    private void updateCores() {
+    public long getRescaleCount() {
+        long count = scratch.rescaleCount;
+        if (workerScratch != null) {
+            for (TraversalScratch ws : workerScratch)
+                count += ws.rescaleCount;
+        }
 
-        List<Region> regionList = acg.getRegions(locus);
-        likelihoodCores.keySet().retainAll(regionList);
+        return count;
+    }
 
-        for (Region region : regionList) {
+    /**
+     * @return total number of region evaluations which underflowed even
+     * with scaling switched on
+     */
+    public long getScalingFailureCount() {
+        long count = scratch.scalingFailureCount;
+        if (workerScratch != null) {
+            for (TraversalScratch ws : workerScratch)
+                count += ws.scalingFailureCount;
+        }
 
-            if (likelihoodCores.containsKey(region))
-                continue;
+        return count;
+    }
 
-            LikelihoodCore likelihoodCore;
-            if (nStates==4)
-                likelihoodCore = new BeerLikelihoodCore4();
-            else
-                likelihoodCore = new BeerLikelihoodCore(nStates);
+    /**
+     * @return total number of uncached regions whose marginal trees were
+     * compared with those of the other regions evaluated at the same time
+     */
+    public long getTreeCacheLookupCount() {
+        return treeCacheLookups;
+    }
 
-            likelihoodCores.put(region, likelihoodCore);
+    /**
+     * @return total number of regions found to share their marginal tree
+     * with a region evaluated at the same time
+     */
+    public long getTreeCacheHitCount() {
+        return treeCacheHits;
+    }
 
-            likelihoodCore.initialize(acg.getNodeCount(),
-                    patterns.get(region).elementSet().size(),
-                    siteModel.getCategoryCount(),
-                    true, useAmbiguitiesInput.get());
+    /**
+     * @return total number of uncached regions looked up in the region memo
+     */
+    public long getRegionMemoLookupCount() {
+        return regionMemoLookups;
+    }
 
-            if (scaleFactor>1.0)
-                likelihoodCore.setUseScaling(scaleFactor);
+    /**
+     * @return total number of regions whose log likelihoods were
+     * recovered from the region memo
+     */
+    public long getRegionMemoHitCount() {
+        return regionMemoHits;
+    }
 
-            if (useAmbiguitiesInput.get())
-                setPartials(likelihoodCore, patterns.get(region));
-            else
-                setStates(likelihoodCore, patterns.get(region));
-            
-            int intNodeCount = acg.getNodeCount()/2;
-            for (int i=0; i<intNodeCount; i++)
-                likelihoodCore.createNodePartials(intNodeCount+1+i);
+    /**
+     * @return number of cores of current regions using scaling
+     */
+    public int getScaledCoreCount() {
+        int count = 0;
+        for (LikelihoodCore core : likelihoodCores.values()) {
+            if (scaledCores.contains(core))
+                count += 1;
         }
+
+        return count;
     }
-    
-    
+
+    /**
+     * @return pool supplying likelihood cores, which records hit, miss
+     * and eviction counts
+     */
+    public LikelihoodCorePool getCorePool() {
+        return corePool;
+    }
+
     /**
      * Set leaf states in a likelihood core.
      * 
      * @param lhc       likelihood core object
-     * @param patterns  leaf state patterns
+     * @param patternIndices  indices of alignment patterns
+     * @param capacity  pattern capacity of core
      */
-    void setStates(LikelihoodCore lhc, Multiset<int[]> patterns) {
+    void setStates(LikelihoodCore lhc, int[] patternIndices, int capacity) {
         
         for (Node node : acg.getExternalNodes()) {
-            int[] states = new int[patterns.elementSet().size()];
+            int[] states = new int[capacity];
+            Arrays.fill(states, nStates); // Padding patterns are ignored.
             int taxon = alignment.getTaxonIndex(node.getID());
-            int i=0;
-            for (int [] pattern : patterns.elementSet()) {
-                int code = pattern[taxon];
+            for (int i=0; i<patternIndices.length; i++) {
+                int code = alignment.getPattern(taxon, patternIndices[i]);
                 int[] statesForCode = alignment.getDataType().getStatesForCode(code);
                 if (statesForCode.length==1)
                     states[i] = statesForCode[0];
                 else
                     states[i] = code; // Causes ambiguous states to be ignored.
-                
-                i += 1;
             }
             lhc.setNodeStates(node.getNr(), states);
         }
@@ -328,16 +1418,18 @@ public class ACGLikelihood extends GenericTreeLikelihood {
      * Set leaf partials in likelihood core.
      *
      * @param lhc likelihood core object
-     * @param patterns leaf state patterns
+     * @param patternIndices indices of alignment patterns
+     * @param capacity pattern capacity of core
      */
-    protected void setPartials(LikelihoodCore lhc, Multiset<int[]> patterns) {
+    protected void setPartials(LikelihoodCore lhc, int[] patternIndices, int capacity) {
         for (Node node : acg.getExternalNodes()) {
             int nStates = alignment.getDataType().getStateCount();
-            double[] partials = new double[patterns.elementSet().size() * nStates];
+            double[] partials = new double[capacity * nStates];
+            Arrays.fill(partials, 1.0); // Padding patterns are ignored.
             int k = 0;
             int iTaxon = alignment.getTaxonIndex(node.getID());
-            for (int[] pattern : patterns.elementSet()) {
-                int code = pattern[iTaxon];
+            for (int patternIdx : patternIndices) {
+                int code = alignment.getPattern(iTaxon, patternIdx);
                 boolean[] stateSet = alignment.getDataType().getStateSet(code);
                 for (int iState = 0; iState < nStates; iState++) {
                     partials[k++] = (stateSet[iState] ? 1.0 : 0.0);
@@ -348,26 +1440,39 @@ public class ACGLikelihood extends GenericTreeLikelihood {
     }
 
     /**
-     * Cached transition probabilities for CF edges.
+     * Cached transition probabilities for CF edges, together with the
+     * heights of the edge ends for which they were computed.
      */
     double [][][] cfTransitionProbs;
-    int cacheHits = 0;
-    int cacheMisses = 0;
+    double[] cfNodeHeights, cfParentHeights;
 
     /**
-     * Pre-compute transition probabilities for CF edges.
+     * Pre-compute transition probabilities for CF edges.  Only edges whose
+     * end heights have changed since they were last computed are visited,
+     * unless the matrices have been invalidated by model changes.
      */
     void preComputeCFTransitionProbs() {
-        if (cfTransitionProbs == null)
+        if (cfTransitionProbs == null) {
             cfTransitionProbs = new double[acg.getNodeCount()-1][siteModel.getCategoryCount()][(nStates+1)*(nStates+1)];
+            cfNodeHeights = new double[acg.getNodeCount()-1];
+            cfParentHeights = new double[acg.getNodeCount()-1];
+            Arrays.fill(cfNodeHeights, Double.NaN);
+        }
 
         for (int ni=0; ni<acg.getNodeCount()-1; ni++) {
             Node node = acg.getNode(ni);
+            double parentHeight = node.getParent().getHeight();
+            double nodeHeight = node.getHeight();
+
+            if (nodeHeight == cfNodeHeights[ni] && parentHeight == cfParentHeights[ni])
+                continue;
+
+            cfNodeHeights[ni] = nodeHeight;
+            cfParentHeights[ni] = parentHeight;
+
             for (int ci=0; ci<siteModel.getCategoryCount(); ci++) {
                 double jointBranchRate = siteModel.getRateForCategory(ci, node)
                         * branchRateModel.getRateForBranch(node);
-                double parentHeight = node.getParent().getHeight();
-                double nodeHeight = node.getHeight();
 
                 substitutionModel.getTransitionProbabilities(
                         node,
@@ -379,19 +1484,170 @@ public class ACGLikelihood extends GenericTreeLikelihood {
         }
     }
 
-    Deque<MarginalNode> stack = new ArrayDeque<>();
-    MarginalNode[] postOrderNodes;
+    /**
+     * Shared clade partials are not used by cores on which scaling is
+     * switched on, as they carry no scaling factors.
+     *
+     * @return true if shared clade partials should be maintained
+     */
+    protected boolean useCladePartials() {
+        return shareCladePartials;
+    }
+
+    /**
+     * Compute partials for every clonal frame clade over all alignment
+     * patterns.  Arithmetic mirrors BeerLikelihoodCore so that shared
+     * partials are identical to those computed region by region.
+     */
+    protected void updateCladePartials() {
+        if (!cladePartialsDirty)
+            return;
+
+        // Write to the buffer not holding the stored partials.
+        if (!cladePartialsUpdated) {
+            cladePartialsBuf = 1 - cladePartialsBuf;
+            cladePartialsUpdated = true;
+        }
+
+        int nPatterns = alignment.getPatternCount();
+        int nCategories = siteModel.getCategoryCount();
+        int blockSize = nPatterns*nStates;
+
+        // Assemble CF internal nodes in post-order
+        List<Node> postOrder = new ArrayList<>();
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push(acg.getRoot());
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            if (!node.isLeaf()) {
+                postOrder.add(node);
+                stack.push(node.getLeft());
+                stack.push(node.getRight());
+            }
+        }
+        Collections.reverse(postOrder);
+
+        for (Node node : postOrder) {
+            double[] partials = cladePartials[cladePartialsBuf][node.getNr()];
+            if (partials == null) {
+                partials = new double[nCategories*blockSize];
+                cladePartials[cladePartialsBuf][node.getNr()] = partials;
+            }
+            Arrays.fill(partials, 1.0);
+
+            for (Node child : node.getChildren()) {
+                int childNr = child.getNr();
+
+                for (int l=0; l<nCategories; l++) {
+                    double[] matrix = cfTransitionProbs[childNr][l];
+                    int offset = l*blockSize;
+
+                    if (child.isLeaf() && leafStates != null) {
+                        int[] states = leafStates[childNr];
+                        for (int k=0; k<nPatterns; k++) {
+                            int state = states[k];
+                            for (int i=0; i<nStates; i++) {
+                                if (state < nStates)
+                                    partials[offset + k*nStates + i] *= matrix[i*nStates + state];
+                            }
+                        }
+                    } else {
+                        double[] childPartials;
+                        int childOffset;
+                        if (child.isLeaf()) {
+                            childPartials = leafPartials[childNr];
+                            childOffset = 0;
+                        } else {
+                            childPartials = cladePartials[cladePartialsBuf][childNr];
+                            childOffset = offset;
+                        }
+
+                        for (int k=0; k<nPatterns; k++) {
+                            int v = childOffset + k*nStates;
+                            for (int i=0; i<nStates; i++) {
+                                double sum = 0.0;
+                                for (int j=0; j<nStates; j++)
+                                    sum += matrix[i*nStates + j]*childPartials[v + j];
+                                partials[offset + k*nStates + i] *= sum;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        cladePartialsDirty = false;
+    }
+
+    /**
+     * Copy shared partials of a clonal frame clade into the given
+     * likelihood core, restricted to the patterns of a region.
+     *
+     * @param lhc region likelihood core
+     * @param nodeIndex index of core node to receive partials
+     * @param cfNodeNr number of CF node at root of clade
+     * @param patternIndices alignment pattern index of each region pattern
+     */
+    protected void setCladePartials(LikelihoodCore lhc, int nodeIndex,
+                                    int cfNodeNr, int[] patternIndices) {
+        int nCategories = siteModel.getCategoryCount();
+        int srcBlockSize = alignment.getPatternCount()*nStates;
+        int destBlockSize = LikelihoodCorePool.getCapacity(patternIndices.length)*nStates;
+
+        double[] src = cladePartials[cladePartialsBuf][cfNodeNr];
+        double[] dest = new double[nCategories*destBlockSize];
+        Arrays.fill(dest, 1.0); // Padding patterns are ignored.
+        for (int l=0; l<nCategories; l++) {
+            for (int k=0; k<patternIndices.length; k++) {
+                System.arraycopy(src, l*srcBlockSize + patternIndices[k]*nStates,
+                        dest, l*destBlockSize + k*nStates, nStates);
+            }
+        }
+
+        lhc.setNodePartials(nodeIndex, dest);
+    }
+
+    /**
+     * Identify marginal nodes heading subtrees identical to the
+     * corresponding clonal frame clade.  Must follow computePostOrder().
+     *
+     * @param scratch traversal scratch memory
+     */
+    void markPureClades(TraversalScratch scratch) {
+        for (MarginalNode node : scratch.postOrderNodes) {
+            boolean pure;
+            if (node.isLeaf())
+                pure = true;
+            else if (node.cfNodeNr < 0)
+                pure = false;
+            else {
+                Node cfNode = acg.getNode(node.cfNodeNr);
+                MarginalNode left = (MarginalNode)node.getLeft();
+                MarginalNode right = (MarginalNode)node.getRight();
+                int cfLeftNr = cfNode.getLeft().getNr();
+                int cfRightNr = cfNode.getRight().getNr();
+
+                pure = scratch.pureClade[left.getNr()]
+                        && scratch.pureClade[right.getNr()]
+                        && ((left.cfNodeNr == cfLeftNr && right.cfNodeNr == cfRightNr)
+                        || (left.cfNodeNr == cfRightNr && right.cfNodeNr == cfLeftNr));
+            }
+
+            scratch.pureClade[node.getNr()] = pure;
+        }
+    }
 
     /**
      * Assemble list of marginal tree nodes for post-order traversal.
      *
      * @param root root of marginal tree
+     * @param scratch traversal scratch memory
      */
     @SuppressWarnings("deprecation")
-    void computePostOrder(MarginalNode root) {
+    void computePostOrder(MarginalNode root, TraversalScratch scratch) {
 
-        if (postOrderNodes == null)
-            postOrderNodes = new MarginalNode[acg.getNodeCount()];
+        Deque<MarginalNode> stack = scratch.stack;
+        MarginalNode[] postOrderNodes = scratch.postOrderNodes;
 
         stack.clear();
         int i = 0;
@@ -413,74 +1669,262 @@ public class ACGLikelihood extends GenericTreeLikelihood {
      *
      * @param root Tree node
      * @param region region
+     * @param scratch traversal scratch memory
+     */
+    void traverseNoRecurse(MarginalNode root, Region region, TraversalScratch scratch) {
+        traverseNoRecurse(root, likelihoodCores.get(region),
+                patterns.get(region).patternIndices, constantPatterns.get(region),
+                rootPartials.get(region), patternLogLikelihoods.get(region),
+                scratch);
+    }
+
+    /**
+     * Traverse a marginal tree using the given likelihood core, which
+     * holds leaf data for the given patterns.
+     *
+     * @param root Tree node
+     * @param lhc likelihood core
+     * @param patternIndices alignment pattern indices held by core
+     * @param constantPatternList constant pattern list for patterns
+     * @param rootPartials array to receive root partials
+     * @param patternLogLikelihoods array to receive pattern log likelihoods
+     * @param scratch traversal scratch memory
      */
-    void traverseNoRecurse(MarginalNode root, Region region) {
+    void traverseNoRecurse(MarginalNode root, LikelihoodCore lhc,
+                           int[] patternIndices, List<Integer> constantPatternList,
+                           double[] rootPartials, double[] patternLogLikelihoods,
+                           TraversalScratch scratch) {
+
+        computePostOrder(root, scratch);
+
+        // Shared clade partials are stored in the upper half of the
+        // core's node indices so that they are never double-buffered.
+        boolean useCladePartials = useCladePartials() && !scaledCores.contains(lhc);
+        scratch.useCladePartials = useCladePartials;
+        if (useCladePartials)
+            markPureClades(scratch);
+        int sharedOffset = acg.getNodeCount();
+
+        NodePartialsRecord record = reusePartials ? partialsRecords.get(lhc) : null;
+
+        for (MarginalNode node : scratch.postOrderNodes) {
+
+            int nodeIndex = node.getNr();
+            boolean sharedClade = false;
+            if (useCladePartials && !node.isLeaf() && scratch.pureClade[node.getNr()]) {
+                // Nodes strictly within a pure clade need no work.
+                if (!node.isRoot() && scratch.pureClade[node.getParent().getNr()])
+                    continue;
+
+                sharedClade = true;
+                nodeIndex += sharedOffset;
+            }
 
-        computePostOrder(root);
+            if (node.isLeaf()) {
+                if (record != null)
+                    record.updateLeaf(nodeIndex, node.getHeight());
 
-        LikelihoodCore lhc = likelihoodCores.get(region);
+                continue;
+            }
+
+            if (sharedClade) {
+                setCladePartials(lhc, nodeIndex, node.cfNodeNr, patternIndices);
+            } else {
+                // LikelihoodCore only supports binary trees.
+                MarginalNode left = (MarginalNode)node.getLeft();
+                MarginalNode right = (MarginalNode)node.getRight();
+                int leftIndex = getCoreNodeIndex(left, scratch);
+                int rightIndex = getCoreNodeIndex(right, scratch);
+
+                if (record == null || record.requiresUpdate(nodeIndex,
+                        node.getHeight(), leftIndex, rightIndex)) {
+                    setEdgeMatrices(lhc, left, leftIndex, scratch);
+                    setEdgeMatrices(lhc, right, rightIndex, scratch);
+
+                    lhc.setNodePartialsForUpdate(nodeIndex);
+                    lhc.setNodeStatesForUpdate(nodeIndex);
+                    lhc.calculatePartials(leftIndex, rightIndex, nodeIndex);
+                    scratch.partialUpdates += 1;
+                } else
+                    scratch.partialsReused += 1;
+            }
 
-        for (MarginalNode node : postOrderNodes) {
+            if (node.isRoot()) {
+                double[] frequencies = substitutionModel.getFrequencies();
+                double[] proportions = siteModel.getCategoryProportions(node);
+                lhc.integratePartials(nodeIndex, proportions, rootPartials);
 
-            if (!node.isRoot()) {
-                lhc.setNodeMatrixForUpdate(node.getNr());
+                for (int idx : constantPatternList)
+                    rootPartials[idx] += siteModel.getProportionInvariant();
 
-                boolean cfEdge = node.cfNodeNr>=0
-                        && !acg.getNode(node.cfNodeNr).isRoot()
-                        && acg.getNode(node.cfNodeNr).getParent().getNr()
-                           == ((MarginalNode)node.getParent()).cfNodeNr;
+                lhc.calculateLogLikelihoods(rootPartials,
+                        frequencies, patternLogLikelihoods);
+            }
+        }
+    }
 
-                if (!cfEdge) {
-                    cacheMisses += 1;
+    /**
+     * Set transition probability matrices for the edge above the given
+     * marginal node.  Edges which coincide with clonal frame edges use
+     * the pre-computed clonal frame matrices.
+     *
+     * @param lhc likelihood core
+     * @param node marginal node at bottom of edge
+     * @param nodeIndex core node index of marginal node
+     * @param scratch traversal scratch memory
+     */
+    void setEdgeMatrices(LikelihoodCore lhc, MarginalNode node, int nodeIndex,
+                         TraversalScratch scratch) {
+        lhc.setNodeMatrixForUpdate(nodeIndex);
 
-                    for (int i = 0; i < siteModel.getCategoryCount(); i++) {
-                        double jointBranchRate = siteModel.getRateForCategory(i, node)
-                                * branchRateModel.getRateForBranch(node);
-                        double parentHeight = node.getParent().getHeight();
-                        double nodeHeight = node.getHeight();
+        boolean cfEdge = isCFEdge(node);
 
-                        substitutionModel.getTransitionProbabilities(
-                                node,
-                                parentHeight,
-                                nodeHeight,
-                                jointBranchRate,
-                                probabilities);
-                        lhc.setNodeMatrix(node.getNr(), i, probabilities);
-                    }
-                } else {
-                    cacheHits += 1;
+        if (!cfEdge && matrixCache != null) {
+            scratch.cacheMisses += 1;
 
-                    for (int i=0; i<siteModel.getCategoryCount(); i++) {
-                        lhc.setNodeMatrix(node.getNr(), i, cfTransitionProbs[node.cfNodeNr][i]);
-                    }
-                }
+            double[][] matrices = getEdgeMatrices(node);
+            for (int i=0; i<siteModel.getCategoryCount(); i++)
+                lhc.setNodeMatrix(nodeIndex, i, matrices[i]);
+
+        } else if (!cfEdge) {
+            scratch.cacheMisses += 1;
+
+            double[] probabilities = scratch.probabilities;
+            for (int i = 0; i < siteModel.getCategoryCount(); i++) {
+                double jointBranchRate = siteModel.getRateForCategory(i, node)
+                        * branchRateModel.getRateForBranch(node);
+                double parentHeight = node.getParent().getHeight();
+                double nodeHeight = node.getHeight();
+
+                substitutionModel.getTransitionProbabilities(
+                        node,
+                        parentHeight,
+                        nodeHeight,
+                        jointBranchRate,
+                        probabilities);
+                lhc.setNodeMatrix(nodeIndex, i, probabilities);
             }
+        } else {
+            scratch.cacheHits += 1;
 
-            if (!node.isLeaf()) {
+            for (int i=0; i<siteModel.getCategoryCount(); i++) {
+                lhc.setNodeMatrix(nodeIndex, i, cfTransitionProbs[node.cfNodeNr][i]);
+            }
+        }
+    }
 
-                // LikelihoodCore only supports binary trees.
-                List<Node> children = node.getChildren();
-                lhc.setNodePartialsForUpdate(node.getNr());
-                lhc.setNodeStatesForUpdate(node.getNr());
-                lhc.calculatePartials(children.get(0).getNr(),
-                        children.get(1).getNr(), node.getNr());
-
-                if (node.isRoot()) {
-                    double[] frequencies = substitutionModel.getFrequencies();
-                    double[] proportions = siteModel.getCategoryProportions(node);
-                    lhc.integratePartials(node.getNr(), proportions,
-                            rootPartials.get(region));
-
-                    for (int idx : constantPatterns.get(region)) {
-                        rootPartials.get(region)[idx]
-                                += siteModel.getProportionInvariant();
-                    }
+    /**
+     * @param node marginal node
+     * @return true if the edge above the marginal node coincides with a
+     * clonal frame edge
+     */
+    boolean isCFEdge(MarginalNode node) {
+        return node.cfNodeNr>=0
+                && !acg.getNode(node.cfNodeNr).isRoot()
+                && acg.getNode(node.cfNodeNr).getParent().getNr()
+                   == ((MarginalNode)node.getParent()).cfNodeNr;
+    }
 
-                    lhc.calculateLogLikelihoods(rootPartials.get(region),
-                            frequencies, patternLogLikelihoods.get(region));
-                }
+    /**
+     * Obtain transition probabilities of a single rate category for the
+     * edge above the given marginal node, in the same way as
+     * setEdgeMatrices().
+     *
+     * @param node marginal node at bottom of edge
+     * @param category rate category
+     * @param scratch traversal scratch memory
+     * @return transition probability matrix, valid until the next call
+     */
+    double[] getEdgeMatrix(MarginalNode node, int category, TraversalScratch scratch) {
+        if (isCFEdge(node))
+            return cfTransitionProbs[node.cfNodeNr][category];
+
+        if (matrixCache != null)
+            return getEdgeMatrices(node)[category];
+
+        double jointBranchRate = siteModel.getRateForCategory(category, node)
+                * branchRateModel.getRateForBranch(node);
+
+        substitutionModel.getTransitionProbabilities(
+                node,
+                node.getParent().getHeight(),
+                node.getHeight(),
+                jointBranchRate,
+                scratch.probabilities);
+
+        return scratch.probabilities;
+    }
+
+    /**
+     * Obtain transition probabilities of each rate category for the edge
+     * above the given marginal node from the matrix cache, computing
+     * and caching them if the edge length has not been seen before.
+     *
+     * @param node marginal node at bottom of edge
+     * @return array of transition probability matrices
+     */
+    double[][] getEdgeMatrices(MarginalNode node) {
+        double parentHeight = node.getParent().getHeight();
+        double nodeHeight = node.getHeight();
+        Long key = Double.doubleToLongBits(parentHeight - nodeHeight);
+
+        double[][] matrices = matrixCache.get(key);
+        if (matrices == null) {
+            // Threads racing to compute the same matrices obtain
+            // identical results, so either may be kept.
+            matrices = new double[siteModel.getCategoryCount()][(nStates+1)*(nStates+1)];
+            for (int i=0; i<siteModel.getCategoryCount(); i++) {
+                double jointBranchRate = siteModel.getRateForCategory(i, node)
+                        * branchRateModel.getRateForBranch(node);
+
+                substitutionModel.getTransitionProbabilities(
+                        node,
+                        parentHeight,
+                        nodeHeight,
+                        jointBranchRate,
+                        matrices[i]);
             }
+
+            matrixCache.put(key, matrices);
         }
+
+        return matrices;
+    }
+
+    /**
+     * Forget all cached transition probabilities.
+     */
+    protected void invalidateTransitionMatrices() {
+        if (cfNodeHeights != null)
+            Arrays.fill(cfNodeHeights, Double.NaN);
+
+        if (matrixCache != null)
+            matrixCache.clear();
+    }
+
+    /**
+     * Obtain the likelihood core node index holding the partials of
+     * the given marginal node during the current traversal.
+     *
+     * @param node marginal node
+     * @param scratch traversal scratch memory
+     * @return core node index
+     */
+    int getCoreNodeIndex(MarginalNode node, TraversalScratch scratch) {
+        if (scratch.useCladePartials && !node.isLeaf() && scratch.pureClade[node.getNr()])
+            return node.getNr() + acg.getNodeCount();
+        else
+            return node.getNr();
+    }
+
+    @Override
+    public void setThresholdProvider(ThresholdProvider provider) {
+        thresholdProvider = provider;
+    }
+
+    @Override
+    public boolean evaluationAborted() {
+        return evaluationAborted;
     }
 
     @Override
@@ -500,12 +1944,30 @@ public class ACGLikelihood extends GenericTreeLikelihood {
 
     @Override
     protected boolean requiresRecalculation() {
+        if (siteModel.isDirtyCalculation()
+                || branchRateModel.isDirtyCalculation()) {
+            invalidatePartialsRecords();
+            invalidateTransitionMatrices();
+            matricesInvalidated = true;
+        }
+
         if (acg.clonalFrameIsDirty()
                 || siteModel.isDirtyCalculation()
-                || branchRateModel.isDirtyCalculation())
+                || branchRateModel.isDirtyCalculation()) {
             regionLogLikelihoods.clear();
+            cladePartialsDirty = true;
 
-        return true;
+            if (regionMemo != null) {
+                regionMemo.clear();
+                regionMemoCleared = true;
+            }
+
+            return true;
+        }
+
+        // Changes confined to conversions at other loci leave both the
+        // region list and the region likelihoods for this locus intact.
+        return acg.locusIsDirty(locus);
     }
 
     @Override
@@ -522,18 +1984,30 @@ public class ACGLikelihood extends GenericTreeLikelihood {
         storedRootPartials.clear();
         storedRootPartials.putAll(rootPartials);
 
+        List<LikelihoodCore> previouslyStoredCores = new ArrayList<>(storedLikelihoodCores.values());
         storedLikelihoodCores.clear();
         storedLikelihoodCores.putAll(likelihoodCores);
+        releaseUnreferencedCores(previouslyStoredCores);
 
         storedRegionLogLikelihoods.clear();
         storedRegionLogLikelihoods.putAll(regionLogLikelihoods);
 
+        storedCladePartialsBuf = cladePartialsBuf;
+        storedCladePartialsDirty = cladePartialsDirty;
+        cladePartialsUpdated = false;
+
+        for (NodePartialsRecord record : partialsRecords.values())
+            record.clearModified();
+
+        regionMemoCleared = false;
+        matricesInvalidated = false;
+
         super.store();
     }
 
     @Override
     public void restore() {
-        Map<Region, Multiset<int[]>> tmpPatterns = patterns;
+        Map<Region, SitePatternIndex.RegionPatterns> tmpPatterns = patterns;
         patterns = storedPatterns;
         storedPatterns = tmpPatterns;
 
@@ -549,6 +2023,11 @@ public class ACGLikelihood extends GenericTreeLikelihood {
         likelihoodCores = storedLikelihoodCores;
         storedLikelihoodCores = tmpLikelihoodCores;
 
+        // Cores belonging only to the rejected state can be recycled.
+        List<LikelihoodCore> rejectedCores = new ArrayList<>(storedLikelihoodCores.values());
+        storedLikelihoodCores.clear();
+        releaseUnreferencedCores(rejectedCores);
+
         Map<Region, List<Integer>> tmpConstantPatterns = constantPatterns;
         constantPatterns = storedConstantPatterns;
         storedConstantPatterns = tmpConstantPatterns;
@@ -557,6 +2036,33 @@ public class ACGLikelihood extends GenericTreeLikelihood {
         regionLogLikelihoods = storedRegionLogLikelihoods;
         storedRegionLogLikelihoods = tmpRegionLogLikelihoods;
 
+        // Matrices computed under rejected parameters are discarded.
+        if (matricesInvalidated) {
+            invalidateTransitionMatrices();
+            matricesInvalidated = false;
+        }
+
+        // Memo entries computed under rejected parameters are discarded,
+        // leaving only those of the restored state.
+        if (regionMemo != null && regionMemoCleared) {
+            regionMemo.clear();
+            regionMemo.putAll(regionLogLikelihoods);
+            regionMemoCleared = false;
+        }
+
+        cladePartialsBuf = storedCladePartialsBuf;
+        cladePartialsDirty = storedCladePartialsDirty;
+        cladePartialsUpdated = false;
+
+        // Cores overwritten while evaluating the rejected state no
+        // longer hold the partials their records describe.
+        for (NodePartialsRecord record : partialsRecords.values()) {
+            if (record.isModified()) {
+                record.invalidate();
+                record.clearModified();
+            }
+        }
+
         super.restore();
     }
 }
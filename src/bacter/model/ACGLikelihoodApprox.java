@@ -126,6 +126,11 @@ public class ACGLikelihoodApprox extends Distribution {
 
         ACGEventList acgEventList = new ACGEventList(acg, locus);
 
+        // Split results are only retained when a conversion carries
+        // ancestral material, otherwise these objects are reused.
+        SiteAncestry inside = new SiteAncestry();
+        SiteAncestry outside = new SiteAncestry();
+
         for (ACGEventList.Event event : acgEventList.getACGEvents()) {
 
             switch (event.type) {
@@ -153,8 +158,6 @@ public class ACGLikelihoodApprox extends Distribution {
                     break;
 
                 case CONV_DEPART:
-                    SiteAncestry inside = new SiteAncestry();
-                    SiteAncestry outside = new SiteAncestry();
                     activeCFNodes.get(event.node).split(
                             event.conversion.getStartSite(),
                             event.conversion.getEndSite()+1,
@@ -163,6 +166,12 @@ public class ACGLikelihoodApprox extends Distribution {
                     if (inside.getIntervalCount()>0) {
                         activeCFNodes.put(event.node, outside);
                         activeConversions.put(event.conversion, inside);
+
+                        inside = new SiteAncestry();
+                        outside = new SiteAncestry();
+                    } else {
+                        inside.clear();
+                        outside.clear();
                     }
 
                     break;
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package bacter.model;
+
+/**
+ * Interface implemented by distributions whose log density is a sum of
+ * non-positive terms, and which can therefore abandon an evaluation as
+ * soon as the partial sum falls below a threshold known in advance.
+ *
+ * @author agent <agent@local>
+ */
+public interface EarlyRejectable {
+
+    /**
+     * Source of rejection thresholds, usually the MCMC driver.
+     */
+    interface ThresholdProvider {
+
+        /**
+         * Obtain the value below which the log density of the given
+         * distribution is certain to cause the current proposal to be
+         * rejected.  Queried at the start of each evaluation.
+         *
+         * @param distribution distribution about to be evaluated
+         * @return threshold, or Double.NEGATIVE_INFINITY if none is known
+         */
+        double getRejectionThreshold(EarlyRejectable distribution);
+    }
+
+    /**
+     * Set source of rejection thresholds used by subsequent evaluations.
+     * When the log density is certain to fall below the threshold, the
+     * evaluation may be abandoned and Double.NEGATIVE_INFINITY returned.
+     *
+     * @param provider threshold provider, or null to disable early rejection
+     */
+    void setThresholdProvider(ThresholdProvider provider);
+
+    /**
+     * @return true if the most recent evaluation was abandoned early
+     */
+    boolean evaluationAborted();
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package bacter.model;
+
+import beast.base.evolution.likelihood.LikelihoodCore;
+
+import java.util.*;
+
+/**
+ * Pool of likelihood cores available for reuse by new regions.
+ *
+ * Cores are allocated with a pattern capacity obtained by rounding the
+ * requested pattern count up to one of a sparse set of sizes, so that
+ * cores released by one region can be handed to another region with a
+ * similar number of patterns.  Patterns beyond those actually present
+ * in a region are padding and must be ignored by the caller.
+ *
+ * @author agent <agent@local>
+ */
+public class LikelihoodCorePool {
+
+    /**
+     * Allocates and initializes new likelihood cores.
+     */
+    public interface CoreFactory {
+        /**
+         * @param patternCapacity number of patterns core must hold
+         * @return new initialized core
+         */
+        LikelihoodCore createCore(int patternCapacity);
+    }
+
+    private final CoreFactory factory;
+    private final long bytesPerPattern;
+
+    private final Map<Integer, Deque<LikelihoodCore>> freeCores = new HashMap<>();
+    private final Map<LikelihoodCore, Integer> capacities = new IdentityHashMap<>();
+    private long pooledBytes = 0;
+
+    private long hitCount = 0, missCount = 0, evictionCount = 0;
+
+    /**
+     * @param factory factory used to create new cores
+     * @param bytesPerPattern approximate memory used by a core per pattern
+     */
+    public LikelihoodCorePool(CoreFactory factory, long bytesPerPattern) {
+        this.factory = factory;
+        this.bytesPerPattern = bytesPerPattern;
+    }
+
+    /**
+     * Round pattern count up to a core capacity.  Capacities carry at
+     * most four significant bits, so padding never exceeds 1/8 of the
+     * pattern count.
+     *
+     * @param patternCount number of patterns
+     * @return capacity of core used to hold this many patterns
+     */
+    public static int getCapacity(int patternCount) {
+        if (patternCount <= 16)
+            return Math.max(patternCount, 1);
+
+        int step = Integer.highestOneBit(patternCount) >> 3;
+        return ((patternCount + step - 1)/step)*step;
+    }
+
+    /**
+     * Obtain a core able to hold the given number of patterns, reusing
+     * a released core if one of the appropriate capacity is available.
+     *
+     * @param patternCount number of patterns
+     * @return likelihood core
+     */
+    public LikelihoodCore acquire(int patternCount) {
+        int capacity = getCapacity(patternCount);
+
+        Deque<LikelihoodCore> cores = freeCores.get(capacity);
+        if (cores != null && !cores.isEmpty()) {
+            hitCount += 1;
+            pooledBytes -= capacity*bytesPerPattern;
+            return cores.pop();
+        }
+
+        missCount += 1;
+        LikelihoodCore core = factory.createCore(capacity);
+        capacities.put(core, capacity);
+        return core;
+    }
+
+    /**
+     * Return a core which is no longer referenced to the pool.
+     *
+     * @param core core to release
+     */
+    public void release(LikelihoodCore core) {
+        int capacity = capacities.get(core);
+        freeCores.computeIfAbsent(capacity, k -> new ArrayDeque<>()).push(core);
+        pooledBytes += capacity*bytesPerPattern;
+    }
+
+    /**
+     * Discard pooled cores until the memory they occupy does not exceed
+     * the given amount.
+     *
+     * @param maxPooledBytes maximum memory to retain in pool
+     */
+    public void trim(long maxPooledBytes) {
+        Iterator<Map.Entry<Integer, Deque<LikelihoodCore>>> it = freeCores.entrySet().iterator();
+        while (pooledBytes > maxPooledBytes && it.hasNext()) {
+            Map.Entry<Integer, Deque<LikelihoodCore>> entry = it.next();
+            Deque<LikelihoodCore> cores = entry.getValue();
+            while (pooledBytes > maxPooledBytes && !cores.isEmpty()) {
+                capacities.remove(cores.pop());
+                pooledBytes -= entry.getKey()*bytesPerPattern;
+            }
+
+            if (cores.isEmpty())
+                it.remove();
+        }
+    }
+
+    /**
+     * @param core core allocated by this pool
+     * @return approximate memory used by core in bytes
+     */
+    public long getCoreBytes(LikelihoodCore core) {
+        return capacities.get(core)*bytesPerPattern;
+    }
+
+    /**
+     * @return number of cores allocated by this pool and not yet
+     * discarded, whether pooled or in use
+     */
+    public int getCoreCount() {
+        return capacities.size();
+    }
+
+    /**
+     * @return approximate memory occupied by pooled cores in bytes
+     */
+    public long getPooledBytes() {
+        return pooledBytes;
+    }
+
+    /**
+     * Record eviction of a core from a region cache.
+     */
+    public void recordEviction() {
+        evictionCount += 1;
+    }
+
+    /**
+     * @return number of requests satisfied by a released core
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return number of requests requiring a new core
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return number of cores evicted from region caches
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+}
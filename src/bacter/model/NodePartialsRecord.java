@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package bacter.model;
+
+import java.util.Arrays;
+
+/**
+ * Records, for each node index of a likelihood core, the subtree whose
+ * partials currently occupy that index.  A subtree is described by the
+ * height of its root and the indices and versions of its children,
+ * where the version of an index is incremented whenever its contents
+ * are rewritten.  This allows a traversal of a new marginal tree to
+ * skip every node whose subtree is unchanged, recomputing partials only
+ * on the paths from modified nodes to the root.
+ *
+ * @author agent <agent@local>
+ */
+public class NodePartialsRecord {
+
+    private final boolean[] valid;
+    private final double[] heights;
+    private final int[] leftIndices, rightIndices;
+    private final long[] versions, leftVersions, rightVersions;
+
+    /**
+     * True if the core has been modified since the last call to
+     * clearModified().
+     */
+    private boolean modified;
+
+    /**
+     * @param nodeCount number of node indices in core
+     */
+    public NodePartialsRecord(int nodeCount) {
+        valid = new boolean[nodeCount];
+        heights = new double[nodeCount];
+        leftIndices = new int[nodeCount];
+        rightIndices = new int[nodeCount];
+        versions = new long[nodeCount];
+        leftVersions = new long[nodeCount];
+        rightVersions = new long[nodeCount];
+    }
+
+    /**
+     * Forget the contents of every node index, forcing each to be
+     * recomputed when next encountered.
+     */
+    public void invalidate() {
+        Arrays.fill(valid, false);
+    }
+
+    /**
+     * Record a leaf at the given index.  Leaf partials never change, but
+     * the lengths of edges above them depend on their heights.
+     *
+     * @param nodeIndex index of leaf
+     * @param height height of leaf
+     */
+    public void updateLeaf(int nodeIndex, double height) {
+        if (!valid[nodeIndex] || heights[nodeIndex] != height) {
+            valid[nodeIndex] = true;
+            heights[nodeIndex] = height;
+            versions[nodeIndex] += 1;
+        }
+    }
+
+    /**
+     * Determine whether the partials of an internal node must be
+     * recomputed.  If so, the record is updated on the assumption that
+     * the caller performs the computation.  The children must already
+     * have been visited.
+     *
+     * @param nodeIndex index of internal node
+     * @param height height of node
+     * @param leftIndex index of left child
+     * @param rightIndex index of right child
+     * @return true if partials must be recomputed
+     */
+    public boolean requiresUpdate(int nodeIndex, double height,
+                                  int leftIndex, int rightIndex) {
+        if (valid[nodeIndex]
+                && heights[nodeIndex] == height
+                && leftIndices[nodeIndex] == leftIndex
+                && rightIndices[nodeIndex] == rightIndex
+                && leftVersions[nodeIndex] == versions[leftIndex]
+                && rightVersions[nodeIndex] == versions[rightIndex])
+            return false;
+
+        valid[nodeIndex] = true;
+        heights[nodeIndex] = height;
+        leftIndices[nodeIndex] = leftIndex;
+        rightIndices[nodeIndex] = rightIndex;
+        leftVersions[nodeIndex] = versions[leftIndex];
+        rightVersions[nodeIndex] = versions[rightIndex];
+        versions[nodeIndex] += 1;
+        modified = true;
+
+        return true;
+    }
+
+    /**
+     * @return true if any partials have been recomputed since the last
+     * call to clearModified()
+     */
+    public boolean isModified() {
+        return modified;
+    }
+
+    /**
+     * Mark the current core contents as the reference state.
+     */
+    public void clearModified() {
+        modified = false;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package bacter.model;
+
+import beast.base.evolution.likelihood.BeerLikelihoodCore4;
+
+/**
+ * Likelihood core specialized for nucleotide data.  Buffer management,
+ * scaling and store/restore are inherited from BeerLikelihoodCore4,
+ * while the pruning kernels are replaced by versions which hold the
+ * transition matrix of each category in local variables for the
+ * duration of the pattern loop.
+ *
+ * Leaf states index a transposed copy of the relevant matrix padded with
+ * a column of ones, so that unknown and ambiguous leaf states are handled
+ * without branching inside the pattern loop.
+ *
+ * @author agent <agent@local>
+ */
+public class NucleotideLikelihoodCore extends BeerLikelihoodCore4 {
+
+    /**
+     * Index of the padding column used for leaf states other than
+     * the four nucleotides.
+     */
+    private static final int UNKNOWN = 4;
+
+    private final double[] leafTable1 = new double[20];
+    private final double[] leafTable2 = new double[20];
+
+    /**
+     * Fill table with transposed transition matrix, such that element
+     * 4*j + i holds the probability of state j at the end of an edge
+     * given state i at its start.  Elements 16-19 are set to 1.
+     *
+     * @param matrices transition matrices of all categories
+     * @param w offset of matrix for chosen category
+     * @param table table to fill
+     */
+    private static void fillLeafTable(double[] matrices, int w, double[] table) {
+        for (int i=0; i<4; i++) {
+            table[i]    = matrices[w + 4*i];
+            table[4+i]  = matrices[w + 4*i + 1];
+            table[8+i]  = matrices[w + 4*i + 2];
+            table[12+i] = matrices[w + 4*i + 3];
+            table[16+i] = 1.0;
+        }
+    }
+
+    @Override
+    protected void calculateStatesStatesPruning(int[] stateIndex1, double[] matrices1,
+                                                int[] stateIndex2, double[] matrices2,
+                                                double[] partials3) {
+        int v = 0;
+
+        for (int l=0; l<nrOfMatrices; l++) {
+            fillLeafTable(matrices1, l*matrixSize, leafTable1);
+            fillLeafTable(matrices2, l*matrixSize, leafTable2);
+
+            for (int k=0; k<nrOfPatterns; k++) {
+                int o1 = 4*Math.min(stateIndex1[k], UNKNOWN);
+                int o2 = 4*Math.min(stateIndex2[k], UNKNOWN);
+
+                partials3[v]   = leafTable1[o1]   * leafTable2[o2];
+                partials3[v+1] = leafTable1[o1+1] * leafTable2[o2+1];
+                partials3[v+2] = leafTable1[o1+2] * leafTable2[o2+2];
+                partials3[v+3] = leafTable1[o1+3] * leafTable2[o2+3];
+                v += 4;
+            }
+        }
+    }
+
+    @Override
+    protected void calculateStatesPartialsPruning(int[] stateIndex1, double[] matrices1,
+                                                  double[] partials2, double[] matrices2,
+                                                  double[] partials3) {
+        int v = 0;
+
+        for (int l=0; l<nrOfMatrices; l++) {
+            fillLeafTable(matrices1, l*matrixSize, leafTable1);
+
+            int w = l*matrixSize;
+            double m00 = matrices2[w],    m01 = matrices2[w+1],  m02 = matrices2[w+2],  m03 = matrices2[w+3];
+            double m10 = matrices2[w+4],  m11 = matrices2[w+5],  m12 = matrices2[w+6],  m13 = matrices2[w+7];
+            double m20 = matrices2[w+8],  m21 = matrices2[w+9],  m22 = matrices2[w+10], m23 = matrices2[w+11];
+            double m30 = matrices2[w+12], m31 = matrices2[w+13], m32 = matrices2[w+14], m33 = matrices2[w+15];
+
+            for (int k=0; k<nrOfPatterns; k++) {
+                int o1 = 4*Math.min(stateIndex1[k], UNKNOWN);
+
+                double p0 = partials2[v], p1 = partials2[v+1],
+                        p2 = partials2[v+2], p3 = partials2[v+3];
+
+                partials3[v]   = leafTable1[o1]   * (m00*p0 + m01*p1 + m02*p2 + m03*p3);
+                partials3[v+1] = leafTable1[o1+1] * (m10*p0 + m11*p1 + m12*p2 + m13*p3);
+                partials3[v+2] = leafTable1[o1+2] * (m20*p0 + m21*p1 + m22*p2 + m23*p3);
+                partials3[v+3] = leafTable1[o1+3] * (m30*p0 + m31*p1 + m32*p2 + m33*p3);
+                v += 4;
+            }
+        }
+    }
+
+    @Override
+    protected void calculatePartialsPartialsPruning(double[] partials1, double[] matrices1,
+                                                    double[] partials2, double[] matrices2,
+                                                    double[] partials3) {
+        int v = 0;
+
+        for (int l=0; l<nrOfMatrices; l++) {
+            int w = l*matrixSize;
+
+            double a00 = matrices1[w],    a01 = matrices1[w+1],  a02 = matrices1[w+2],  a03 = matrices1[w+3];
+            double a10 = matrices1[w+4],  a11 = matrices1[w+5],  a12 = matrices1[w+6],  a13 = matrices1[w+7];
+            double a20 = matrices1[w+8],  a21 = matrices1[w+9],  a22 = matrices1[w+10], a23 = matrices1[w+11];
+            double a30 = matrices1[w+12], a31 = matrices1[w+13], a32 = matrices1[w+14], a33 = matrices1[w+15];
+
+            double b00 = matrices2[w],    b01 = matrices2[w+1],  b02 = matrices2[w+2],  b03 = matrices2[w+3];
+            double b10 = matrices2[w+4],  b11 = matrices2[w+5],  b12 = matrices2[w+6],  b13 = matrices2[w+7];
+            double b20 = matrices2[w+8],  b21 = matrices2[w+9],  b22 = matrices2[w+10], b23 = matrices2[w+11];
+            double b30 = matrices2[w+12], b31 = matrices2[w+13], b32 = matrices2[w+14], b33 = matrices2[w+15];
+
+            for (int k=0; k<nrOfPatterns; k++) {
+                double p0 = partials1[v], p1 = partials1[v+1],
+                        p2 = partials1[v+2], p3 = partials1[v+3];
+                double q0 = partials2[v], q1 = partials2[v+1],
+                        q2 = partials2[v+2], q3 = partials2[v+3];
+
+                partials3[v]   = (a00*p0 + a01*p1 + a02*p2 + a03*p3)
+                        * (b00*q0 + b01*q1 + b02*q2 + b03*q3);
+                partials3[v+1] = (a10*p0 + a11*p1 + a12*p2 + a13*p3)
+                        * (b10*q0 + b11*q1 + b12*q2 + b13*q3);
+                partials3[v+2] = (a20*p0 + a21*p1 + a22*p2 + a23*p3)
+                        * (b20*q0 + b21*q1 + b22*q2 + b23*q3);
+                partials3[v+3] = (a30*p0 + a31*p1 + a32*p2 + a33*p3)
+                        * (b30*q0 + b31*q1 + b32*q2 + b33*q3);
+                v += 4;
+            }
+        }
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package bacter.model;
+
+import beast.base.evolution.alignment.Alignment;
+
+import java.util.Arrays;
+
+/**
+ * Index of the sites at which each alignment pattern occurs, allowing
+ * the distinct patterns of a site range and their weights to be found
+ * without visiting every site in the range.  A sparse variant indexes
+ * only the variable sites, which suits long, mostly invariant
+ * alignments: constant sites are then reported as per-state counts
+ * rather than as patterns.
+ *
+ * Not thread safe: instances hold scratch memory.
+ *
+ * @author agent <agent@local>
+ */
+public class SitePatternIndex {
+
+    /**
+     * Distinct alignment patterns found in a range of sites, in order of
+     * increasing pattern index, together with their multiplicities.  In
+     * sparse mode the patterns of unambiguous constant sites are
+     * omitted, and the number of such sites of each state is given
+     * instead.
+     */
+    public static class RegionPatterns {
+        public final int[] patternIndices;
+        public final int[] weights;
+
+        /**
+         * Number of constant sites of each state omitted from the
+         * patterns, or null if constant sites are included.
+         */
+        public final int[] constantSiteCounts;
+
+        public RegionPatterns(int[] patternIndices, int[] weights,
+                              int[] constantSiteCounts) {
+            this.patternIndices = patternIndices;
+            this.weights = weights;
+            this.constantSiteCounts = constantSiteCounts;
+        }
+
+        /**
+         * @return number of distinct patterns
+         */
+        public int size() {
+            return patternIndices.length;
+        }
+    }
+
+    /**
+     * Number of sites between successive constant-site count checkpoints.
+     */
+    private static final int BLOCK_SIZE = 64;
+
+    private final boolean sparse;
+
+    /**
+     * Pattern of each site (dense mode) or of each variable site (sparse
+     * mode), together with the positions of the variable sites.
+     */
+    private final int[] sitePatterns;
+    private final int[] variableSites;
+    private final int[][] patternSites;
+
+    /**
+     * Sparse mode only: state of each constant site (or -1 for variable
+     * sites) and the number of constant sites of each state preceding
+     * each block of BLOCK_SIZE sites.
+     */
+    private final byte[] constantSiteStates;
+    private final int[][] constantCounts;
+
+    // Scratch memory used when scanning short site ranges
+    private final int[] counts;
+    private final int[] found;
+    private final int[] leftCounts, rightCounts;
+
+    /**
+     * Construct index for given alignment.
+     *
+     * @param alignment alignment to index
+     */
+    public SitePatternIndex(Alignment alignment) {
+        this(alignment, false);
+    }
+
+    /**
+     * Construct index for given alignment.  In sparse mode only the
+     * positions of variable sites are indexed: unambiguous constant
+     * sites are represented by per-state counts accumulated along the
+     * alignment, so that the number of constant sites of each state in
+     * any range is found without visiting its sites.
+     *
+     * @param alignment alignment to index
+     * @param sparse if true, construct sparse index
+     */
+    public SitePatternIndex(Alignment alignment, boolean sparse) {
+        int nSites = alignment.getSiteCount();
+        int nPatterns = alignment.getPatternCount();
+        int nStates = alignment.getMaxStateCount();
+
+        this.sparse = sparse && nStates <= Byte.MAX_VALUE;
+
+        // Identify patterns corresponding to constant sites
+        int[] patternStates = new int[nPatterns];
+        Arrays.fill(patternStates, -1);
+        if (this.sparse) {
+            for (int p=0; p<nPatterns; p++) {
+                int[] pattern = alignment.getPattern(p);
+                boolean isConstant = !alignment.getDataType().isAmbiguousCode(pattern[0]);
+                for (int i=1; i<pattern.length && isConstant; i++)
+                    isConstant = pattern[i] == pattern[0];
+
+                if (isConstant)
+                    patternStates[p] = alignment.getDataType().getStatesForCode(pattern[0])[0];
+            }
+        }
+
+        int[] patternWeights = new int[nPatterns];
+        int nVariableSites = 0;
+        for (int j=0; j<nSites; j++) {
+            int p = alignment.getPatternIndex(j);
+            patternWeights[p] += 1;
+            if (patternStates[p] < 0)
+                nVariableSites += 1;
+        }
+
+        if (this.sparse) {
+            variableSites = new int[nVariableSites];
+            sitePatterns = new int[nVariableSites];
+            constantSiteStates = new byte[nSites];
+            constantCounts = new int[nStates][nSites/BLOCK_SIZE + 1];
+
+            int[] runningCounts = new int[nStates];
+            int k = 0;
+            for (int j=0; j<nSites; j++) {
+                if (j % BLOCK_SIZE == 0) {
+                    for (int s=0; s<nStates; s++)
+                        constantCounts[s][j/BLOCK_SIZE] = runningCounts[s];
+                }
+
+                int p = alignment.getPatternIndex(j);
+                if (patternStates[p] < 0) {
+                    constantSiteStates[j] = -1;
+                    variableSites[k] = j;
+                    sitePatterns[k++] = p;
+                } else {
+                    constantSiteStates[j] = (byte)patternStates[p];
+                    runningCounts[patternStates[p]] += 1;
+                }
+            }
+
+            if (nSites % BLOCK_SIZE == 0) {
+                for (int s=0; s<nStates; s++)
+                    constantCounts[s][nSites/BLOCK_SIZE] = runningCounts[s];
+            }
+
+            leftCounts = new int[nStates];
+            rightCounts = new int[nStates];
+        } else {
+            variableSites = null;
+            sitePatterns = new int[nSites];
+            for (int j=0; j<nSites; j++)
+                sitePatterns[j] = alignment.getPatternIndex(j);
+
+            constantSiteStates = null;
+            constantCounts = null;
+            leftCounts = null;
+            rightCounts = null;
+        }
+
+        patternSites = new int[nPatterns][];
+        for (int p=0; p<nPatterns; p++)
+            patternSites[p] = new int[patternStates[p] < 0 ? patternWeights[p] : 0];
+
+        int[] next = new int[nPatterns];
+        for (int k=0; k<sitePatterns.length; k++) {
+            int p = sitePatterns[k];
+            patternSites[p][next[p]++] = this.sparse ? variableSites[k] : k;
+        }
+
+        counts = new int[nPatterns];
+        found = new int[nPatterns];
+    }
+
+    /**
+     * @return number of distinct patterns in the alignment
+     */
+    public int getPatternCount() {
+        return patternSites.length;
+    }
+
+    /**
+     * @return true if only variable sites are indexed explicitly
+     */
+    public boolean isSparse() {
+        return sparse;
+    }
+
+    /**
+     * @return number of sites indexed explicitly
+     */
+    public int getIndexedSiteCount() {
+        return sitePatterns.length;
+    }
+
+    /**
+     * Find the distinct patterns present in a range of sites.  Ranges
+     * containing fewer indexed sites than there are alignment patterns
+     * are scanned site by site, while longer ranges are handled using
+     * one pair of binary searches per alignment pattern.  In sparse mode
+     * only variable patterns are returned, and the constant sites of
+     * each state are counted using the per-state prefix counts.
+     *
+     * @param leftBoundary first site in range
+     * @param rightBoundary site immediately following range
+     * @return patterns present in range
+     */
+    public RegionPatterns getRegionPatterns(int leftBoundary, int rightBoundary) {
+        int nFound = 0;
+
+        int start, end;
+        if (sparse) {
+            start = lowerBound(variableSites, leftBoundary);
+            end = lowerBound(variableSites, rightBoundary);
+        } else {
+            start = leftBoundary;
+            end = rightBoundary;
+        }
+
+        if (end - start < patternSites.length) {
+            for (int k=start; k<end; k++) {
+                int p = sitePatterns[k];
+                if (counts[p]++ == 0)
+                    found[nFound++] = p;
+            }
+        } else {
+            for (int p=0; p<patternSites.length; p++) {
+                int count = lowerBound(patternSites[p], rightBoundary)
+                        - lowerBound(patternSites[p], leftBoundary);
+                if (count > 0) {
+                    counts[p] = count;
+                    found[nFound++] = p;
+                }
+            }
+        }
+
+        int[] constantSiteCounts = null;
+        if (sparse) {
+            getConstantCounts(leftBoundary, leftCounts);
+            getConstantCounts(rightBoundary, rightCounts);
+            constantSiteCounts = new int[leftCounts.length];
+            for (int s=0; s<constantSiteCounts.length; s++)
+                constantSiteCounts[s] = rightCounts[s] - leftCounts[s];
+        }
+
+        Arrays.sort(found, 0, nFound);
+
+        int[] patternIndices = Arrays.copyOf(found, nFound);
+        int[] weights = new int[nFound];
+        for (int i=0; i<nFound; i++) {
+            weights[i] = counts[patternIndices[i]];
+            counts[patternIndices[i]] = 0;
+        }
+
+        return new RegionPatterns(patternIndices, weights, constantSiteCounts);
+    }
+
+    /**
+     * Count the constant sites of each state preceding the given site.
+     *
+     * @param site site
+     * @param result array to populate with counts
+     */
+    private void getConstantCounts(int site, int[] result) {
+        int block = site/BLOCK_SIZE;
+        for (int s=0; s<result.length; s++)
+            result[s] = constantCounts[s][block];
+
+        for (int j=block*BLOCK_SIZE; j<site; j++) {
+            if (constantSiteStates[j] >= 0)
+                result[constantSiteStates[j]] += 1;
+        }
+    }
+
+    /**
+     * @param sites sorted array of sites
+     * @param site site to locate
+     * @return index of first element of sites not less than site
+     */
+    private static int lowerBound(int[] sites, int site) {
+        int lo = 0, hi = sites.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sites[mid] < site)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+}
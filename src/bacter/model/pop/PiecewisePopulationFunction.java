@@ -44,7 +44,8 @@ import java.util.List;
  * @author Tim Vaughan <tgvaughan@gmail.com>
  */
 @Description("Piecewise constant/linear population function.")
-public class PiecewisePopulationFunction extends PopulationFunction.Abstract implements Loggable {
+public class PiecewisePopulationFunction extends PopulationFunction.Abstract
+        implements SortedTimesPopulationFunction, Loggable {
 
     public Input<RealParameter> popSizesInput = new Input<>("popSizes",
             "Population sizes in intervals", Input.Validate.REQUIRED);
@@ -54,6 +55,8 @@ public class PiecewisePopulationFunction extends PopulationFunction.Abstract imp
 
     RealParameter popSizes, changeTimes;
 
+    private boolean dirty, rebuiltSinceStore;
+
     double[] intensities;
     double[] groupBoundaries;
 
@@ -64,6 +67,7 @@ public class PiecewisePopulationFunction extends PopulationFunction.Abstract imp
 
         groupBoundaries = new double[popSizes.getDimension()];
         intensities = new double[popSizes.getDimension()];
+        dirty = true;
 
         super.initAndValidate();
     }
@@ -80,6 +84,9 @@ public class PiecewisePopulationFunction extends PopulationFunction.Abstract imp
     @Override
     public void prepare() {
 
+        if (!dirty)
+            return;
+
         groupBoundaries[0] = 0.0;
         for (int i=1; i<groupBoundaries.length; i++)
             groupBoundaries[i] = changeTimes.getValue(i-1);
@@ -90,20 +97,29 @@ public class PiecewisePopulationFunction extends PopulationFunction.Abstract imp
             intensities[i] = intensities[i - 1]
                     + (groupBoundaries[i] - groupBoundaries[i-1]) / popSizes.getValue(i - 1);
         }
+
+        dirty = false;
+        rebuiltSinceStore = true;
     }
 
     @Override
     protected boolean requiresRecalculation() {
+        if (popSizes.somethingIsDirty() || changeTimes.somethingIsDirty())
+            dirty = true;
+
         return true;
     }
 
     @Override
     protected void store() {
+        rebuiltSinceStore = false;
         super.store();
     }
 
     @Override
     protected void restore() {
+        if (rebuiltSinceStore)
+            dirty = true;
         super.restore();
     }
 
@@ -166,6 +182,40 @@ public class PiecewisePopulationFunction extends PopulationFunction.Abstract imp
                 + (x-intensities[interval])*popSizes.getValue(interval);
     }
 
+    @Override
+    public void getPopSizes(double[] times, int n, double[] result) {
+        prepare();
+
+        int interval = 0;
+        for (int i=0; i<n; i++) {
+            while (interval < groupBoundaries.length-1 && groupBoundaries[interval+1] <= times[i])
+                interval += 1;
+
+            result[i] = popSizes.getValue(interval);
+        }
+    }
+
+    @Override
+    public void getIntensities(double[] times, int n, double[] result) {
+        prepare();
+
+        int interval = 0;
+        for (int i=0; i<n; i++) {
+            double t = times[i];
+
+            if (t <= 0) {
+                result[i] = -t/popSizes.getValue(0);
+                continue;
+            }
+
+            while (interval < groupBoundaries.length-1 && groupBoundaries[interval+1] <= t)
+                interval += 1;
+
+            result[i] = intensities[interval]
+                    + (t-groupBoundaries[interval])/popSizes.getValue(interval);
+        }
+    }
+
     // Loggable implementation:
 
     @Override
@@ -46,7 +46,8 @@ import java.util.List;
  * @author Tim Vaughan <tgvaughan@gmail.com>
  */
 @Description("Piecewise constant/linear population function.")
-public class SkylinePopulationFunction extends PopulationFunction.Abstract implements Loggable {
+public class SkylinePopulationFunction extends PopulationFunction.Abstract
+        implements SortedTimesPopulationFunction, Loggable {
 
     public Input<ConversionGraph> acgInput = new Input<>("acg",
             "Conversion graph", Input.Validate.REQUIRED);
@@ -77,7 +78,7 @@ public class SkylinePopulationFunction extends PopulationFunction.Abstract imple
     RealParameter popSizes;
     IntegerParameter groupSizes;
 
-    private boolean dirty;
+    private boolean dirty, rebuiltSinceStore;
 
     double[] intensities;
     double[] groupBoundaries;
@@ -179,23 +180,28 @@ public class SkylinePopulationFunction extends PopulationFunction.Abstract imple
         }
 
         dirty = false;
+        rebuiltSinceStore = true;
     }
 
     @Override
     protected boolean requiresRecalculation() {
-        dirty = true;
+        if (popSizes.somethingIsDirty() || groupSizes.somethingIsDirty()
+                || acg.clonalFrameIsDirty())
+            dirty = true;
+
         return true;
     }
 
     @Override
     protected void store() {
-        dirty = true;
+        rebuiltSinceStore = false;
         super.store();
     }
 
     @Override
     protected void restore() {
-        dirty = true;
+        if (rebuiltSinceStore)
+            dirty = true;
         super.restore();
     }
 
@@ -214,6 +220,15 @@ public class SkylinePopulationFunction extends PopulationFunction.Abstract imple
         if (interval<0)
             interval = -(interval + 1) - 1;  // boundary to the left of time.
 
+        return getPopSizeInInterval(t, interval);
+    }
+
+    /**
+     * @param t time within the interior of the grid
+     * @param interval index of grid boundary to the left of t
+     * @return population size at t
+     */
+    private double getPopSizeInInterval(double t, int interval) {
         if (!piecewiseLinearInput.get())
             return popSizes.getValue(interval);
         else {
@@ -244,6 +259,15 @@ public class SkylinePopulationFunction extends PopulationFunction.Abstract imple
         if (interval<0)
             interval = -(interval + 1) - 1; // boundary to the left of time.
 
+        return getIntensityInInterval(t, interval);
+    }
+
+    /**
+     * @param t time within the interior of the grid
+     * @param interval index of grid boundary to the left of t
+     * @return intensity at t
+     */
+    private double getIntensityInInterval(double t, int interval) {
         if (!piecewiseLinearInput.get())
             return intensities[interval] + (t-groupBoundaries[interval])/popSizes.getValue(interval);
         else {
@@ -299,6 +323,54 @@ public class SkylinePopulationFunction extends PopulationFunction.Abstract imple
         }
     }
 
+    @Override
+    public void getPopSizes(double[] times, int n, double[] result) {
+        prepare();
+
+        double tEnd = groupBoundaries[groupBoundaries.length-1];
+
+        int interval = 0;
+        for (int i=0; i<n; i++) {
+            double t = times[i];
+
+            if (t <= 0)
+                result[i] = popSizes.getValue(0);
+            else if (t >= tEnd)
+                result[i] = popSizes.getValue(popSizes.getDimension()-1);
+            else {
+                while (groupBoundaries[interval+1] <= t)
+                    interval += 1;
+
+                result[i] = getPopSizeInInterval(t, interval);
+            }
+        }
+    }
+
+    @Override
+    public void getIntensities(double[] times, int n, double[] result) {
+        prepare();
+
+        int last = groupBoundaries.length-1;
+
+        int interval = 0;
+        for (int i=0; i<n; i++) {
+            double t = times[i];
+
+            if (t <= 0)
+                result[i] = -t/popSizes.getValue(0);
+            else if (t >= groupBoundaries[last])
+                result[i] = intensities[last]
+                        + (t-groupBoundaries[last])
+                        /popSizes.getValue(popSizes.getDimension()-1);
+            else {
+                while (groupBoundaries[interval+1] <= t)
+                    interval += 1;
+
+                result[i] = getIntensityInInterval(t, interval);
+            }
+        }
+    }
+
     // Loggable implementation:
 
     @Override
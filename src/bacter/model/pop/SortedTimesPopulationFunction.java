@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package bacter.model.pop;
+
+/**
+ * Population function able to answer queries for many times at once.
+ * The times must be sorted in increasing order, allowing all queries
+ * to be answered in a single pass over the population change times.
+ *
+ * @author agent <agent@local>
+ */
+public interface SortedTimesPopulationFunction {
+
+    /**
+     * Compute population sizes at each of a sorted array of times.
+     *
+     * @param times times in increasing order
+     * @param n number of times to consider
+     * @param popSizes array to populate with population sizes
+     */
+    void getPopSizes(double[] times, int n, double[] popSizes);
+
+    /**
+     * Compute intensities at each of a sorted array of times.
+     *
+     * @param times times in increasing order
+     * @param n number of times to consider
+     * @param intensities array to populate with intensities
+     */
+    void getIntensities(double[] times, int n, double[] intensities);
+}
@@ -19,12 +19,14 @@ package bacter.operators;
 
 import bacter.Conversion;
 import bacter.ConversionGraph;
-import bacter.Locus;
 import beast.base.core.Input;
 import beast.base.inference.Operator;
 import beast.base.evolution.tree.Node;
 import beast.base.util.Randomizer;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Abstract class of operators which act on the ConversionGraph state.
  * 
@@ -88,15 +90,11 @@ public abstract class ACGOperator extends Operator {
             grandParent.addChild(sister);
         }
 
-        for (Locus locus : acg.getConvertibleLoci()) {
-            for (Conversion conv : acg.getConversions(locus)) {
-                if (conv.getNode1() == parent)
-                    conv.setNode1(sister);
+        for (Conversion conv : new ArrayList<>(acg.getDepartingConversions(parent)))
+            conv.setNode1(sister);
 
-                if (conv.getNode2() == parent)
-                    conv.setNode2(sister);
-            }
-        }
+        for (Conversion conv : new ArrayList<>(acg.getArrivingConversions(parent)))
+            conv.setNode2(sister);
     }
 
     /**
@@ -130,31 +128,29 @@ public abstract class ACGOperator extends Operator {
 
         parent.setHeight(destTime);
 
-        for (Locus locus : acg.getConvertibleLoci()) {
-            for (Conversion conv : acg.getConversions(locus)) {
-                if (conv.getNode1() == destEdgeBase && conv.getHeight1() > destTime)
-                    conv.setNode1(parent);
-
-                if (conv.getNode2() == destEdgeBase && conv.getHeight2() > destTime)
-                    conv.setNode2(parent);
-            }
-        }
+        // Conversion lists are sorted by height, so those to be
+        // transferred lie at the ends of the lists.
+
+        List<Conversion> departing = acg.getDepartingConversions(destEdgeBase);
+        int i = departing.size();
+        while (i>0 && departing.get(i-1).getHeight1() > destTime)
+            i -= 1;
+        for (Conversion conv : new ArrayList<>(departing.subList(i, departing.size())))
+            conv.setNode1(parent);
+
+        List<Conversion> arriving = acg.getArrivingConversions(destEdgeBase);
+        i = arriving.size();
+        while (i>0 && arriving.get(i-1).getHeight2() > destTime)
+            i -= 1;
+        for (Conversion conv : new ArrayList<>(arriving.subList(i, arriving.size())))
+            conv.setNode2(parent);
     }
 
     /**
      * @return conversion selected uniformly at random
      */
     protected Conversion chooseConversion() {
-        int idx = Randomizer.nextInt(acg.getTotalConvCount());
-        for (Locus locus : acg.getConvertibleLoci()) {
-            if (idx<acg.getConvCount(locus))
-                return acg.getConversions(locus).get(idx);
-            else
-                idx -= acg.getConvCount(locus);
-        }
-
-        throw new IllegalStateException("Programmer error: loop fell through" +
-                " in chooseConversion().");
+        return acg.getConversion(Randomizer.nextInt(acg.getTotalConvCount()));
     }
 
     /**
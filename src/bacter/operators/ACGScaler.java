@@ -18,6 +18,7 @@
 package bacter.operators;
 
 import bacter.Conversion;
+import bacter.ConversionGraph;
 import bacter.Locus;
 import beast.base.core.Description;
 import beast.base.core.Input;
@@ -70,6 +71,8 @@ public class ACGScaler extends ACGOperator {
 
         // Choose scaling factor:
         double f = scaleParam + Randomizer.nextDouble()*(1.0/scaleParam - scaleParam);
+
+        acg.setChangeKind(ConversionGraph.ChangeKind.HEIGHTS_ONLY);
         
         // Scale clonal frame:
         if (rootOnly) {
@@ -8,7 +8,10 @@ import beast.base.evolution.tree.Node;
 import beast.base.util.Randomizer;
 
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author Tim Vaughan <tgvaughan@gmail.com>
@@ -48,27 +51,27 @@ public abstract class CFOperator extends ConversionCreationOperator {
             double upperBound = Math.min(node.getParent().getHeight(),
                     srcNodeP.getHeight());
 
-            for (Locus locus : acg.getConvertibleLoci()) {
-                for (Conversion conv : acg.getConversions(locus)) {
-                    if (conv.getHeight1() > lowerBound && conv.getHeight1() < upperBound) {
-                        if (conv.getNode1() == srcNode)
-                            conv.setNode1(node);
-
-                        if (conv.getNode1() == node &&
-                                (!reverseRootMove || conv.getHeight1() < volatileHeight))
-                            logP += Math.log(0.5);
-                    }
-
-                    if (conv.getHeight2() > lowerBound && conv.getHeight2() < upperBound) {
-                        if (conv.getNode2() == srcNode)
-                            conv.setNode2(node);
-
-                        if (conv.getNode2() == node
-                                && (!reverseRootMove || conv.getNode1() != node
-                                || conv.getHeight1() < volatileHeight))
-                            logP += Math.log(0.5);
-                    }
-                }
+            for (Conversion conv : new ArrayList<>(acg.getDepartingConversions(srcNode))) {
+                if (conv.getHeight1() > lowerBound && conv.getHeight1() < upperBound)
+                    conv.setNode1(node);
+            }
+
+            for (Conversion conv : acg.getDepartingConversions(node)) {
+                if (conv.getHeight1() > lowerBound && conv.getHeight1() < upperBound
+                        && (!reverseRootMove || conv.getHeight1() < volatileHeight))
+                    logP += Math.log(0.5);
+            }
+
+            for (Conversion conv : new ArrayList<>(acg.getArrivingConversions(srcNode))) {
+                if (conv.getHeight2() > lowerBound && conv.getHeight2() < upperBound)
+                    conv.setNode2(node);
+            }
+
+            for (Conversion conv : acg.getArrivingConversions(node)) {
+                if (conv.getHeight2() > lowerBound && conv.getHeight2() < upperBound
+                        && (!reverseRootMove || conv.getNode1() != node
+                        || conv.getHeight1() < volatileHeight))
+                    logP += Math.log(0.5);
             }
 
             node = node.getParent();
@@ -84,9 +87,11 @@ public abstract class CFOperator extends ConversionCreationOperator {
                     *(acg.getTotalConvertibleSequenceLength()
                     + acg.getConvertibleLoci().size()*(deltaInput.get().getValue() - 1.0));
 
+            // Only edges above the children of the root extend above
+            // volatileHeight, so only these need to be searched.
             List<Conversion> toRemove = new ArrayList<>();
-            for (Locus locus : acg.getConvertibleLoci()) {
-                for (Conversion conv : acg.getConversions(locus)) {
+            for (Node rootChild : new Node[] {srcNode, srcNodeS}) {
+                for (Conversion conv : acg.getDepartingConversions(rootChild)) {
                     if (conv.getHeight1() > volatileHeight)
                         toRemove.add(conv);
                 }
@@ -136,22 +141,46 @@ public abstract class CFOperator extends ConversionCreationOperator {
         double volatileHeight = acg.getRoot().getHeight();
         boolean forwardRootMove = destTime > volatileHeight;
 
+        Map<Conversion, Integer> convOrder = null;
+
         Node node = srcNode.getParent();
         while (node != null) {
-            for (Locus locus : acg.getConvertibleLoci()) {
-                for (Conversion conv : acg.getConversions(locus)) {
-                    if (conv.getNode1() == node && conv.getHeight1() < destTime) {
-                        if (Randomizer.nextBoolean())
-                            conv.setNode1(srcNode);
-                        logP += Math.log(0.5);
-                    }
-
-                    if (conv.getNode2() == node && conv.getHeight2() < destTime) {
-                        if (Randomizer.nextBoolean())
-                            conv.setNode2(srcNode);
-                        logP += Math.log(0.5);
-                    }
+            List<Conversion> candidates = new ArrayList<>();
+            for (Conversion conv : acg.getDepartingConversions(node)) {
+                if (conv.getHeight1() >= destTime)
+                    break;
+
+                candidates.add(conv);
+            }
+
+            for (Conversion conv : acg.getArrivingConversions(node)) {
+                if (conv.getHeight2() >= destTime)
+                    break;
 
+                if (conv.getNode1() != node || conv.getHeight1() >= destTime)
+                    candidates.add(conv);
+            }
+
+            // Visit conversions in ACG order so that random draws are made
+            // in the same order as a scan of every conversion would.
+            if (candidates.size() > 1) {
+                if (convOrder == null)
+                    convOrder = getConversionOrder();
+
+                candidates.sort(Comparator.comparingInt(convOrder::get));
+            }
+
+            for (Conversion conv : candidates) {
+                if (conv.getNode1() == node && conv.getHeight1() < destTime) {
+                    if (Randomizer.nextBoolean())
+                        conv.setNode1(srcNode);
+                    logP += Math.log(0.5);
+                }
+
+                if (conv.getNode2() == node && conv.getHeight2() < destTime) {
+                    if (Randomizer.nextBoolean())
+                        conv.setNode2(srcNode);
+                    logP += Math.log(0.5);
                 }
             }
 
@@ -197,4 +226,16 @@ public abstract class CFOperator extends ConversionCreationOperator {
         return logP;
     }
 
+    /**
+     * @return map from each conversion to its position in a scan of the
+     * conversions of every locus.
+     */
+    private Map<Conversion, Integer> getConversionOrder() {
+        Map<Conversion, Integer> convOrder = new IdentityHashMap<>();
+        for (Locus locus : acg.getConvertibleLoci())
+            for (Conversion conv : acg.getConversions(locus))
+                convOrder.put(conv, convOrder.size());
+
+        return convOrder;
+    }
 }
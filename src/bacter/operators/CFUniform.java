@@ -17,6 +17,7 @@
 package bacter.operators;
 
 import bacter.Conversion;
+import bacter.ConversionGraph;
 import bacter.Locus;
 import beast.base.core.Description;
 import beast.base.core.Input;
@@ -51,6 +52,10 @@ public class CFUniform extends ConversionCreationOperator {
 
         double logHalf = Math.log(0.5);
 
+        // Conversions redrawn below record their own, more severe,
+        // change kinds.
+        acg.setChangeKind(ConversionGraph.ChangeKind.HEIGHTS_ONLY);
+
         // Select internal non-root node at random.
         Node node = acg.getNode(acg.getLeafNodeCount()
                 + Randomizer.nextInt(acg.getInternalNodeCount()));
@@ -18,6 +18,7 @@
 package bacter.operators;
 
 import bacter.Conversion;
+import bacter.ConversionGraph;
 import beast.base.core.Description;
 import beast.base.core.Input;
 import beast.base.evolution.tree.Node;
@@ -49,6 +50,8 @@ public class ConvertedEdgeSlide extends ACGOperator {
         if (acg.getTotalConvCount()==0)
             return Double.NEGATIVE_INFINITY;
 
+        acg.setChangeKind(ConversionGraph.ChangeKind.TOPOLOGY);
+
         // Select edge at random:
         Conversion conv = chooseConversion();
         
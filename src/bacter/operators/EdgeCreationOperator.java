@@ -59,20 +59,14 @@ public abstract class EdgeCreationOperator extends ACGOperator {
         double logP = 0.0;
         
         // Select departure point
-        double u = Randomizer.nextDouble()*acg.getClonalFrameLength();
-        logP += Math.log(1.0/acg.getClonalFrameLength());
-        
-        for (Node node : acg.getNodesAsArray()) {
-            if (node.isRoot())
-                continue;
-            
-            if (u<node.getLength()) {
-                conv.setNode1(node);
-                conv.setHeight1(node.getHeight() + u);
-                break;
-            } else
-                u -= node.getLength();
-        }
+        CFEventList cfEventList = acg.getCFEventList();
+        double u = Randomizer.nextDouble()*cfEventList.getClonalFrameLength();
+        logP += Math.log(1.0/cfEventList.getClonalFrameLength());
+
+        Node node = cfEventList.getEdgeNode(u);
+        conv.setNode1(node);
+        conv.setHeight1(node.getHeight()
+                + Math.min(u - cfEventList.getEdgeStart(node), node.getLength()));
         
         // Select arrival point
         logP += coalesceEdge(conv);
@@ -90,7 +84,7 @@ public abstract class EdgeCreationOperator extends ACGOperator {
     public double getEdgeAttachmentProb(Conversion conv) {
         double logP = 0.0;
         
-        logP += Math.log(1.0/acg.getClonalFrameLength());
+        logP += Math.log(1.0/acg.getCFEventList().getClonalFrameLength());
         logP += getEdgeCoalescenceProb(conv);
         
         return logP;
@@ -109,9 +103,7 @@ public abstract class EdgeCreationOperator extends ACGOperator {
         List<CFEventList.Event> events = acg.getCFEvents();
         
         // Locate event immediately below departure point
-        int startIdx = 0;
-        while (events.get(startIdx+1).getHeight()<conv.getHeight1())
-            startIdx += 1;
+        int startIdx = acg.getCFEventList().getIntervalIndex(conv.getHeight1());
                 
         // Choose edge length in dimensionless time.
         double u = Randomizer.nextExponential(1.0);
@@ -175,9 +167,7 @@ public abstract class EdgeCreationOperator extends ACGOperator {
         List<CFEventList.Event> events = acg.getCFEvents();
         
         // Find event immediately below departure point
-        int startIdx = 0;
-        while (events.get(startIdx+1).getHeight()<conv.getHeight1())
-            startIdx += 1;
+        int startIdx = acg.getCFEventList().getIntervalIndex(conv.getHeight1());
         
         // Compute probability of edge length and arrival
         for (int i=startIdx; i<events.size() && events.get(i).getHeight()<conv.getHeight2(); i++) {           
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package bacter.util;
+
+import bacter.model.ACGLikelihood;
+import beast.base.core.BEASTObject;
+import beast.base.core.Description;
+import beast.base.core.Input;
+import beast.base.core.Input.Validate;
+import beast.base.core.Loggable;
+
+import java.io.PrintStream;
+
+/**
+ * @author agent <agent@local>
+ */
+@Description("Logs the number of regions evaluated by an ACGLikelihood " +
+        "since the previous log entry, together with the number of internal " +
+        "node partials recomputed and reused per evaluated region, the " +
+        "number of regions rescaled following underflow, the number " +
+        "of current regions whose cores use scaling, the fraction of " +
+        "regions found to share their marginal tree with another region " +
+        "and the fraction of uncached regions recovered from the region memo.")
+public class ACGLikelihoodStatsLogger extends BEASTObject implements Loggable {
+
+    public Input<ACGLikelihood> acgLikelihoodInput = new Input<>(
+            "acgLikelihood", "ACG likelihood to report on.", Validate.REQUIRED);
+
+    private long lastRegionsEvaluated, lastPartialUpdates, lastPartialsReused;
+    private long lastRescaleCount;
+    private long lastTreeCacheLookups, lastTreeCacheHits;
+    private long lastRegionMemoLookups, lastRegionMemoHits;
+
+    @Override
+    public void initAndValidate() { }
+
+    @Override
+    public void init(PrintStream out) {
+        String mainID = (getID() == null || getID().matches("\\s*"))
+                ? acgLikelihoodInput.get().getID()
+                : getID();
+
+        out.print(mainID + ".regionsEvaluated\t"
+                + mainID + ".partialUpdatesPerRegion\t"
+                + mainID + ".partialsReusedPerRegion\t"
+                + mainID + ".rescales\t"
+                + mainID + ".scaledCores\t"
+                + mainID + ".treeCacheHitRate\t"
+                + mainID + ".regionMemoHitRate\t");
+    }
+
+    @Override
+    public void log(long nSample, PrintStream out) {
+        ACGLikelihood acgLikelihood = acgLikelihoodInput.get();
+
+        long regionsEvaluated = acgLikelihood.getRegionsEvaluated() - lastRegionsEvaluated;
+        long partialUpdates = acgLikelihood.getPartialUpdateCount() - lastPartialUpdates;
+        long partialsReused = acgLikelihood.getPartialReuseCount() - lastPartialsReused;
+
+        lastRegionsEvaluated += regionsEvaluated;
+        lastPartialUpdates += partialUpdates;
+        lastPartialsReused += partialsReused;
+
+        out.print(regionsEvaluated + "\t");
+        if (regionsEvaluated > 0) {
+            out.print(partialUpdates/(double)regionsEvaluated + "\t"
+                    + partialsReused/(double)regionsEvaluated + "\t");
+        } else
+            out.print("NA\tNA\t");
+
+        long rescaleCount = acgLikelihood.getRescaleCount() - lastRescaleCount;
+        lastRescaleCount += rescaleCount;
+
+        out.print(rescaleCount + "\t" + acgLikelihood.getScaledCoreCount() + "\t");
+
+        long treeCacheLookups = acgLikelihood.getTreeCacheLookupCount() - lastTreeCacheLookups;
+        long treeCacheHits = acgLikelihood.getTreeCacheHitCount() - lastTreeCacheHits;
+        lastTreeCacheLookups += treeCacheLookups;
+        lastTreeCacheHits += treeCacheHits;
+
+        if (treeCacheLookups > 0)
+            out.print(treeCacheHits/(double)treeCacheLookups + "\t");
+        else
+            out.print("NA\t");
+
+        long regionMemoLookups = acgLikelihood.getRegionMemoLookupCount() - lastRegionMemoLookups;
+        long regionMemoHits = acgLikelihood.getRegionMemoHitCount() - lastRegionMemoHits;
+        lastRegionMemoLookups += regionMemoLookups;
+        lastRegionMemoHits += regionMemoHits;
+
+        if (regionMemoLookups > 0)
+            out.print(regionMemoHits/(double)regionMemoLookups + "\t");
+        else
+            out.print("NA\t");
+    }
+
+    @Override
+    public void close(PrintStream out) {
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package bacter.util;
+
+import beast.base.core.BEASTObject;
+import beast.base.core.Description;
+import beast.base.core.Input;
+import beast.base.core.Log;
+import beast.base.inference.Distribution;
+import beast.base.inference.Evaluator;
+import beast.base.inference.Logger;
+import beast.base.inference.MCMC;
+import beast.base.inference.Operator;
+import beast.base.util.Randomizer;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @author agent <agent@local>
+ */
+@Description("An extension of MCMC implementing two-stage delayed " +
+        "acceptance.  Proposals are first screened using a cheap " +
+        "approximation to the posterior, such as one in which " +
+        "ACGLikelihood is replaced by ACGLikelihoodApprox.  Only proposals " +
+        "surviving this stage require evaluation of the exact posterior, " +
+        "after which a second accept/reject step corrects for the " +
+        "approximation so that the exact posterior is still sampled.  " +
+        "Per-operator acceptance rates for each stage can be logged " +
+        "using DelayedAcceptanceStatsLogger.")
+public class DelayedAcceptanceMCMC extends MCMC {
+
+    public Input<Distribution> approxPosteriorInput = new Input<>(
+            "approxPosterior",
+            "Approximate posterior used to screen proposals, e.g. a compound " +
+                    "distribution of the prior and ACGLikelihoodApprox.",
+            Input.Validate.REQUIRED);
+
+    protected Distribution approxPosterior;
+    protected double oldApproxLogP, newApproxLogP;
+
+    /**
+     * Proposal, first stage acceptance and second stage acceptance
+     * counts for each operator.
+     */
+    protected Map<Operator, long[]> stageCounts;
+
+    @Override
+    public void initAndValidate() {
+        super.initAndValidate();
+
+        approxPosterior = approxPosteriorInput.get();
+        stageCounts = new LinkedHashMap<>();
+
+        for (Logger logger : loggersInput.get()) {
+            for (BEASTObject loggable : logger.loggersInput.get()) {
+                if (loggable instanceof DelayedAcceptanceStatsLogger)
+                    ((DelayedAcceptanceStatsLogger) loggable).setMCMC(this);
+            }
+        }
+    }
+
+    /**
+     * @param operator operator
+     * @return number of proposals made by operator (excluding burn-in
+     * and failed proposals), number accepted at the first stage and
+     * number accepted at the second stage.
+     */
+    public long[] getStageCounts(Operator operator) {
+        long[] counts = stageCounts.get(operator);
+        return counts != null ? counts.clone() : new long[3];
+    }
+
+    @Override
+    protected void doLoop() {
+        if (burnIn > 0) {
+            Log.warning.println("Please wait while BEAST takes " + burnIn + " pre-burnin samples");
+        }
+
+        oldApproxLogP = state.robustlyCalcPosterior(approxPosterior);
+        if (oldApproxLogP == Double.NEGATIVE_INFINITY)
+            throw new IllegalStateException("Approximate posterior of " +
+                    "initial state is zero: cannot start delayed acceptance MCMC.");
+
+        for (int sampleNr = -burnIn; sampleNr <= chainLength; sampleNr++) {
+            final int currentState = sampleNr;
+
+            state.store(currentState);
+
+            final Operator operator = operatorSchedule.selectOperator();
+
+            final Distribution evaluatorDistribution = operator.getEvaluatorDistribution();
+            Evaluator evaluator = null;
+
+            if (evaluatorDistribution != null) {
+                evaluator = () -> {
+                    double logP = 0.0;
+
+                    state.storeCalculationNodes();
+                    state.checkCalculationNodesDirtiness();
+
+                    try {
+                        logP = evaluatorDistribution.calculateLogP();
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                        System.exit(1);
+                    }
+
+                    state.restore();
+                    state.store(currentState);
+
+                    return logP;
+                };
+            }
+
+            final double logHastingsRatio = operator.proposal(evaluator);
+
+            long[] counts = null;
+            if (sampleNr >= 0)
+                counts = stageCounts.computeIfAbsent(operator, op -> new long[3]);
+
+            if (logHastingsRatio != Double.NEGATIVE_INFINITY) {
+
+                if (operator.requiresStateInitialisation()) {
+                    state.storeCalculationNodes();
+                    state.checkCalculationNodesDirtiness();
+                }
+
+                if (counts != null)
+                    counts[0] += 1;
+
+                // First stage: screen proposal using approximate posterior.
+                newApproxLogP = approxPosterior.calculateLogP();
+                double logAlpha1 = newApproxLogP - oldApproxLogP + logHastingsRatio;
+
+                boolean accept = logAlpha1 >= 0 || Randomizer.nextDouble() < Math.exp(logAlpha1);
+                logAlpha = logAlpha1;
+
+                if (accept) {
+                    if (counts != null)
+                        counts[1] += 1;
+
+                    // Second stage: correct for approximation using exact
+                    // posterior.  (Hastings ratio cancels.)
+                    newLogLikelihood = posterior.calculateLogP();
+                    double logAlpha2 = newLogLikelihood - oldLogLikelihood
+                            - (newApproxLogP - oldApproxLogP);
+
+                    accept = logAlpha2 >= 0 || Randomizer.nextDouble() < Math.exp(logAlpha2);
+                    logAlpha = Math.min(logAlpha1, 0.0) + Math.min(logAlpha2, 0.0);
+                } else
+                    newLogLikelihood = Double.NaN;
+
+                if (accept) {
+                    // accept
+                    oldLogLikelihood = newLogLikelihood;
+                    oldApproxLogP = newApproxLogP;
+                    state.acceptCalculationNodes();
+
+                    if (sampleNr >= 0) {
+                        counts[2] += 1;
+                        operator.accept();
+                    }
+                } else {
+                    // reject
+                    if (sampleNr >= 0) {
+                        operator.reject(newLogLikelihood == Double.NEGATIVE_INFINITY ? -1 : 0);
+                    }
+                    state.restore();
+                    state.restoreCalculationNodes();
+                }
+                state.setEverythingDirty(false);
+            } else {
+                // operation failed
+                if (sampleNr >= 0) {
+                    operator.reject(-2);
+                }
+                state.restore();
+                if (!operator.requiresStateInitialisation()) {
+                    state.setEverythingDirty(false);
+                    state.restoreCalculationNodes();
+                }
+            }
+            log(sampleNr);
+
+            if (sampleNr >= 0)
+                operator.optimize(logAlpha);
+
+            // make sure we always save just before exiting
+            if (storeEvery > 0 && (sampleNr + 1) % storeEvery == 0 || sampleNr == chainLength) {
+                state.robustlyCalcNonStochasticPosterior(posterior);
+                state.storeToFile(sampleNr);
+                try {
+                    operatorSchedule.storeToFile();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        reportStageAcceptance();
+    }
+
+    /**
+     * Print per-operator first and second stage acceptance rates,
+     * together with the fraction of exact posterior evaluations avoided.
+     */
+    protected void reportStageAcceptance() {
+        Log.info.println("\nDelayed acceptance summary:");
+        Log.info.println(String.format("%-40s %10s %10s %10s %10s",
+                "Operator", "Proposed", "Stage1", "Stage2", "Saved"));
+
+        long totalProposed = 0, totalExact = 0;
+        for (Map.Entry<Operator, long[]> entry : stageCounts.entrySet()) {
+            long[] counts = entry.getValue();
+            totalProposed += counts[0];
+            totalExact += counts[1];
+
+            Log.info.println(String.format("%-40s %10d %10.4f %10.4f %10.4f",
+                    entry.getKey().getID(),
+                    counts[0],
+                    counts[0] > 0 ? counts[1]/(double)counts[0] : Double.NaN,
+                    counts[1] > 0 ? counts[2]/(double)counts[1] : Double.NaN,
+                    counts[0] > 0 ? 1.0 - counts[1]/(double)counts[0] : Double.NaN));
+        }
+
+        Log.info.println("Exact posterior evaluated for " + totalExact
+                + " of " + totalProposed + " proposals.");
+    }
+}
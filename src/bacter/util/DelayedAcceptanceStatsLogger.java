@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package bacter.util;
+
+import beast.base.core.BEASTObject;
+import beast.base.core.Description;
+import beast.base.core.Loggable;
+import beast.base.inference.Operator;
+
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author agent <agent@local>
+ */
+@Description("Logs the first and second stage acceptance rates of each " +
+        "operator of a DelayedAcceptanceMCMC since the previous log entry. " +
+        "Must be included in a logger belonging to the DelayedAcceptanceMCMC " +
+        "being reported on.")
+public class DelayedAcceptanceStatsLogger extends BEASTObject implements Loggable {
+
+    private DelayedAcceptanceMCMC mcmc;
+    private List<Operator> operators;
+
+    /**
+     * Stage counts of each operator as of the previous log entry.
+     */
+    private Map<Operator, long[]> lastCounts;
+
+    @Override
+    public void initAndValidate() { }
+
+    /**
+     * Set chain to report on.  Called by DelayedAcceptanceMCMC for each
+     * of these loggers found among its own loggers.
+     *
+     * @param mcmc chain
+     */
+    public void setMCMC(DelayedAcceptanceMCMC mcmc) {
+        this.mcmc = mcmc;
+    }
+
+    @Override
+    public void init(PrintStream out) {
+        if (mcmc == null)
+            throw new IllegalStateException("DelayedAcceptanceStatsLogger "
+                    + "must belong to a logger of a DelayedAcceptanceMCMC.");
+
+        operators = mcmc.operatorsInput.get();
+        lastCounts = new HashMap<>();
+
+        for (Operator operator : operators) {
+            String opID = operator.getID();
+            out.print(opID + ".stage1Acceptance\t"
+                    + opID + ".stage2Acceptance\t");
+
+            lastCounts.put(operator, new long[3]);
+        }
+    }
+
+    @Override
+    public void log(long nSample, PrintStream out) {
+        for (Operator operator : operators) {
+            long[] counts = mcmc.getStageCounts(operator);
+            long[] last = lastCounts.get(operator);
+
+            long proposed = counts[0] - last[0];
+            long stage1 = counts[1] - last[1];
+            long stage2 = counts[2] - last[2];
+            System.arraycopy(counts, 0, last, 0, 3);
+
+            out.print((proposed > 0 ? String.valueOf(stage1/(double)proposed) : "NA") + "\t"
+                    + (stage1 > 0 ? String.valueOf(stage2/(double)stage1) : "NA") + "\t");
+        }
+    }
+
+    @Override
+    public void close(PrintStream out) {
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package bacter.util;
+
+import bacter.model.EarlyRejectable;
+import beast.base.core.Description;
+import beast.base.core.Log;
+import beast.base.inference.CompoundDistribution;
+import beast.base.inference.Distribution;
+import beast.base.inference.Evaluator;
+import beast.base.inference.MCMC;
+import beast.base.inference.Operator;
+import beast.base.util.Randomizer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author agent <agent@local>
+ */
+@Description("An extension of MCMC which draws the acceptance threshold " +
+        "before evaluating the posterior, allowing likelihoods such as " +
+        "ACGLikelihood to abandon evaluations of proposals which are " +
+        "certain to be rejected.")
+public class EarlyRejectionMCMC extends MCMC implements EarlyRejectable.ThresholdProvider {
+
+    /**
+     * Non-compound distributions making up the posterior, in the order
+     * in which they are evaluated.
+     */
+    protected List<Distribution> leafDistributions;
+
+    /**
+     * Index into leafDistributions of each distribution for which
+     * early rejection thresholds are provided.
+     */
+    protected Map<EarlyRejectable, Integer> earlyRejectableIndices;
+
+    protected boolean thresholdActive;
+    protected double logThreshold;
+    protected List<EarlyRejectable> queriedDistributions;
+
+    protected long evaluationCount, abortedEvaluationCount;
+
+    @Override
+    public void initAndValidate() {
+        super.initAndValidate();
+
+        leafDistributions = new ArrayList<>();
+        boolean sequential = collectLeafDistributions(posterior, leafDistributions);
+
+        // Thresholds can only be computed for an early-rejectable
+        // distribution if every distribution whose log density might be
+        // positive has already been evaluated when its turn comes.
+        int lastOtherIdx = -1;
+        for (int i=0; i<leafDistributions.size(); i++)
+            if (!(leafDistributions.get(i) instanceof EarlyRejectable))
+                lastOtherIdx = i;
+
+        earlyRejectableIndices = new HashMap<>();
+        for (int i=lastOtherIdx+1; sequential && i<leafDistributions.size(); i++) {
+            EarlyRejectable distr = (EarlyRejectable)leafDistributions.get(i);
+            earlyRejectableIndices.put(distr, i);
+            distr.setThresholdProvider(this);
+        }
+
+        if (earlyRejectableIndices.isEmpty())
+            Log.warning.println("Warning: EarlyRejectionMCMC found no " +
+                    "distributions for which early rejection is possible. " +
+                    "(Such distributions must be evaluated last and without " +
+                    "threading.)");
+
+        queriedDistributions = new ArrayList<>();
+    }
+
+    /**
+     * Assemble list of non-compound distributions in the order in which
+     * CompoundDistribution evaluates them.
+     *
+     * @param distr root of distribution tree
+     * @param leaves list to which distributions are added
+     * @return false if any compound distribution evaluates its
+     * components concurrently, true otherwise.
+     */
+    protected boolean collectLeafDistributions(Distribution distr, List<Distribution> leaves) {
+        if (!(distr instanceof CompoundDistribution)) {
+            leaves.add(distr);
+            return true;
+        }
+
+        CompoundDistribution compoundDistr = (CompoundDistribution)distr;
+        boolean sequential = !compoundDistr.useThreadsInput.get();
+        for (Distribution childDistr : compoundDistr.pDistributions.get())
+            sequential = collectLeafDistributions(childDistr, leaves) && sequential;
+
+        return sequential;
+    }
+
+    @Override
+    public double getRejectionThreshold(EarlyRejectable distribution) {
+        Integer idx = earlyRejectableIndices.get(distribution);
+        if (!thresholdActive || idx == null)
+            return Double.NEGATIVE_INFINITY;
+
+        queriedDistributions.add(distribution);
+
+        // Distributions preceding this one have been evaluated (or are
+        // clean), while those following it have non-positive log densities.
+        double threshold = logThreshold;
+        for (int i=0; i<idx; i++)
+            threshold -= leafDistributions.get(i).getCurrentLogP();
+
+        return threshold;
+    }
+
+    @Override
+    protected void doLoop() {
+        if (burnIn > 0) {
+            Log.warning.println("Please wait while BEAST takes " + burnIn + " pre-burnin samples");
+        }
+
+        for (int sampleNr = -burnIn; sampleNr <= chainLength; sampleNr++) {
+            final int currentState = sampleNr;
+
+            state.store(currentState);
+
+            final Operator operator = operatorSchedule.selectOperator();
+
+            final Distribution evaluatorDistribution = operator.getEvaluatorDistribution();
+            Evaluator evaluator = null;
+
+            if (evaluatorDistribution != null) {
+                evaluator = () -> {
+                    double logP = 0.0;
+
+                    state.storeCalculationNodes();
+                    state.checkCalculationNodesDirtiness();
+
+                    try {
+                        logP = evaluatorDistribution.calculateLogP();
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                        System.exit(1);
+                    }
+
+                    state.restore();
+                    state.store(currentState);
+
+                    return logP;
+                };
+            }
+
+            final double logHastingsRatio = operator.proposal(evaluator);
+
+            if (logHastingsRatio != Double.NEGATIVE_INFINITY) {
+
+                if (operator.requiresStateInitialisation()) {
+                    state.storeCalculationNodes();
+                    state.checkCalculationNodesDirtiness();
+                }
+
+                // Draw the uniform variate before evaluating the posterior
+                // so that the proposal's rejection threshold is known.
+                double logU = Math.log(Randomizer.nextDouble());
+                logThreshold = logU + oldLogLikelihood - logHastingsRatio;
+
+                queriedDistributions.clear();
+                thresholdActive = true;
+                newLogLikelihood = posterior.calculateLogP();
+                thresholdActive = false;
+
+                boolean aborted = false;
+                for (EarlyRejectable distr : queriedDistributions) {
+                    evaluationCount += 1;
+                    if (distr.evaluationAborted()) {
+                        abortedEvaluationCount += 1;
+                        aborted = true;
+                    }
+                }
+
+                logAlpha = newLogLikelihood - oldLogLikelihood + logHastingsRatio;
+
+                if (logU < logAlpha) {
+                    // accept
+                    oldLogLikelihood = newLogLikelihood;
+                    state.acceptCalculationNodes();
+
+                    if (sampleNr >= 0) {
+                        operator.accept();
+                    }
+                } else {
+                    // reject
+                    if (sampleNr >= 0) {
+                        operator.reject(!aborted && newLogLikelihood == Double.NEGATIVE_INFINITY ? -1 : 0);
+                    }
+                    state.restore();
+                    state.restoreCalculationNodes();
+                }
+                state.setEverythingDirty(false);
+
+                // The acceptance ratio of an abandoned evaluation is
+                // unknown, but is bounded above by the variate it failed
+                // to exceed.  Use this bound for operator tuning.
+                if (aborted)
+                    logAlpha = logU;
+            } else {
+                // operation failed
+                if (sampleNr >= 0) {
+                    operator.reject(-2);
+                }
+                state.restore();
+                if (!operator.requiresStateInitialisation()) {
+                    state.setEverythingDirty(false);
+                    state.restoreCalculationNodes();
+                }
+            }
+            log(sampleNr);
+
+            if (sampleNr >= 0)
+                operator.optimize(logAlpha);
+
+            // make sure we always save just before exiting
+            if (storeEvery > 0 && (sampleNr + 1) % storeEvery == 0 || sampleNr == chainLength) {
+                state.robustlyCalcNonStochasticPosterior(posterior);
+                state.storeToFile(sampleNr);
+                try {
+                    operatorSchedule.storeToFile();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        Log.info.println("Early rejection abandoned " + abortedEvaluationCount
+                + " of " + evaluationCount + " likelihood evaluations.");
+    }
+}
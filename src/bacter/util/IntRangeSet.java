@@ -0,0 +1,343 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package bacter.util;
+
+import java.util.Arrays;
+
+/**
+ * Growable sequence of integer range boundaries stored in a primitive
+ * array.  Element 2i holds the start of range i and element 2i+1 its
+ * end.  This is the unboxed counterpart of the List&lt;Integer&gt;
+ * representation manipulated by the static methods of IntRanges.
+ *
+ * Set operations write into caller-supplied destination objects, or
+ * into this object in the case of unionWith(), so that range sets can
+ * be updated repeatedly without allocation once their buffers have
+ * grown to the required size.
+ *
+ * @author agent <agent@local>
+ */
+public class IntRangeSet {
+
+    private int[] bounds;
+    private int size;
+
+    /**
+     * Buffer used by unionWith(), swapped with bounds on completion.
+     */
+    private int[] spare;
+
+    public IntRangeSet() {
+        this(8);
+    }
+
+    /**
+     * @param capacity initial number of boundaries which can be held
+     */
+    public IntRangeSet(int capacity) {
+        bounds = new int[Math.max(capacity, 2)];
+        size = 0;
+    }
+
+    /**
+     * Construct range set containing the single range [x,y].
+     *
+     * @param x start of range
+     * @param y end of range
+     */
+    public IntRangeSet(int x, int y) {
+        this(2);
+        add(x, y);
+    }
+
+    /**
+     * @return number of boundaries in set (twice the number of ranges)
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if set contains no ranges
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param i boundary index
+     * @return boundary i
+     */
+    public int get(int i) {
+        return bounds[i];
+    }
+
+    /**
+     * @param i boundary index
+     * @param value new value of boundary
+     */
+    public void set(int i, int value) {
+        bounds[i] = value;
+    }
+
+    /**
+     * @return final boundary in set
+     */
+    public int getLast() {
+        return bounds[size-1];
+    }
+
+    /**
+     * Append range [x,y] to end of set.
+     *
+     * @param x start of range
+     * @param y end of range
+     */
+    public void add(int x, int y) {
+        ensureCapacity(size + 2);
+        bounds[size++] = x;
+        bounds[size++] = y;
+    }
+
+    /**
+     * Append a single boundary to the set.
+     *
+     * @param x boundary
+     */
+    public void addBoundary(int x) {
+        ensureCapacity(size + 1);
+        bounds[size++] = x;
+    }
+
+    /**
+     * Remove all ranges, retaining allocated storage.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Replace contents of this set with those of another.
+     *
+     * @param other set to copy
+     */
+    public void copyFrom(IntRangeSet other) {
+        ensureCapacity(other.size);
+        System.arraycopy(other.bounds, 0, bounds, 0, other.size);
+        size = other.size;
+    }
+
+    /**
+     * @return total number of sites included in ranges
+     */
+    public int getTotalSites() {
+        int res = 0;
+        for (int i=0; i<size; i+=2)
+            res += bounds[i+1] - bounds[i];
+
+        return res;
+    }
+
+    /**
+     * Replace this set with its union with another.
+     *
+     * @param other set to merge with this one
+     */
+    public void unionWith(IntRangeSet other) {
+        if (spare == null || spare.length < size + other.size)
+            spare = new int[Math.max(size + other.size, 2*bounds.length)];
+
+        int n = union(bounds, size, other.bounds, other.size, spare);
+
+        int[] tmp = bounds;
+        bounds = spare;
+        spare = tmp;
+        size = n;
+    }
+
+    /**
+     * Compute union of two range sets.
+     *
+     * @param as1 range set 1
+     * @param as2 range set 2
+     * @param dest set to hold union (must be distinct from as1 and as2)
+     */
+    public static void union(IntRangeSet as1, IntRangeSet as2, IntRangeSet dest) {
+        dest.ensureCapacity(as1.size + as2.size);
+        dest.size = union(as1.bounds, as1.size, as2.bounds, as2.size, dest.bounds);
+    }
+
+    private static int union(int[] a1, int n1, int[] a2, int n2, int[] dest) {
+        int i1 = 0, i2 = 0, ui = -2;
+        int nextx, nexty;
+
+        while (i1 < n1 || i2 < n2) {
+            if (i1 < n1 && (i2 == n2 || a1[i1] < a2[i2])) {
+                nextx = a1[i1];
+                nexty = a1[i1 + 1];
+                i1 += 2;
+            } else {
+                nextx = a2[i2];
+                nexty = a2[i2 + 1];
+                i2 += 2;
+            }
+
+            if (ui < 0 || dest[ui + 1] < nextx) {
+                ui += 2;
+                dest[ui] = nextx;
+                dest[ui + 1] = nexty;
+            } else if (dest[ui + 1] < nexty)
+                dest[ui + 1] = nexty;
+        }
+
+        return ui + 2;
+    }
+
+    /**
+     * Compute intersection of two range sets.
+     *
+     * @param as1 range set 1
+     * @param as2 range set 2
+     * @param dest set to hold intersection (must be distinct from as1 and as2)
+     */
+    public static void intersection(IntRangeSet as1, IntRangeSet as2, IntRangeSet dest) {
+        dest.clear();
+
+        int i=0, j=0;
+        while (i<as1.size) {
+            while (j<as2.size) {
+                if (as2.bounds[j] >= as1.bounds[i+1])
+                    break;
+
+                if (as2.bounds[j+1] > as1.bounds[i]) {
+                    int x = Math.max(as1.bounds[i], as2.bounds[j]);
+
+                    if (as2.bounds[j+1] <= as1.bounds[i+1])
+                        dest.add(x, as2.bounds[j+1]);
+                    else {
+                        dest.add(x, as1.bounds[i+1]);
+                        break;
+                    }
+                }
+
+                j += 2;
+            }
+
+            i += 2;
+        }
+    }
+
+    /**
+     * Partition ranges in as into ranges inside and outside of the
+     * contiguous range [x,y].
+     *
+     * @param as range set
+     * @param x left boundary of contiguous range
+     * @param y right boundary of contiguous range
+     * @param inside set to fill with inside ranges
+     * @param outside set to fill with outside ranges
+     */
+    public static void partition(IntRangeSet as, int x, int y,
+                                 IntRangeSet inside, IntRangeSet outside) {
+        inside.clear();
+        outside.clear();
+
+        int[] b = as.bounds;
+        int n = as.size;
+
+        int i=0;
+        while (i<n && b[i] < x)
+            outside.addBoundary(b[i++]);
+
+        if (i%2==1) {
+            outside.addBoundary(x);
+            if (x<b[i])
+                inside.addBoundary(x);
+            else
+                i += 1;
+        }
+
+        while (i<n && b[i]<y)
+            inside.addBoundary(b[i++]);
+
+        if (i%2==1) {
+            inside.addBoundary(y);
+            if (y<b[i])
+                outside.addBoundary(y);
+            else
+                i += 1;
+        }
+
+        while (i<n)
+            outside.addBoundary(b[i++]);
+    }
+
+    /**
+     * Read range set from a string of the form "{ [1,3] [5,10] ... }".
+     *
+     * @param string string to parse
+     * @return range set
+     */
+    public static IntRangeSet fromString(String string) {
+        IntRangeSet result = new IntRangeSet();
+        for (int x : IntRanges.fromString(string))
+            result.addBoundary(x);
+
+        return result;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (bounds.length < capacity)
+            bounds = Arrays.copyOf(bounds, Math.max(capacity, 2*bounds.length));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        IntRangeSet that = (IntRangeSet) o;
+
+        if (size != that.size)
+            return false;
+
+        for (int i=0; i<size; i++)
+            if (bounds[i] != that.bounds[i])
+                return false;
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = 1;
+        for (int i=0; i<size; i++)
+            result = 31*result + bounds[i];
+
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i=0; i<size; i+=2)
+            sb.append(" [").append(bounds[i]).append(",").append(bounds[i+1]).append("]");
+
+        return sb.append(" }").toString();
+    }
+}
@@ -17,12 +17,19 @@
 
 package bacter;
 
+import beast.base.evolution.tree.Node;
 import beast.base.evolution.tree.TreeParser;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.junit.Test;
 
@@ -145,4 +152,98 @@ public class MarginalTreeTest extends TestBase {
                     false, true, false, 0).getRoot(), 1e-15));
         }
     }
+
+    @Test
+    public void testSweep() throws Exception {
+
+        // Conversion graph
+        String str = "[&locus,2,1000,0.3260126313706676,10,5000,0.42839862922656696] "
+                + "[&locus,10,2000,0.3381366423491633,2,8000,0.5683827224649434] "
+                + "[&locus,10,3000,0.2807615297583804,14,7000,0.3415740002783274] "
+                + "[&locus,2,7500,0.1,2,9999,0.4] "
+                + "[&locus,2,7600,0.05,18,7700,2.0] "
+                + "(((0:0.04916909893812008,1:0.04916909893812008)10:0.5465237639426681,"
+                + "(4:0.3773111326866937,(((8:0.22180790639747835,"
+                + "(3:0.07561592852503513,6:0.07561592852503513)11:0.14619197787244323)"
+                + "13:0.010206467073885589,9:0.23201437347136394)14:0.116542689187905,"
+                + "(7:0.10746702934931932,5:0.10746702934931932)12:0.24109003330994963)"
+                + "15:0.02875407002742475)16:0.21838173019409446)17:1.1073878800617445,"
+                + "2:1.7030807429425328)18:0.0";
+
+        Locus locus = new Locus("locus", 10000);
+        locus.setID("locus");
+
+        ConversionGraph acg = new ConversionGraph();
+        acg.initByName("fromString", str, "locus", locus);
+
+        MarginalTreeSweep sweep = new MarginalTreeSweep(acg);
+
+        // Sweep forwards then backwards to exercise both insertion and
+        // removal of conversion events.
+        List<Region> regions = new ArrayList<>(acg.getRegions(locus));
+        for (int i=regions.size()-2; i>=0; i--)
+            regions.add(regions.get(i));
+
+        Map<Node, String> previousSubtrees = new IdentityHashMap<>();
+        for (Region region : regions) {
+            MarginalTree sweepTree = sweep.advance(region);
+
+            assertEquals(getSubtreeString(new MarginalTree(acg, region).getRoot()),
+                    getSubtreeString(sweepTree.getRoot()));
+
+            // Exactly those nodes whose subtrees differ from the previous
+            // tree are reported as changed
+            Set<MarginalNode> changedNodes = new HashSet<>(sweep.getChangedNodes());
+            for (Node node : sweepTree.getRoot().getAllChildNodesAndSelf()) {
+                if (node.isLeaf())
+                    continue;
+
+                String subtree = getSubtreeString(node);
+                assertEquals(!subtree.equals(previousSubtrees.get(node)),
+                        changedNodes.contains(node));
+            }
+
+            previousSubtrees.clear();
+            for (Node node : sweepTree.getRoot().getAllChildNodesAndSelf())
+                previousSubtrees.put(node, getSubtreeString(node));
+
+            // Re-deriving the same tree should change nothing
+            long fingerprint = sweep.getFingerprint();
+            sweep.advance(region);
+            assertTrue(sweep.getChangedNodes().isEmpty());
+            assertEquals(fingerprint, sweep.getFingerprint());
+        }
+
+        // Detached trees survive subsequent advances
+        MarginalTree detachedTree = sweep.advance(regions.get(1));
+        String detachedTreeString = detachedTree.toString();
+        long detachedFingerprint = sweep.getFingerprint();
+        assertSame(detachedTree, sweep.detachTree());
+        sweep.advance(regions.get(0));
+        assertEquals(detachedTreeString, detachedTree.toString());
+        sweep.advance(regions.get(1));
+        assertEquals(detachedFingerprint, sweep.getFingerprint());
+
+        // Trees following a reset are derived from scratch, and every
+        // internal node is reported as changed
+        sweep.reset();
+        MarginalTree sweepTree = sweep.advance(regions.get(0));
+        assertEquals(new MarginalTree(acg, regions.get(0)).toString(),
+                sweepTree.toString());
+        assertEquals(sweepTree.getRoot().getInternalNodeCount(),
+                sweep.getChangedNodes().size());
+    }
+
+    /**
+     * @param node root of subtree
+     * @return string representation of subtree which, unlike that given
+     * by toString(), does not depend on internal node numbers
+     */
+    private static String getSubtreeString(Node node) {
+        if (node.isLeaf())
+            return node.getNr() + ":" + node.getHeight();
+
+        return "(" + getSubtreeString(node.getLeft()) + ","
+                + getSubtreeString(node.getRight()) + "):" + node.getHeight();
+    }
 }
@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacter;
+
+import bacter.model.SimulatedACG;
+import bacter.operators.ACGScaler;
+import beast.base.evolution.alignment.TaxonSet;
+import beast.base.evolution.tree.Node;
+import beast.base.evolution.tree.coalescent.ConstantPopulation;
+import beast.base.inference.State;
+import beast.base.inference.parameter.RealParameter;
+import beast.base.util.Randomizer;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests incremental maintenance of region lists.
+ *
+ * @author agent <agent@local>
+ */
+public class RegionListTest extends TestBase {
+
+    @Test
+    public void testIncrementalUpdate() throws Exception {
+        Randomizer.setSeed(53);
+
+        ConstantPopulation popFunc = new ConstantPopulation();
+        popFunc.initByName("popSize", new RealParameter("1.0"));
+
+        Locus locus = new Locus("locus", 10000);
+        TaxonSet taxonSet = getTaxonSet(10);
+
+        ConversionGraph acg = new SimulatedACG();
+        acg.initByName(
+                "rho", 20.0/locus.getSiteCount(),
+                "delta", 500.0,
+                "populationModel", popFunc,
+                "locus", locus,
+                "taxonset", taxonSet);
+
+        for (int i=0; i<50 && acg.getConvCount(locus)>0; i++) {
+            List<Region> oldRegions = new ArrayList<>(acg.getRegions(locus));
+
+            // Shift the boundaries of a randomly chosen conversion
+            Conversion conv = acg.getConversions(locus).get(
+                    Randomizer.nextInt(acg.getConvCount(locus)));
+            int newStart = Randomizer.nextInt(locus.getSiteCount());
+            int newEnd = Math.min(newStart + Randomizer.nextInt(1000),
+                    locus.getSiteCount()-1);
+            conv.setStartSite(newStart);
+            conv.setEndSite(newEnd);
+
+            List<Region> regions = acg.getRegions(locus);
+            List<Region> trueRegions = new RegionList(acg, locus).getRegions();
+
+            assertEquals(trueRegions, regions);
+
+            // Regions which do not overlap the conversion should be retained
+            for (Region region : regions) {
+                if (region.rightBoundary < newStart || region.leftBoundary > newEnd+1) {
+                    int idx = oldRegions.indexOf(region);
+                    if (idx >= 0)
+                        assertSame(oldRegions.get(idx), region);
+                }
+            }
+        }
+
+        // Remove conversions one at a time
+        while (acg.getConvCount(locus)>0) {
+            acg.deleteConversion(acg.getConversions(locus).get(0));
+
+            assertEquals(new RegionList(acg, locus).getRegions(),
+                    acg.getRegions(locus));
+        }
+    }
+
+    @Test
+    public void testHeightOnlyUpdate() throws Exception {
+        Randomizer.setSeed(53);
+
+        ConstantPopulation popFunc = new ConstantPopulation();
+        popFunc.initByName("popSize", new RealParameter("1.0"));
+
+        Locus locus = new Locus("locus", 10000);
+        TaxonSet taxonSet = getTaxonSet(10);
+
+        ConversionGraph acg = new SimulatedACG();
+        acg.initByName(
+                "rho", 20.0/locus.getSiteCount(),
+                "delta", 500.0,
+                "populationModel", popFunc,
+                "locus", locus,
+                "taxonset", taxonSet);
+
+        for (int i=0; i<50 && acg.getConvCount(locus)>0; i++) {
+            acg.getRegions(locus);
+
+            // Move the arrival point of a randomly chosen conversion
+            // within its current edge
+            Conversion conv = acg.getConversions(locus).get(
+                    Randomizer.nextInt(acg.getConvCount(locus)));
+            double minHeight = Math.max(conv.getHeight1(), conv.getNode2().getHeight());
+            double maxHeight = conv.getNode2().isRoot()
+                    ? minHeight + 1.0
+                    : conv.getNode2().getParent().getHeight();
+
+            acg.setChangeKind(ConversionGraph.ChangeKind.HEIGHTS_ONLY);
+            conv.setHeight2(minHeight + Randomizer.nextDouble()*(maxHeight - minHeight));
+
+            assertEquals(new RegionList(acg, locus).getRegions(),
+                    acg.getRegions(locus));
+        }
+    }
+
+    @Test
+    public void testStoreRestore() throws Exception {
+        Randomizer.setSeed(53);
+
+        ConstantPopulation popFunc = new ConstantPopulation();
+        popFunc.initByName("popSize", new RealParameter("1.0"));
+
+        Locus locus = new Locus("locus", 10000);
+        TaxonSet taxonSet = getTaxonSet(10);
+
+        ConversionGraph acg = new SimulatedACG();
+        acg.initByName(
+                "rho", 20.0/locus.getSiteCount(),
+                "delta", 500.0,
+                "populationModel", popFunc,
+                "locus", locus,
+                "taxonset", taxonSet);
+
+        for (int i=0; i<20 && acg.getConvCount(locus)>1; i++) {
+            List<Region> oldRegions = new ArrayList<>(acg.getRegions(locus));
+
+            acg.store();
+
+            Conversion conv = acg.getConversions(locus).get(
+                    Randomizer.nextInt(acg.getConvCount(locus)));
+            conv.setStartSite(conv.getStartSite()/2);
+            acg.deleteConversion(acg.getConversions(locus).get(0));
+
+            assertEquals(new RegionList(acg, locus).getRegions(),
+                    acg.getRegions(locus));
+
+            acg.restore();
+
+            // Restored regions should be the stored region objects,
+            // attached to the restored nodes.
+            List<Region> regions = acg.getRegions(locus);
+            assertEquals(oldRegions.size(), regions.size());
+            for (int r=0; r<regions.size(); r++) {
+                assertSame(oldRegions.get(r), regions.get(r));
+
+                for (Conversion convCopy : regions.get(r).activeConversions) {
+                    assertSame(acg.getNode(convCopy.getNode1().getNr()), convCopy.getNode1());
+                    assertSame(acg.getNode(convCopy.getNode2().getNr()), convCopy.getNode2());
+                }
+            }
+
+            assertEquals(new RegionList(acg, locus).getRegions(), regions);
+
+            // Accept a modification before the next iteration
+            acg.store();
+            acg.deleteConversion(acg.getConversions(locus).get(0));
+            acg.getRegions(locus);
+        }
+    }
+
+    @Test
+    public void testDeclaredChangeKind() throws Exception {
+        Randomizer.setSeed(53);
+
+        ConstantPopulation popFunc = new ConstantPopulation();
+        popFunc.initByName("popSize", new RealParameter("1.0"));
+
+        Locus locus = new Locus("locus", 10000);
+        TaxonSet taxonSet = getTaxonSet(10);
+
+        ConversionGraph acg = new SimulatedACG();
+        acg.initByName(
+                "rho", 20.0/locus.getSiteCount(),
+                "delta", 500.0,
+                "populationModel", popFunc,
+                "locus", locus,
+                "taxonset", taxonSet);
+
+        State state = new State();
+        state.initByName("stateNode", acg);
+        state.initialise();
+
+        ACGScaler scaler = new ACGScaler();
+        scaler.initByName("weight", 1.0, "acg", acg, "scaleFactor", 0.8);
+
+        for (int i=0; i<20; i++) {
+            List<Region> oldRegions = new ArrayList<>(acg.getRegions(locus));
+
+            // The graph is stored from within the operator's first edit,
+            // which must not discard its HEIGHTS_ONLY declaration.
+            state.store(i);
+            scaler.proposal();
+            assertEquals(ConversionGraph.ChangeKind.HEIGHTS_ONLY, acg.getChangeKind());
+
+            List<Region> regions = acg.getRegions(locus);
+            assertEquals(new RegionList(acg, locus).getRegions(), regions);
+            assertEquals(oldRegions.size(), regions.size());
+            for (int r=0; r<regions.size(); r++)
+                assertSame(oldRegions.get(r), regions.get(r));
+
+            if (Randomizer.nextBoolean())
+                state.restore();
+            state.setEverythingDirty(false);
+
+            // Declaration ends with the proposal
+            assertEquals(ConversionGraph.ChangeKind.SITES, acg.getChangeKind());
+        }
+    }
+
+    @Test
+    public void testRegionEquality() throws Exception {
+        Locus locus = new Locus("locus", 10000);
+        TaxonSet taxonSet = getTaxonSet(5);
+
+        ConstantPopulation popFunc = new ConstantPopulation();
+        popFunc.initByName("popSize", new RealParameter("1.0"));
+
+        ConversionGraph acg = new SimulatedACG();
+        acg.initByName(
+                "rho", 0.0,
+                "delta", 500.0,
+                "populationModel", popFunc,
+                "locus", locus,
+                "taxonset", taxonSet);
+
+        Node node1 = acg.getExternalNodes().get(0);
+        Node node2 = node1.getParent();
+        double height1 = 0.5*(node1.getHeight() + node2.getHeight());
+        Conversion conv1 = new Conversion(node1, height1, node2, node2.getHeight() + 0.1,
+                100, 200, acg, locus);
+        Conversion conv2 = new Conversion(node1, height1, node2, node2.getHeight() + 0.2,
+                100, 200, acg, locus);
+
+        Set<Conversion> convs = new HashSet<>();
+        convs.add(conv1);
+        Region region = new Region(100, 201, convs);
+
+        // Regions with identical content are equal, even when their
+        // active conversions are distinct copies.
+        Set<Conversion> copies = new HashSet<>();
+        copies.add(conv1.getCopy());
+        Region copyRegion = new Region(100, 201, copies);
+        assertEquals(region, copyRegion);
+        assertEquals(region.hashCode(), copyRegion.hashCode());
+        assertEquals(region.getFingerprint(), copyRegion.getFingerprint());
+
+        // Differences in boundaries, heights or conversion count are not.
+        assertNotEquals(region, new Region(100, 200, convs));
+
+        Set<Conversion> otherConvs = new HashSet<>();
+        otherConvs.add(conv2);
+        assertNotEquals(region, new Region(100, 201, otherConvs));
+
+        otherConvs.add(conv1);
+        assertNotEquals(region, new Region(100, 201, otherConvs));
+        assertNotEquals(region, new Region(100, 201, new HashSet<>()));
+
+        // Active conversions are held in the same order however the
+        // region is constructed.
+        Set<Conversion> orderedConvs = new LinkedHashSet<>();
+        orderedConvs.add(conv1);
+        orderedConvs.add(conv2);
+        Set<Conversion> reversedConvs = new LinkedHashSet<>();
+        reversedConvs.add(conv2);
+        reversedConvs.add(conv1);
+        Region twoConvRegion = new Region(100, 201, orderedConvs);
+        Region reversedRegion = new Region(100, 201, reversedConvs);
+        assertEquals(twoConvRegion, reversedRegion);
+        assertEquals(twoConvRegion.activeConversions, reversedRegion.activeConversions);
+    }
+}
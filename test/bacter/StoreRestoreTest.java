@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacter;
+
+import bacter.model.SimulatedACG;
+import beast.base.evolution.alignment.TaxonSet;
+import beast.base.evolution.tree.coalescent.ConstantPopulation;
+import beast.base.inference.parameter.RealParameter;
+import beast.base.util.Randomizer;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that ConversionGraph store/restore returns conversions to their
+ * stored state, both with and without the undo journal.
+ *
+ * @author agent <agent@local>
+ */
+public class StoreRestoreTest extends TestBase {
+
+    @Test
+    public void testJournaledStoreRestore() throws Exception {
+        testStoreRestore(true);
+    }
+
+    @Test
+    public void testCopyingStoreRestore() throws Exception {
+        testStoreRestore(false);
+    }
+
+    private void testStoreRestore(boolean useJournal) throws Exception {
+        Randomizer.setSeed(42);
+
+        ConstantPopulation popFunc = new ConstantPopulation();
+        popFunc.initByName("popSize", new RealParameter("1.0"));
+
+        Locus locus = new Locus("locus", 10000);
+        TaxonSet taxonSet = getTaxonSet(10);
+
+        ConversionGraph acg = new SimulatedACG();
+        acg.initByName(
+                "rho", 20.0/locus.getSiteCount(),
+                "delta", 500.0,
+                "populationModel", popFunc,
+                "locus", locus,
+                "taxonset", taxonSet,
+                "journalStoreRestore", useJournal);
+
+        for (int i=0; i<20 && acg.getConvCount(locus)>1; i++) {
+            String origACG = acg.getExtendedNewick();
+
+            acg.store();
+
+            // Modify, remove and add conversions
+            Conversion conv = acg.getConversions(locus).get(
+                    Randomizer.nextInt(acg.getConvCount(locus)));
+            conv.setStartSite(conv.getStartSite()/2);
+            conv.setHeight2(conv.getHeight2()*1.5);
+
+            Conversion otherConv = acg.getConversions(locus).get(0);
+            acg.deleteConversion(otherConv);
+
+            Conversion newConv = new Conversion(
+                    conv.getNode1(), conv.getHeight1(),
+                    acg.getRoot(), acg.getRoot().getHeight() + 1.0,
+                    100, 200, acg, locus);
+            acg.addConversion(newConv);
+            newConv.setEndSite(300);
+
+            acg.restore();
+
+            assertEquals(origACG, acg.getExtendedNewick());
+            assertEquals(new RegionList(acg, locus).getRegions(),
+                    acg.getRegions(locus));
+        }
+    }
+
+    @Test
+    public void testLocusDirtiness() throws Exception {
+        Randomizer.setSeed(42);
+
+        ConstantPopulation popFunc = new ConstantPopulation();
+        popFunc.initByName("popSize", new RealParameter("1.0"));
+
+        Locus locusA = new Locus("locusA", 10000);
+        Locus locusB = new Locus("locusB", 10000);
+        TaxonSet taxonSet = getTaxonSet(10);
+
+        ConversionGraph acg = new SimulatedACG();
+        acg.initByName(
+                "rho", 20.0/locusA.getSiteCount(),
+                "delta", 500.0,
+                "populationModel", popFunc,
+                "locus", locusA,
+                "locus", locusB,
+                "taxonset", taxonSet);
+
+        acg.store();
+        assertFalse(acg.locusIsDirty(locusA));
+        assertFalse(acg.locusIsDirty(locusB));
+
+        Conversion newConv = new Conversion(
+                acg.getRoot().getLeft(), acg.getRoot().getLeft().getHeight(),
+                acg.getRoot(), acg.getRoot().getHeight() + 1.0,
+                100, 200, acg, locusA);
+        acg.addConversion(newConv);
+
+        assertTrue(acg.locusIsDirty(locusA));
+        assertFalse(acg.locusIsDirty(locusB));
+
+        acg.restore();
+        assertFalse(acg.locusIsDirty(locusA));
+    }
+
+    @Test
+    public void testConversionIndexing() throws Exception {
+        Randomizer.setSeed(42);
+
+        ConstantPopulation popFunc = new ConstantPopulation();
+        popFunc.initByName("popSize", new RealParameter("1.0"));
+
+        Locus locusA = new Locus("locusA", 10000);
+        Locus locusB = new Locus("locusB", 10000);
+        Locus locusC = new Locus("locusC", 10000);
+        TaxonSet taxonSet = getTaxonSet(10);
+
+        ConversionGraph acg = new SimulatedACG();
+        acg.initByName(
+                "rho", 5.0/locusA.getSiteCount(),
+                "delta", 500.0,
+                "populationModel", popFunc,
+                "locus", locusA,
+                "locus", locusB,
+                "locus", locusC,
+                "taxonset", taxonSet);
+
+        for (int i=0; i<20; i++) {
+            acg.store();
+
+            Locus locus = acg.getConvertibleLoci().get(
+                    Randomizer.nextInt(acg.getConvertibleLoci().size()));
+            if (Randomizer.nextBoolean() && acg.getConvCount(locus) > 0) {
+                acg.deleteConversion(acg.getConversions(locus).get(
+                        Randomizer.nextInt(acg.getConvCount(locus))));
+            } else {
+                acg.addConversion(new Conversion(
+                        acg.getRoot().getLeft(), acg.getRoot().getLeft().getHeight(),
+                        acg.getRoot(), acg.getRoot().getHeight() + 1.0,
+                        100, 200, acg, locus));
+            }
+            assertConversionIndexing(acg);
+
+            if (Randomizer.nextBoolean()) {
+                acg.restore();
+                assertConversionIndexing(acg);
+            }
+        }
+    }
+
+    private void assertConversionIndexing(ConversionGraph acg) {
+        List<Conversion> allConvs = new ArrayList<>();
+        for (Locus locus : acg.getConvertibleLoci())
+            allConvs.addAll(acg.getConversions(locus));
+
+        assertEquals(allConvs.size(), acg.getTotalConvCount());
+        for (int idx=0; idx<allConvs.size(); idx++)
+            assertSame(allConvs.get(idx), acg.getConversion(idx));
+    }
+
+    @Test
+    public void testCleanLocusRestore() throws Exception {
+        Randomizer.setSeed(42);
+
+        ConstantPopulation popFunc = new ConstantPopulation();
+        popFunc.initByName("popSize", new RealParameter("1.0"));
+
+        Locus locusA = new Locus("locusA", 10000);
+        Locus locusB = new Locus("locusB", 10000);
+        TaxonSet taxonSet = getTaxonSet(10);
+
+        ConversionGraph acg = new SimulatedACG();
+        acg.initByName(
+                "rho", 20.0/locusA.getSiteCount(),
+                "delta", 500.0,
+                "populationModel", popFunc,
+                "locus", locusA,
+                "locus", locusB,
+                "taxonset", taxonSet,
+                "journalStoreRestore", false);
+
+        for (int i=0; i<20; i++) {
+            String origACG = acg.getExtendedNewick();
+            List<Region> oldRegionsB = new ArrayList<>(acg.getRegions(locusB));
+
+            acg.store();
+
+            Conversion newConv = new Conversion(
+                    acg.getRoot().getLeft(), acg.getRoot().getLeft().getHeight(),
+                    acg.getRoot(), acg.getRoot().getHeight() + 1.0,
+                    100, 200, acg, locusA);
+            acg.addConversion(newConv);
+            acg.getRegions(locusA);
+
+            acg.restore();
+
+            assertEquals(origACG, acg.getExtendedNewick());
+            assertEquals(new RegionList(acg, locusA).getRegions(),
+                    acg.getRegions(locusA));
+
+            // Region list of the clean locus survives the restore
+            List<Region> regionsB = acg.getRegions(locusB);
+            assertEquals(oldRegionsB.size(), regionsB.size());
+            for (int r=0; r<regionsB.size(); r++)
+                assertSame(oldRegionsB.get(r), regionsB.get(r));
+            assertEquals(new RegionList(acg, locusB).getRegions(), regionsB);
+
+            for (Conversion conv : acg.getConversions(locusB)) {
+                assertSame(acg.getNode(conv.getNode1().getNr()), conv.getNode1());
+                assertSame(acg.getNode(conv.getNode2().getNr()), conv.getNode2());
+            }
+        }
+    }
+}
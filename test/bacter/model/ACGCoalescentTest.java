@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package bacter.model;
+
+import bacter.ConversionGraph;
+import bacter.Locus;
+import bacter.TestBase;
+import bacter.operators.ACGScaler;
+import bacter.operators.AddRemoveConversion;
+import bacter.operators.CFUniform;
+import bacter.operators.ConvertedEdgeSlide;
+import beast.base.evolution.alignment.TaxonSet;
+import beast.base.evolution.tree.coalescent.ConstantPopulation;
+import beast.base.inference.Operator;
+import beast.base.inference.State;
+import beast.base.inference.parameter.RealParameter;
+import beast.base.util.Randomizer;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that the conversion terms cached by ACGCoalescent remain valid
+ * across store/restore/accept cycles.
+ *
+ * @author agent <agent@local>
+ */
+public class ACGCoalescentTest extends TestBase {
+
+    @Test
+    public void testJournaledCaching() throws Exception {
+        testCaching(true);
+    }
+
+    @Test
+    public void testCopyingCaching() throws Exception {
+        testCaching(false);
+    }
+
+    private void testCaching(boolean useJournal) throws Exception {
+        Randomizer.setSeed(42);
+
+        ConstantPopulation popFunc = new ConstantPopulation();
+        popFunc.initByName("popSize", new RealParameter("1.0"));
+
+        Locus locus = new Locus("locus", 10000);
+        TaxonSet taxonSet = getTaxonSet(10);
+
+        RealParameter rho = new RealParameter(Double.toString(5.0/locus.getSiteCount()));
+        RealParameter delta = new RealParameter("500.0");
+
+        ConversionGraph acg = new SimulatedACG();
+        acg.initByName(
+                "rho", rho.getValue(),
+                "delta", delta.getValue(),
+                "populationModel", popFunc,
+                "locus", locus,
+                "taxonset", taxonSet,
+                "journalStoreRestore", useJournal);
+
+        ACGCoalescent coal = new ACGCoalescent();
+        coal.initByName(
+                "tree", acg,
+                "populationModel", popFunc,
+                "rho", rho,
+                "delta", delta);
+
+        State state = new State();
+        state.initByName("stateNode", acg);
+        state.initialise();
+        state.setPosterior(coal);
+
+        ACGScaler scaler = new ACGScaler();
+        scaler.initByName("weight", 1.0, "acg", acg, "scaleFactor", 0.8);
+
+        CFUniform cfUniform = new CFUniform();
+        cfUniform.initByName("weight", 1.0, "acg", acg, "rho", rho,
+                "delta", delta, "populationModel", popFunc);
+
+        AddRemoveConversion addRemove = new AddRemoveConversion();
+        addRemove.initByName("weight", 1.0, "acg", acg, "delta", delta,
+                "populationModel", popFunc);
+
+        ConvertedEdgeSlide edgeSlide = new ConvertedEdgeSlide();
+        edgeSlide.initByName("weight", 1.0, "acg", acg);
+
+        Operator[] operators = {scaler, cfUniform, addRemove, edgeSlide};
+
+        coal.calculateLogP();
+
+        for (int i=0; i<500; i++) {
+            state.store(i);
+
+            Operator operator = operators[Randomizer.nextInt(operators.length)];
+            if (operator.proposal() == Double.NEGATIVE_INFINITY) {
+                state.restore();
+                state.setEverythingDirty(false);
+                continue;
+            }
+
+            state.storeCalculationNodes();
+            state.checkCalculationNodesDirtiness();
+
+            assertEquals(getUncachedLogP(acg, popFunc, rho, delta),
+                    coal.calculateLogP(), 1e-10);
+
+            if (Randomizer.nextBoolean()) {
+                state.acceptCalculationNodes();
+            } else {
+                state.restore();
+                state.restoreCalculationNodes();
+            }
+            state.setEverythingDirty(false);
+
+            assertEquals(getUncachedLogP(acg, popFunc, rho, delta),
+                    coal.calculateLogP(), 1e-10);
+        }
+    }
+
+    private double getUncachedLogP(ConversionGraph acg, ConstantPopulation popFunc,
+                                   RealParameter rho, RealParameter delta) {
+        ACGCoalescent coal = new ACGCoalescent();
+        coal.initByName(
+                "tree", acg,
+                "populationModel", popFunc,
+                "rho", rho,
+                "delta", delta);
+
+        return coal.calculateLogP();
+    }
+}
@@ -19,6 +19,7 @@ package bacter.model;
 import bacter.Conversion;
 import bacter.ConversionGraph;
 import bacter.Locus;
+import bacter.Region;
 import bacter.TestBase;
 import beast.base.inference.State;
 import beast.base.inference.parameter.RealParameter;
@@ -28,8 +29,16 @@ import beast.base.evolution.substitutionmodel.JukesCantor;
 import beast.base.evolution.tree.Node;
 import beast.base.evolution.tree.coalescent.ConstantPopulation;
 import beast.base.evolution.tree.ClusterTree;
+import beast.base.evolution.likelihood.LikelihoodCore;
+import beast.base.util.Randomizer;
 import org.junit.Test;
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -273,6 +282,106 @@ public class ACGLikelihoodTest extends TestBase {
         assertTrue(relError<1e-13);
     }
 
+    @Test
+    public void testSparseAlignment() throws Exception {
+
+        ConstantPopulation popFunc = new ConstantPopulation();
+        popFunc.initByName("popSize", new RealParameter("1.0"));
+
+        Locus locus = new Locus();
+        locus.initByName(
+                "siteCount", 10000,
+                "sparseAlignment", true);
+        locus.setID("locus");
+        TaxonSet taxonSet = getTaxonSet(10);
+
+        ConversionGraph acg = new SimulatedACG();
+        acg.initByName(
+                "rho", 5.0/locus.getSiteCount(),
+                "delta", 1000.0,
+                "populationModel", popFunc,
+                "locus", locus,
+                "taxonset", taxonSet);
+
+        // Site model with a low rate, so that most sites are constant:
+        JukesCantor jc = new JukesCantor();
+        jc.initByName();
+        SiteModel siteModel = new SiteModel();
+        siteModel.initByName(
+                "mutationRate", new RealParameter("0.05"),
+                "substModel", jc,
+                "gammaCategoryCount", 4,
+                "shape", new RealParameter("0.5"));
+
+        // Simulate alignment:
+        SimulatedAlignment alignment = new SimulatedAlignment();
+        alignment.initByName(
+                "acg", acg,
+                "siteModel", siteModel,
+                "outputFileName", "simulated_alignment.nexus",
+                "useNexus", true);
+
+        ACGLikelihood argLikelihood = new ACGLikelihood();
+        argLikelihood.initByName(
+                "locus", locus,
+                "data", alignment,
+                "tree", acg,
+                "siteModel", siteModel);
+
+        ACGLikelihood argLikelihoodMerged = new ACGLikelihood();
+        argLikelihoodMerged.initByName(
+                "locus", locus,
+                "data", alignment,
+                "tree", acg,
+                "siteModel", siteModel,
+                "mergeEquivalentRegions", true);
+
+        ACGLikelihoodSlow argLikelihoodSlow = new ACGLikelihoodSlow();
+        argLikelihoodSlow.initByName(
+                "locus", locus,
+                "data", alignment,
+                "tree", acg,
+                "siteModel", siteModel);
+
+        double logP = argLikelihood.calculateLogP();
+        double logPmerged = argLikelihoodMerged.calculateLogP();
+        double logPslow = argLikelihoodSlow.calculateLogP();
+
+        System.out.format("logP=%g\nlogPmerged=%g\nlogPslow=%g\n",
+                logP, logPmerged, logPslow);
+
+        double relError = 2.0*Math.abs(logP-logPslow)/Math.abs(logP + logPslow);
+        assertTrue(relError<1e-13);
+        relError = 2.0*Math.abs(logPmerged-logPslow)/Math.abs(logPmerged + logPslow);
+        assertTrue(relError<1e-13);
+
+        // Constant sites are counted rather than held by cores.
+        int constantSiteCount = 0;
+        for (Region region : acg.getRegions(locus)) {
+            SitePatternIndex.RegionPatterns regionPatterns =
+                    argLikelihood.patterns.get(region);
+
+            int siteCount = 0;
+            for (int weight : regionPatterns.weights)
+                siteCount += weight;
+            for (int count : regionPatterns.constantSiteCounts)
+                siteCount += count;
+            assertEquals(region.getRegionLength(), siteCount);
+
+            for (int patternIdx : regionPatterns.patternIndices) {
+                int[] pattern = alignment.getPattern(patternIdx);
+                boolean isConstant = true;
+                for (int code : pattern)
+                    isConstant = isConstant && code == pattern[0];
+                assertFalse(isConstant);
+            }
+
+            for (int count : regionPatterns.constantSiteCounts)
+                constantSiteCount += count;
+        }
+        assertTrue(constantSiteCount > 0);
+    }
+
     @Test
     public void testLikelihoodCaching() throws Exception {
         ConstantPopulation popFunc = new ConstantPopulation();
@@ -365,6 +474,744 @@ public class ACGLikelihoodTest extends TestBase {
         assertTrue(relError<1e-13);
     }
 
+    @Test
+    public void testThreadedLikelihood() throws Exception {
+
+        ConstantPopulation popFunc = new ConstantPopulation();
+        popFunc.initByName("popSize", new RealParameter("1.0"));
+
+        Locus locus = new Locus("locus", 10000);
+        TaxonSet taxonSet = getTaxonSet(10);
+
+        ConversionGraph acg = new SimulatedACG();
+        acg.initByName(
+                "rho", 20.0/locus.getSiteCount(),
+                "delta", 1000.0,
+                "populationModel", popFunc,
+                "locus", locus,
+                "taxonset", taxonSet);
+
+        // Site model:
+        JukesCantor jc = new JukesCantor();
+        jc.initByName();
+        SiteModel siteModel = new SiteModel();
+        siteModel.initByName(
+                "mutationRate", new RealParameter("1"),
+                "substModel", jc);
+
+        // Simulate alignment:
+        SimulatedAlignment alignment = new SimulatedAlignment();
+        alignment.initByName(
+                "acg", acg,
+                "siteModel", siteModel,
+                "outputFileName", "simulated_alignment.nexus",
+                "useNexus", true);
+
+        // Calculate likelihoods:
+        ACGLikelihood argLikelihood = new ACGLikelihood();
+        argLikelihood.initByName(
+                "locus", locus,
+                "data", alignment,
+                "tree", acg,
+                "siteModel", siteModel);
+
+        ACGLikelihood argLikelihoodThreaded = new ACGLikelihood();
+        argLikelihoodThreaded.initByName(
+                "locus", locus,
+                "data", alignment,
+                "tree", acg,
+                "siteModel", siteModel,
+                "threadCount", 4);
+
+        double logP = argLikelihood.calculateLogP();
+        double logPthreaded = argLikelihoodThreaded.calculateLogP();
+
+        System.out.format("logP=%g\nlogPthreaded=%g\n", logP, logPthreaded);
+
+        // Summation order is fixed, so results should agree exactly.
+        assertTrue(logP == logPthreaded);
+    }
+
+    @Test
+    public void testSharedCladePartials() throws Exception {
+
+        ConstantPopulation popFunc = new ConstantPopulation();
+        popFunc.initByName("popSize", new RealParameter("1.0"));
+
+        Locus locus = new Locus("locus", 10000);
+        TaxonSet taxonSet = getTaxonSet(10);
+
+        ConversionGraph acg = new SimulatedACG();
+        acg.initByName(
+                "rho", 20.0/locus.getSiteCount(),
+                "delta", 1000.0,
+                "populationModel", popFunc,
+                "locus", locus,
+                "taxonset", taxonSet);
+
+        // Site model:
+        JukesCantor jc = new JukesCantor();
+        jc.initByName();
+        SiteModel siteModel = new SiteModel();
+        siteModel.initByName(
+                "mutationRate", new RealParameter("1"),
+                "gammaCategoryCount", 4,
+                "shape", new RealParameter("0.5"),
+                "substModel", jc);
+
+        // Simulate alignment:
+        SimulatedAlignment alignment = new SimulatedAlignment();
+        alignment.initByName(
+                "acg", acg,
+                "siteModel", siteModel,
+                "outputFileName", "simulated_alignment.nexus",
+                "useNexus", true);
+
+        // Calculate likelihoods:
+        ACGLikelihood argLikelihood = new ACGLikelihood();
+        argLikelihood.initByName(
+                "locus", locus,
+                "data", alignment,
+                "tree", acg,
+                "siteModel", siteModel);
+
+        ACGLikelihood argLikelihoodShared = new ACGLikelihood();
+        argLikelihoodShared.initByName(
+                "locus", locus,
+                "data", alignment,
+                "tree", acg,
+                "siteModel", siteModel,
+                "shareCladePartials", true);
+
+        double logP = argLikelihood.calculateLogP();
+        double logPshared = argLikelihoodShared.calculateLogP();
+
+        System.out.format("logP=%g\nlogPshared=%g\n", logP, logPshared);
+
+        double relativeDiff = Math.abs(2.0*(logP-logPshared)/(logP+logPshared));
+        assertTrue(relativeDiff<1e-14);
+    }
+
+    @Test
+    public void testCoreMemoryLimit() throws Exception {
+
+        ConstantPopulation popFunc = new ConstantPopulation();
+        popFunc.initByName("popSize", new RealParameter("1.0"));
+
+        Locus locus = new Locus("locus", 10000);
+        TaxonSet taxonSet = getTaxonSet(10);
+
+        ConversionGraph acg = new SimulatedACG();
+        acg.initByName(
+                "rho", 20.0/locus.getSiteCount(),
+                "delta", 1000.0,
+                "populationModel", popFunc,
+                "locus", locus,
+                "taxonset", taxonSet);
+
+        // Site model:
+        JukesCantor jc = new JukesCantor();
+        jc.initByName();
+        SiteModel siteModel = new SiteModel();
+        siteModel.initByName(
+                "mutationRate", new RealParameter("1"),
+                "substModel", jc);
+
+        // Simulate alignment:
+        SimulatedAlignment alignment = new SimulatedAlignment();
+        alignment.initByName(
+                "acg", acg,
+                "siteModel", siteModel,
+                "outputFileName", "simulated_alignment.nexus",
+                "useNexus", true);
+
+        ACGLikelihood argLikelihood = new ACGLikelihood();
+        argLikelihood.initByName(
+                "locus", locus,
+                "data", alignment,
+                "tree", acg,
+                "siteModel", siteModel);
+
+        // Limit small enough to force eviction of every core:
+        ACGLikelihood argLikelihoodLimited = new ACGLikelihood();
+        argLikelihoodLimited.initByName(
+                "locus", locus,
+                "data", alignment,
+                "tree", acg,
+                "siteModel", siteModel,
+                "coreMemoryLimit", 1e-6);
+
+        double logP = argLikelihood.calculateLogP();
+        double logPlimited = argLikelihoodLimited.calculateLogP();
+        assertTrue(logP == logPlimited);
+        assertTrue(argLikelihoodLimited.getCorePool().getEvictionCount() > 0);
+
+        // Add a conversion spanning the locus, so every region is new:
+        Node node1 = acg.getExternalNodes().get(0);
+        Node node2 = node1.getParent();
+        double height1 = 0.5*(node1.getHeight() + node1.getParent().getHeight());
+        double height2 = node2.isRoot()
+                ? node2.getHeight() + 1.0
+                : 0.5*(node2.getHeight() + node2.getParent().getHeight());
+        acg.addConversion(new Conversion(node1, height1, node2, height2,
+                0, locus.getSiteCount()-1, acg, locus));
+
+        logP = argLikelihood.calculateLogP();
+        logPlimited = argLikelihoodLimited.calculateLogP();
+        assertTrue(logP == logPlimited);
+    }
+
+    @Test
+    public void testCoreMemoryBounded() throws Exception {
+        Randomizer.setSeed(1);
+
+        ConstantPopulation popFunc = new ConstantPopulation();
+        popFunc.initByName("popSize", new RealParameter("1.0"));
+
+        Locus locus = new Locus("locus", 10000);
+        TaxonSet taxonSet = getTaxonSet(10);
+
+        ConversionGraph acg = new SimulatedACG();
+        acg.initByName(
+                "rho", 20.0/locus.getSiteCount(),
+                "delta", 1000.0,
+                "populationModel", popFunc,
+                "locus", locus,
+                "taxonset", taxonSet);
+
+        // Site model:
+        JukesCantor jc = new JukesCantor();
+        jc.initByName();
+        SiteModel siteModel = new SiteModel();
+        siteModel.initByName(
+                "mutationRate", new RealParameter("1"),
+                "substModel", jc);
+
+        // Simulate alignment:
+        SimulatedAlignment alignment = new SimulatedAlignment();
+        alignment.initByName(
+                "acg", acg,
+                "siteModel", siteModel,
+                "outputFileName", "simulated_alignment.nexus",
+                "useNexus", true);
+
+        // Limit small enough to force eviction of every core:
+        ACGLikelihood argLikelihood = new ACGLikelihood();
+        argLikelihood.initByName(
+                "locus", locus,
+                "data", alignment,
+                "tree", acg,
+                "siteModel", siteModel,
+                "coreMemoryLimit", 1e-6);
+
+        argLikelihood.calculateLogP();
+
+        for (int i=0; i<20; i++) {
+            argLikelihood.store();
+
+            // Add a conversion covering a random stretch of sites
+            Node node1 = acg.getExternalNodes().get(
+                    Randomizer.nextInt(acg.getLeafNodeCount()));
+            Node node2 = node1.getParent();
+            double height1 = 0.5*(node1.getHeight() + node1.getParent().getHeight());
+            double height2 = node2.isRoot()
+                    ? node2.getHeight() + 1.0
+                    : 0.5*(node2.getHeight() + node2.getParent().getHeight());
+            int startSite = Randomizer.nextInt(locus.getSiteCount()-1000);
+            acg.addConversion(new Conversion(node1, height1, node2, height2,
+                    startSite, startSite + 999, acg, locus));
+
+            argLikelihood.calculateLogP();
+
+            // Only cores belonging to the current or stored state may
+            // be retained.
+            Set<LikelihoodCore> referencedCores =
+                    Collections.newSetFromMap(new IdentityHashMap<>());
+            referencedCores.addAll(argLikelihood.likelihoodCores.values());
+            referencedCores.addAll(argLikelihood.storedLikelihoodCores.values());
+
+            assertTrue(argLikelihood.getCorePool().getCoreCount() <= referencedCores.size());
+            assertTrue(argLikelihood.coreLastUsed.size() <= referencedCores.size());
+            assertEquals(0, argLikelihood.getCorePool().getPooledBytes());
+        }
+
+        assertTrue(argLikelihood.getCorePool().getEvictionCount() > 0);
+    }
+
+    @Test
+    public void testCorePoolBoundedWithoutLimit() throws Exception {
+        Randomizer.setSeed(1);
+
+        ConstantPopulation popFunc = new ConstantPopulation();
+        popFunc.initByName("popSize", new RealParameter("1.0"));
+
+        Locus locus = new Locus("locus", 10000);
+        TaxonSet taxonSet = getTaxonSet(10);
+
+        ConversionGraph acg = new SimulatedACG();
+        acg.initByName(
+                "rho", 20.0/locus.getSiteCount(),
+                "delta", 1000.0,
+                "populationModel", popFunc,
+                "locus", locus,
+                "taxonset", taxonSet);
+
+        // Site model:
+        JukesCantor jc = new JukesCantor();
+        jc.initByName();
+        SiteModel siteModel = new SiteModel();
+        siteModel.initByName(
+                "mutationRate", new RealParameter("1"),
+                "substModel", jc);
+
+        // Simulate alignment:
+        SimulatedAlignment alignment = new SimulatedAlignment();
+        alignment.initByName(
+                "acg", acg,
+                "siteModel", siteModel,
+                "outputFileName", "simulated_alignment.nexus",
+                "useNexus", true);
+
+        ACGLikelihood argLikelihood = new ACGLikelihood();
+        argLikelihood.initByName(
+                "locus", locus,
+                "data", alignment,
+                "tree", acg,
+                "siteModel", siteModel);
+
+        argLikelihood.calculateLogP();
+
+        for (int i=0; i<20; i++) {
+            argLikelihood.store();
+
+            // Cores released on store are retained only up to the
+            // memory occupied by cores in use.
+            assertTrue(argLikelihood.getCorePool().getPooledBytes()
+                    <= argLikelihood.getLiveCoreBytes());
+
+            // Remove a conversion if present, so that cores are released
+            if (acg.getConvCount(locus) > 0)
+                acg.deleteConversion(acg.getConversions(locus).get(
+                        Randomizer.nextInt(acg.getConvCount(locus))));
+
+            argLikelihood.calculateLogP();
+        }
+    }
+
+    @Test
+    public void testPartialsReuse() throws Exception {
+
+        ConstantPopulation popFunc = new ConstantPopulation();
+        popFunc.initByName("popSize", new RealParameter("1.0"));
+
+        Locus locus = new Locus("locus", 10000);
+        TaxonSet taxonSet = getTaxonSet(10);
+
+        ConversionGraph acg = new SimulatedACG();
+        acg.initByName(
+                "rho", 5.0/locus.getSiteCount(),
+                "delta", 1000.0,
+                "populationModel", popFunc,
+                "locus", locus,
+                "taxonset", taxonSet);
+
+        // Site model:
+        JukesCantor jc = new JukesCantor();
+        jc.initByName();
+        SiteModel siteModel = new SiteModel();
+        siteModel.initByName(
+                "mutationRate", new RealParameter("1"),
+                "substModel", jc);
+
+        // Simulate alignment:
+        SimulatedAlignment alignment = new SimulatedAlignment();
+        alignment.initByName(
+                "acg", acg,
+                "siteModel", siteModel,
+                "outputFileName", "simulated_alignment.nexus",
+                "useNexus", true);
+
+        ACGLikelihood argLikelihood = new ACGLikelihood();
+        argLikelihood.initByName(
+                "locus", locus,
+                "data", alignment,
+                "tree", acg,
+                "siteModel", siteModel,
+                "reusePartials", false);
+
+        ACGLikelihood argLikelihoodReuse = new ACGLikelihood();
+        argLikelihoodReuse.initByName(
+                "locus", locus,
+                "data", alignment,
+                "tree", acg,
+                "siteModel", siteModel,
+                "reusePartials", true);
+
+        // Add a conversion whose arrival height can be adjusted:
+        Node node1 = acg.getExternalNodes().get(0);
+        Node node2 = node1.getParent();
+        double height1 = 0.5*(node1.getHeight() + node1.getParent().getHeight());
+        double height2 = node2.isRoot()
+                ? node2.getHeight() + 1.0
+                : 0.5*(node2.getHeight() + node2.getParent().getHeight());
+        Conversion conv = new Conversion(node1, height1, node2, height2,
+                0, locus.getSiteCount()/2, acg, locus);
+        acg.addConversion(conv);
+
+        double logP = argLikelihood.calculateLogP();
+        double logPreuse = argLikelihoodReuse.calculateLogP();
+        assertTrue(logP == logPreuse);
+        assertTrue(argLikelihoodReuse.getPartialReuseCount() == 0);
+
+        // Changing the arrival height alters only the path from the
+        // arrival node to the root of the affected marginal trees.
+        conv.setHeight2(0.5*(conv.getHeight2() + node2.getHeight()));
+
+        logP = argLikelihood.calculateLogP();
+        logPreuse = argLikelihoodReuse.calculateLogP();
+
+        System.out.format("logP=%g\nlogPreuse=%g\n", logP, logPreuse);
+
+        double relativeDiff = Math.abs(2.0*(logP-logPreuse)/(logP+logPreuse));
+        assertTrue(relativeDiff<1e-14);
+        assertTrue(argLikelihoodReuse.getPartialReuseCount() > 0);
+        assertTrue(argLikelihoodReuse.getPartialUpdateCount()
+                < argLikelihood.getPartialUpdateCount());
+    }
+
+    @Test
+    public void testRegionMemo() throws Exception {
+
+        Locus locus = new Locus("locus", getAlignment());
+
+        // ConversionGraph
+        ConversionGraph acg = new ConversionGraph();
+        ClusterTree tree = new ClusterTree();
+        tree.initByName(
+                "clusterType", "upgma",
+                "taxa", locus.getAlignment());
+
+        acg.assignFrom(tree);
+        acg.initByName("locus", locus);
+
+        // Site model:
+        JukesCantor jc = new JukesCantor();
+        jc.initByName();
+        SiteModel siteModel = new SiteModel();
+        siteModel.initByName(
+                "substModel", jc);
+
+        ACGLikelihood argLikelihood = new ACGLikelihood();
+        argLikelihood.initByName(
+                "locus", locus,
+                "tree", acg,
+                "siteModel", siteModel);
+
+        ACGLikelihood argLikelihoodMemo = new ACGLikelihood();
+        argLikelihoodMemo.initByName(
+                "locus", locus,
+                "tree", acg,
+                "siteModel", siteModel,
+                "regionMemoSize", 10);
+
+        Node node1 = acg.getExternalNodes().get(0);
+        Node node2 = node1.getParent();
+        double height1 = 0.5*(node1.getHeight() + node1.getParent().getHeight());
+        double height2 = 0.5*(node2.getHeight() + node2.getParent().getHeight());
+        Conversion conv = new Conversion(node1, height1, node2, height2,
+                100, 200, acg, locus);
+
+        // Alternately add and remove a conversion.  Only the first
+        // evaluation of each region list requires regions to be evaluated.
+        for (int i=0; i<4; i++) {
+            if (i % 2 == 1)
+                acg.addConversion(conv);
+            else if (i > 0)
+                acg.deleteConversion(conv);
+
+            double logP = argLikelihood.calculateLogP();
+            double logPmemo = argLikelihoodMemo.calculateLogP();
+            assertTrue(logP == logPmemo);
+        }
+
+        assertEquals(4, argLikelihoodMemo.getRegionsEvaluated());
+        assertEquals(8, argLikelihoodMemo.getRegionMemoLookupCount());
+        assertEquals(4, argLikelihoodMemo.getRegionMemoHitCount());
+    }
+
+    @Test
+    public void testMatrixCache() throws Exception {
+
+        ConstantPopulation popFunc = new ConstantPopulation();
+        popFunc.initByName("popSize", new RealParameter("1.0"));
+
+        Locus locus = new Locus("locus", 10000);
+        TaxonSet taxonSet = getTaxonSet(10);
+
+        ConversionGraph acg = new SimulatedACG();
+        acg.initByName(
+                "rho", 5.0/locus.getSiteCount(),
+                "delta", 1000.0,
+                "populationModel", popFunc,
+                "locus", locus,
+                "taxonset", taxonSet);
+
+        // Site model with several rate categories:
+        JukesCantor jc = new JukesCantor();
+        jc.initByName();
+        SiteModel siteModel = new SiteModel();
+        siteModel.initByName(
+                "mutationRate", new RealParameter("1"),
+                "substModel", jc,
+                "gammaCategoryCount", 4,
+                "shape", new RealParameter("0.5"));
+
+        // Simulate alignment:
+        SimulatedAlignment alignment = new SimulatedAlignment();
+        alignment.initByName(
+                "acg", acg,
+                "siteModel", siteModel,
+                "outputFileName", "simulated_alignment.nexus",
+                "useNexus", true);
+
+        ACGLikelihood argLikelihood = new ACGLikelihood();
+        argLikelihood.initByName(
+                "locus", locus,
+                "data", alignment,
+                "tree", acg,
+                "siteModel", siteModel,
+                "matrixCacheSize", 100);
+
+        // Cache too small to hold the matrices of a single evaluation
+        ACGLikelihood argLikelihoodSmallCache = new ACGLikelihood();
+        argLikelihoodSmallCache.initByName(
+                "locus", locus,
+                "data", alignment,
+                "tree", acg,
+                "siteModel", siteModel,
+                "matrixCacheSize", 2);
+
+        ACGLikelihoodSlow argLikelihoodSlow = new ACGLikelihoodSlow();
+        argLikelihoodSlow.initByName(
+                "locus", locus,
+                "data", alignment,
+                "tree", acg,
+                "siteModel", siteModel);
+
+        // Add a conversion whose arrival height can be adjusted:
+        Node node1 = acg.getExternalNodes().get(0);
+        Node node2 = node1.getParent();
+        double height1 = 0.5*(node1.getHeight() + node1.getParent().getHeight());
+        double height2 = node2.isRoot()
+                ? node2.getHeight() + 1.0
+                : 0.5*(node2.getHeight() + node2.getParent().getHeight());
+        Conversion conv = new Conversion(node1, height1, node2, height2,
+                0, locus.getSiteCount()/2, acg, locus);
+        acg.addConversion(conv);
+
+        for (int i=0; i<2; i++) {
+            double logP = argLikelihood.calculateLogP();
+            double logPslow = argLikelihoodSlow.calculateLogP();
+
+            System.out.format("logP=%g\nlogPslow=%g\n", logP, logPslow);
+
+            double relError = 2.0*Math.abs(logP-logPslow)/Math.abs(logP + logPslow);
+            assertTrue(relError<1e-13);
+
+            double logPsmall = argLikelihoodSmallCache.calculateLogP();
+            relError = 2.0*Math.abs(logPsmall-logPslow)/Math.abs(logPsmall + logPslow);
+            assertTrue(relError<1e-13);
+            assertTrue(argLikelihoodSmallCache.matrixCache.size() <= 2);
+
+            // Cached matrices for the old edge lengths must not be used.
+            conv.setHeight2(0.5*(conv.getHeight2() + node2.getHeight()));
+        }
+    }
+
+    @Test
+    public void testBacterKernel() throws Exception {
+
+        Locus locus = new Locus("locus", getAlignment());
+
+        // ConversionGraph
+        ConversionGraph acg = new ConversionGraph();
+        ClusterTree tree = new ClusterTree();
+        tree.initByName(
+                "clusterType", "upgma",
+                "taxa", locus.getAlignment());
+
+        acg.assignFrom(tree);
+        acg.initByName("locus", locus);
+
+        // Site model with several rate categories:
+        JukesCantor jc = new JukesCantor();
+        jc.initByName();
+        SiteModel siteModel = new SiteModel();
+        siteModel.initByName(
+                "substModel", jc,
+                "gammaCategoryCount", 4,
+                "shape", new RealParameter("0.5"));
+
+        ACGLikelihood argLikelihood = new ACGLikelihood();
+        argLikelihood.initByName(
+                "locus", locus,
+                "tree", acg,
+                "siteModel", siteModel);
+
+        ACGLikelihood argLikelihoodBacter = new ACGLikelihood();
+        argLikelihoodBacter.initByName(
+                "locus", locus,
+                "tree", acg,
+                "siteModel", siteModel,
+                "kernel", ACGLikelihood.Kernel.BACTER);
+
+        // Add a conversion so that marginal trees differ between regions
+        Node node1 = acg.getExternalNodes().get(0);
+        Node node2 = node1.getParent();
+        double height1 = 0.5*(node1.getHeight() + node1.getParent().getHeight());
+        double height2 = 0.5*(node2.getHeight() + node2.getParent().getHeight());
+        acg.addConversion(new Conversion(node1, height1, node2, height2,
+                100, 200, acg, locus));
+
+        double logP = argLikelihood.calculateLogP();
+        double logPbacter = argLikelihoodBacter.calculateLogP();
+
+        System.out.format("logP=%g\nlogPbacter=%g\n", logP, logPbacter);
+
+        double relativeDiff = Math.abs(2.0*(logP-logPbacter)/(logP+logPbacter));
+        assertTrue(relativeDiff<1e-14);
+    }
+
+    @Test
+    public void testMergeEquivalentRegions() throws Exception {
+
+        Locus locus = new Locus("locus", getAlignment());
+
+        // ConversionGraph
+        ConversionGraph acg = new ConversionGraph();
+        ClusterTree tree = new ClusterTree();
+        tree.initByName(
+                "clusterType", "upgma",
+                "taxa", locus.getAlignment());
+
+        acg.assignFrom(tree);
+        acg.initByName("locus", locus);
+
+        // Site model:
+        JukesCantor jc = new JukesCantor();
+        jc.initByName();
+        SiteModel siteModel = new SiteModel();
+        siteModel.initByName(
+                "substModel", jc);
+
+        ACGLikelihood argLikelihood = new ACGLikelihood();
+        argLikelihood.initByName(
+                "locus", locus,
+                "tree", acg,
+                "siteModel", siteModel);
+
+        ACGLikelihood argLikelihoodMerged = new ACGLikelihood();
+        argLikelihoodMerged.initByName(
+                "locus", locus,
+                "tree", acg,
+                "siteModel", siteModel,
+                "mergeEquivalentRegions", true);
+
+        // Add two identical conversions affecting distinct sites, so that
+        // the regions they span share a marginal tree, as do the three
+        // regions unaffected by conversions.
+        Node node1 = acg.getExternalNodes().get(0);
+        Node node2 = node1.getParent();
+        double height1 = 0.5*(node1.getHeight() + node1.getParent().getHeight());
+        double height2 = 0.5*(node2.getHeight() + node2.getParent().getHeight());
+        acg.addConversion(new Conversion(node1, height1, node2, height2,
+                100, 200, acg, locus));
+        acg.addConversion(new Conversion(node1, height1, node2, height2,
+                300, 400, acg, locus));
+
+        double logP = argLikelihood.calculateLogP();
+        double logPmerged = argLikelihoodMerged.calculateLogP();
+
+        System.out.format("logP=%g\nlogPmerged=%g\n", logP, logPmerged);
+
+        double relativeDiff = Math.abs(2.0*(logP-logPmerged)/(logP+logPmerged));
+        assertTrue(relativeDiff<1e-14);
+
+        assertEquals(5, argLikelihoodMerged.getTreeCacheLookupCount());
+        assertEquals(3, argLikelihoodMerged.getTreeCacheHitCount());
+        assertEquals(2, argLikelihoodMerged.getRegionsEvaluated());
+    }
+
+    @Test
+    public void testEarlyRejection() throws Exception {
+
+        ConstantPopulation popFunc = new ConstantPopulation();
+        popFunc.initByName("popSize", new RealParameter("1.0"));
+
+        Locus locus = new Locus("locus", 10000);
+        TaxonSet taxonSet = getTaxonSet(10);
+
+        ConversionGraph acg = new SimulatedACG();
+        acg.initByName(
+                "rho", 20.0/locus.getSiteCount(),
+                "delta", 1000.0,
+                "populationModel", popFunc,
+                "locus", locus,
+                "taxonset", taxonSet);
+
+        // Site model:
+        JukesCantor jc = new JukesCantor();
+        jc.initByName();
+        SiteModel siteModel = new SiteModel();
+        siteModel.initByName(
+                "mutationRate", new RealParameter("1"),
+                "substModel", jc);
+
+        // Simulate alignment:
+        SimulatedAlignment alignment = new SimulatedAlignment();
+        alignment.initByName(
+                "acg", acg,
+                "siteModel", siteModel,
+                "outputFileName", "simulated_alignment.nexus",
+                "useNexus", true);
+
+        ACGLikelihood argLikelihood = new ACGLikelihood();
+        argLikelihood.initByName(
+                "locus", locus,
+                "data", alignment,
+                "tree", acg,
+                "siteModel", siteModel);
+
+        double logP = argLikelihood.calculateLogP();
+        assertFalse(argLikelihood.evaluationAborted());
+
+        // Threshold below true value: evaluation must complete.
+        ACGLikelihood argLikelihoodLow = new ACGLikelihood();
+        argLikelihoodLow.initByName(
+                "locus", locus,
+                "data", alignment,
+                "tree", acg,
+                "siteModel", siteModel);
+        argLikelihoodLow.setThresholdProvider(distr -> logP - 1.0);
+
+        double logPlow = argLikelihoodLow.calculateLogP();
+        assertFalse(argLikelihoodLow.evaluationAborted());
+        assertTrue(logP == logPlow);
+
+        // Threshold above true value: evaluation must be abandoned.
+        ACGLikelihood argLikelihoodHigh = new ACGLikelihood();
+        argLikelihoodHigh.initByName(
+                "locus", locus,
+                "data", alignment,
+                "tree", acg,
+                "siteModel", siteModel);
+        argLikelihoodHigh.setThresholdProvider(distr -> logP + 1.0);
+
+        double logPhigh = argLikelihoodHigh.calculateLogP();
+        assertTrue(argLikelihoodHigh.evaluationAborted());
+        assertTrue(logPhigh == Double.NEGATIVE_INFINITY);
+    }
+
     @Test
     public void testBeagleLikelihood() throws Exception {
 
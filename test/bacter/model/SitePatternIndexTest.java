@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package bacter.model;
+
+import bacter.TestBase;
+import beast.base.evolution.alignment.Alignment;
+import org.junit.Test;
+
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author agent <agent@local>
+ */
+public class SitePatternIndexTest extends TestBase {
+
+    @Test
+    public void testRegionPatterns() throws Exception {
+        checkRegionPatterns(false);
+    }
+
+    @Test
+    public void testSparseRegionPatterns() throws Exception {
+        checkRegionPatterns(true);
+    }
+
+    private void checkRegionPatterns(boolean sparse) throws Exception {
+        Alignment alignment = getAlignment();
+        SitePatternIndex index = new SitePatternIndex(alignment, sparse);
+
+        int nSites = alignment.getSiteCount();
+        int[][] ranges = {
+                {0, nSites}, {0, 1}, {5, 17}, {nSites/3, 2*nSites/3},
+                {nSites-10, nSites}, {7, 7}, {63, 130}, {64, 128}};
+
+        if (sparse)
+            assertTrue(index.getIndexedSiteCount() < nSites);
+
+        for (int[] range : ranges) {
+            TreeMap<Integer, Integer> truth = new TreeMap<>();
+            int[] constantTruth = new int[alignment.getMaxStateCount()];
+            for (int j=range[0]; j<range[1]; j++) {
+                int patternIdx = alignment.getPatternIndex(j);
+                int state = getConstantState(alignment, patternIdx);
+                if (sparse && state >= 0)
+                    constantTruth[state] += 1;
+                else
+                    truth.merge(patternIdx, 1, Integer::sum);
+            }
+
+            SitePatternIndex.RegionPatterns regionPatterns =
+                    index.getRegionPatterns(range[0], range[1]);
+
+            assertEquals(truth.size(), regionPatterns.size());
+            int i = 0;
+            for (int patternIdx : truth.keySet()) {
+                assertEquals(patternIdx, regionPatterns.patternIndices[i]);
+                assertEquals((int)truth.get(patternIdx), regionPatterns.weights[i]);
+                i += 1;
+            }
+
+            if (sparse)
+                assertArrayEquals(constantTruth, regionPatterns.constantSiteCounts);
+            else
+                assertNull(regionPatterns.constantSiteCounts);
+        }
+    }
+
+    /**
+     * @param alignment alignment
+     * @param patternIdx index of alignment pattern
+     * @return state of pattern if it is constant and unambiguous, -1
+     * otherwise
+     */
+    private static int getConstantState(Alignment alignment, int patternIdx) {
+        int[] pattern = alignment.getPattern(patternIdx);
+        if (alignment.getDataType().isAmbiguousCode(pattern[0]))
+            return -1;
+
+        for (int code : pattern) {
+            if (code != pattern[0])
+                return -1;
+        }
+
+        return alignment.getDataType().getStatesForCode(pattern[0])[0];
+    }
+}
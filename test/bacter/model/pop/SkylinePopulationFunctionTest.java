@@ -25,6 +25,7 @@ import beast.base.inference.parameter.IntegerParameter;
 import beast.base.inference.parameter.RealParameter;
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -147,4 +148,32 @@ public class SkylinePopulationFunctionTest extends TestBase {
             assertTrue(Math.abs(t-skyline.getInverseIntensity(skyline.getIntensity(t)))<1e-14);
         }
     }
+
+    @Test
+    public void testSortedTimes() throws Exception {
+
+        for (boolean piecewiseLinear : new boolean[] {false, true}) {
+            SkylinePopulationFunction skyline = new SkylinePopulationFunction();
+            skyline.initByName(
+                    "acg", acg,
+                    "popSizes", new RealParameter("1.0 2.0 5.0 1.0"),
+                    "groupSizes", new IntegerParameter("0"),
+                    "piecewiseLinear", piecewiseLinear);
+
+            int n = 1000;
+            double[] times = new double[n];
+            for (int i=0; i<n; i++)
+                times[i] = -0.5 + 0.01*i;
+
+            double[] intensities = new double[n];
+            double[] popSizes = new double[n];
+            skyline.getIntensities(times, n, intensities);
+            skyline.getPopSizes(times, n, popSizes);
+
+            for (int i=0; i<n; i++) {
+                assertEquals(skyline.getIntensity(times[i]), intensities[i], 1e-14);
+                assertEquals(skyline.getPopSize(times[i]), popSizes[i], 1e-14);
+            }
+        }
+    }
 }
@@ -17,6 +17,7 @@
 
 package bacter.operators;
 
+import bacter.CFEventList;
 import bacter.Conversion;
 import bacter.Locus;
 import bacter.TestBase;
@@ -24,12 +25,15 @@ import bacter.model.ACGCoalescent;
 import bacter.model.SimulatedACG;
 import beast.base.inference.parameter.RealParameter;
 import beast.base.evolution.alignment.TaxonSet;
+import beast.base.evolution.tree.Node;
 import beast.base.evolution.tree.coalescent.ConstantPopulation;
+import beast.base.util.Randomizer;
 import com.google.common.collect.Lists;
 import org.junit.Test;
 
 import java.util.List;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -101,6 +105,64 @@ public class AddRemoveConversionTest extends TestBase {
         assertTrue(Math.abs(logP1-logP2)<1e-10);
     }
 
+    /**
+     * Tests that clonal frame edges located using the cached cumulative
+     * edge lengths match those found by walking the node array.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testEdgeLocation() throws Exception {
+
+        ConstantPopulation popFunc = new ConstantPopulation();
+        popFunc.initByName("popSize", new RealParameter("1.0"));
+
+        Locus locus = new Locus("locus", 10000);
+        TaxonSet taxonSet = getTaxonSet(10);
+
+        SimulatedACG acg = new SimulatedACG();
+        acg.initByName(
+                "rho", 1.0/locus.getSiteCount(),
+                "delta", 50.0,
+                "locus", locus,
+                "taxonset", taxonSet,
+                "populationModel", popFunc);
+
+        CFEventList cfEventList = acg.getCFEventList();
+        assertEquals(acg.getClonalFrameLength(),
+                cfEventList.getClonalFrameLength(), 0.0);
+
+        for (int i=0; i<1000; i++) {
+            double u = Randomizer.nextDouble()*acg.getClonalFrameLength();
+
+            double uRemaining = u;
+            Node expectedNode = null;
+            for (Node node : acg.getNodesAsArray()) {
+                if (node.isRoot())
+                    continue;
+
+                if (uRemaining<node.getLength()) {
+                    expectedNode = node;
+                    break;
+                } else
+                    uRemaining -= node.getLength();
+            }
+
+            Node node = cfEventList.getEdgeNode(u);
+            assertEquals(expectedNode, node);
+            assertEquals(uRemaining, u - cfEventList.getEdgeStart(node), 1e-10);
+
+            // Interval located by binary search matches linear scan
+            double height = Randomizer.nextDouble()*acg.getRoot().getHeight();
+            List<CFEventList.Event> events = acg.getCFEvents();
+            int expectedIdx = 0;
+            while (events.get(expectedIdx+1).getHeight()<height)
+                expectedIdx += 1;
+
+            assertEquals(expectedIdx, cfEventList.getIntervalIndex(height));
+        }
+    }
+
     /**
      * Tests whether probability of proposing a conversion lines up with
      * conversion probability found in ACGCoalescent.
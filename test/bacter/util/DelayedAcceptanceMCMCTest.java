@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package bacter.util;
+
+import beast.base.core.Input;
+import beast.base.inference.Distribution;
+import beast.base.inference.Logger;
+import beast.base.inference.MCMC;
+import beast.base.inference.State;
+import beast.base.inference.parameter.RealParameter;
+import beast.base.util.Randomizer;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that delayed acceptance MCMC samples the exact posterior of a
+ * toy target, and reports its per-operator acceptance rates.
+ *
+ * @author agent <agent@local>
+ */
+public class DelayedAcceptanceMCMCTest {
+
+    /**
+     * Independent zero-mean normal density on each element of a
+     * parameter.
+     */
+    public static class NormalDensity extends Distribution {
+
+        public Input<RealParameter> xInput = new Input<>("x",
+                "Parameter whose density is computed.", Input.Validate.REQUIRED);
+
+        public Input<Double> sigmaInput = new Input<>("sigma",
+                "Standard deviation.", 1.0);
+
+        @Override
+        public void initAndValidate() { }
+
+        @Override
+        public double calculateLogP() {
+            double sigma = sigmaInput.get();
+
+            logP = 0.0;
+            for (double x : xInput.get().getDoubleValues())
+                logP += -0.5*x*x/(sigma*sigma) - Math.log(sigma);
+
+            return logP;
+        }
+
+        @Override
+        public List<String> getArguments() {
+            return null;
+        }
+
+        @Override
+        public List<String> getConditions() {
+            return null;
+        }
+
+        @Override
+        public void sample(State state, Random random) { }
+    }
+
+    @Test
+    public void testToyPosterior() throws Exception {
+        File daLogFile = File.createTempFile("delayedAcceptanceTest", ".log");
+        daLogFile.deleteOnExit();
+
+        List<Double> daTrace = runChain(true, daLogFile);
+        List<Double> plainTrace = runChain(false, null);
+
+        // Exact posterior is standard normal in each dimension
+        assertEquals(0.0, getMean(daTrace), 0.05);
+        assertEquals(1.0, getVariance(daTrace), 0.1);
+        assertEquals(0.0, getMean(plainTrace), 0.05);
+        assertEquals(1.0, getVariance(plainTrace), 0.1);
+
+        assertEquals(getMean(plainTrace), getMean(daTrace), 0.1);
+        assertEquals(getVariance(plainTrace), getVariance(daTrace), 0.1);
+
+        // Stage acceptance rates should be logged for each operator
+        String header = null;
+        for (String line : Files.readAllLines(daLogFile.toPath())) {
+            if (!line.startsWith("#")) {
+                header = line;
+                break;
+            }
+        }
+        assertTrue(header != null && header.contains("randomWalk.stage1Acceptance")
+                && header.contains("randomWalk.stage2Acceptance"));
+    }
+
+    /**
+     * Run chain targeting a two-dimensional standard normal.
+     *
+     * @param useDelayedAcceptance if true, use delayed acceptance with a
+     *                             broader normal as the approximation
+     * @param logFile file to which stage acceptance rates are logged
+     * @return trace of parameter values
+     */
+    private List<Double> runChain(boolean useDelayedAcceptance, File logFile) throws Exception {
+        Randomizer.setSeed(53);
+
+        RealParameter x = new RealParameter("0.0 0.0");
+        x.setID("x");
+
+        NormalDensity posterior = new NormalDensity();
+        posterior.initByName("x", x, "sigma", 1.0);
+
+        State state = new State();
+        state.initByName("stateNode", x);
+
+        EarlyRejectionMCMCTest.FixedWindowRandomWalk operator =
+                new EarlyRejectionMCMCTest.FixedWindowRandomWalk();
+        operator.initByName("parameter", x, "weight", 1.0);
+        operator.setID("randomWalk");
+
+        EarlyRejectionMCMCTest.TraceRecorder recorder = new EarlyRejectionMCMCTest.TraceRecorder();
+        recorder.initByName("parameter", x);
+
+        if (logFile == null) {
+            logFile = File.createTempFile("delayedAcceptanceTest", ".log");
+            logFile.deleteOnExit();
+        }
+        File stateFile = File.createTempFile("delayedAcceptanceTest", ".state");
+        stateFile.deleteOnExit();
+
+        Logger.FILE_MODE = Logger.LogFileMode.overwrite;
+
+        MCMC mcmc;
+        if (useDelayedAcceptance) {
+            NormalDensity approxPosterior = new NormalDensity();
+            approxPosterior.initByName("x", x, "sigma", 1.5);
+
+            DelayedAcceptanceStatsLogger statsLogger = new DelayedAcceptanceStatsLogger();
+            statsLogger.initByName();
+
+            Logger logger = new Logger();
+            logger.initByName("logEvery", 10, "fileName", logFile.getPath(),
+                    "log", recorder, "log", statsLogger);
+
+            mcmc = new DelayedAcceptanceMCMC();
+            mcmc.initByName(
+                    "chainLength", 200000L,
+                    "state", state,
+                    "distribution", posterior,
+                    "approxPosterior", approxPosterior,
+                    "operator", operator,
+                    "logger", logger);
+        } else {
+            Logger logger = new Logger();
+            logger.initByName("logEvery", 10, "fileName", logFile.getPath(),
+                    "log", recorder);
+
+            mcmc = new MCMC();
+            mcmc.initByName(
+                    "chainLength", 200000L,
+                    "state", state,
+                    "distribution", posterior,
+                    "operator", operator,
+                    "logger", logger);
+        }
+        state.setStateFileName(stateFile.getPath());
+
+        mcmc.run();
+
+        if (useDelayedAcceptance) {
+            long[] counts = ((DelayedAcceptanceMCMC)mcmc).getStageCounts(operator);
+            assertTrue(counts[0] > counts[1] && counts[1] > counts[2] && counts[2] > 0);
+        }
+
+        return recorder.trace;
+    }
+
+    private double getMean(List<Double> trace) {
+        double sum = 0.0;
+        for (double x : trace)
+            sum += x;
+
+        return sum/trace.size();
+    }
+
+    private double getVariance(List<Double> trace) {
+        double mean = getMean(trace);
+
+        double sum = 0.0;
+        for (double x : trace)
+            sum += (x - mean)*(x - mean);
+
+        return sum/(trace.size() - 1);
+    }
+}
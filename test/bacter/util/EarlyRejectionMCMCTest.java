@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package bacter.util;
+
+import bacter.model.EarlyRejectable;
+import beast.base.core.BEASTObject;
+import beast.base.core.Input;
+import beast.base.core.Loggable;
+import beast.base.inference.Distribution;
+import beast.base.inference.Logger;
+import beast.base.inference.Operator;
+import beast.base.inference.State;
+import beast.base.inference.parameter.RealParameter;
+import beast.base.util.Randomizer;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that early rejection does not alter the accept/reject decisions
+ * made by the chain.
+ *
+ * @author agent <agent@local>
+ */
+public class EarlyRejectionMCMCTest {
+
+    /**
+     * Standard multivariate normal density, evaluated one dimension at
+     * a time so that evaluations can be abandoned part way through.
+     */
+    public static class EarlyRejectableNormal extends Distribution implements EarlyRejectable {
+
+        public Input<RealParameter> xInput = new Input<>("x",
+                "Parameter whose density is computed.", Input.Validate.REQUIRED);
+
+        ThresholdProvider thresholdProvider;
+        boolean evaluationAborted;
+
+        @Override
+        public void initAndValidate() { }
+
+        @Override
+        public double calculateLogP() {
+            double threshold = thresholdProvider != null
+                    ? thresholdProvider.getRejectionThreshold(this)
+                    : Double.NEGATIVE_INFINITY;
+
+            evaluationAborted = false;
+            logP = 0.0;
+            for (double x : xInput.get().getDoubleValues()) {
+                logP -= 0.5*x*x;
+
+                if (logP < threshold) {
+                    evaluationAborted = true;
+                    logP = Double.NEGATIVE_INFINITY;
+                    break;
+                }
+            }
+
+            return logP;
+        }
+
+        @Override
+        public void setThresholdProvider(ThresholdProvider provider) {
+            thresholdProvider = provider;
+        }
+
+        @Override
+        public boolean evaluationAborted() {
+            return evaluationAborted;
+        }
+
+        @Override
+        public List<String> getArguments() {
+            return null;
+        }
+
+        @Override
+        public List<String> getConditions() {
+            return null;
+        }
+
+        @Override
+        public void sample(State state, Random random) { }
+    }
+
+    /**
+     * Uniform random walk on a single element of a parameter, with a
+     * fixed window size.
+     */
+    public static class FixedWindowRandomWalk extends Operator {
+
+        public Input<RealParameter> parameterInput = new Input<>("parameter",
+                "Parameter to operate on.", Input.Validate.REQUIRED);
+
+        @Override
+        public void initAndValidate() { }
+
+        @Override
+        public double proposal() {
+            RealParameter param = parameterInput.get();
+            int i = Randomizer.nextInt(param.getDimension());
+            param.setValue(i, param.getValue(i) + 2.0*(Randomizer.nextDouble() - 0.5));
+
+            return 0.0;
+        }
+    }
+
+    /**
+     * Records the value of a parameter at every sample.
+     */
+    public static class TraceRecorder extends BEASTObject implements Loggable {
+
+        public Input<RealParameter> parameterInput = new Input<>("parameter",
+                "Parameter to record.", Input.Validate.REQUIRED);
+
+        List<Double> trace = new ArrayList<>();
+
+        @Override
+        public void initAndValidate() { }
+
+        @Override
+        public void init(PrintStream out) { }
+
+        @Override
+        public void log(long sample, PrintStream out) {
+            for (double x : parameterInput.get().getDoubleValues())
+                trace.add(x);
+        }
+
+        @Override
+        public void close(PrintStream out) { }
+    }
+
+    @Test
+    public void testDecisionsUnchanged() throws Exception {
+        // BEAST's MCMC only draws a uniform variate when the acceptance
+        // probability is below 1, so the reference chain is instead
+        // EarlyRejectionMCMC with no thresholds provided.  This draws the
+        // same variates and otherwise behaves as plain MCMC.
+        EarlyRejectionMCMC reference = runChain(false);
+        EarlyRejectionMCMC earlyRejection = runChain(true);
+
+        assertEquals(0, reference.abortedEvaluationCount);
+        assertTrue(earlyRejection.abortedEvaluationCount > 0);
+
+        assertEquals(getTrace(reference), getTrace(earlyRejection));
+    }
+
+    private List<Double> getTrace(EarlyRejectionMCMC mcmc) {
+        Logger logger = mcmc.loggersInput.get().get(0);
+        return ((TraceRecorder)logger.loggersInput.get().get(0)).trace;
+    }
+
+    private EarlyRejectionMCMC runChain(boolean useEarlyRejection) throws Exception {
+        Randomizer.setSeed(42);
+
+        RealParameter x = new RealParameter("0.0 0.0 0.0 0.0");
+        x.setID("x");
+
+        EarlyRejectableNormal distr = new EarlyRejectableNormal();
+        distr.initByName("x", x);
+
+        State state = new State();
+        state.initByName("stateNode", x);
+
+        FixedWindowRandomWalk operator = new FixedWindowRandomWalk();
+        operator.initByName("parameter", x, "weight", 1.0);
+
+        TraceRecorder recorder = new TraceRecorder();
+        recorder.initByName("parameter", x);
+
+        File logFile = File.createTempFile("earlyRejectionTest", ".log");
+        File stateFile = File.createTempFile("earlyRejectionTest", ".state");
+        logFile.deleteOnExit();
+        stateFile.deleteOnExit();
+
+        Logger.FILE_MODE = Logger.LogFileMode.overwrite;
+        Logger logger = new Logger();
+        logger.initByName("logEvery", 1, "fileName", logFile.getPath(), "log", recorder);
+
+        EarlyRejectionMCMC mcmc = new EarlyRejectionMCMC();
+        mcmc.initByName(
+                "chainLength", 10000L,
+                "state", state,
+                "distribution", distr,
+                "operator", operator,
+                "logger", logger);
+        state.setStateFileName(stateFile.getPath());
+
+        if (!useEarlyRejection)
+            distr.setThresholdProvider(null);
+
+        mcmc.run();
+
+        return mcmc;
+    }
+}
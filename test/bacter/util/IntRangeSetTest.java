@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package bacter.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author agent <agent@local>
+ */
+public class IntRangeSetTest {
+
+    @Test
+    public void testUnion() throws Exception {
+        IntRangeSet as1 = IntRangeSet.fromString("[3,5] [9,17]");
+        IntRangeSet as2 = IntRangeSet.fromString("[1,2] [5,10]");
+
+        IntRangeSet union = new IntRangeSet();
+        IntRangeSet.union(as1, as2, union);
+        assertEquals(IntRangeSet.fromString("[1,2] [3,17]"), union);
+
+        as1.unionWith(as2);
+        assertEquals(IntRangeSet.fromString("[1,2] [3,17]"), as1);
+    }
+
+    @Test
+    public void testPartition() throws Exception {
+        IntRangeSet as = IntRangeSet.fromString("[1,2] [3,17]");
+        IntRangeSet inside = IntRangeSet.fromString("[100,200]");
+        IntRangeSet outside = new IntRangeSet();
+
+        IntRangeSet.partition(as, 4, 20, inside, outside);
+
+        assertEquals(IntRangeSet.fromString("[4,17]"), inside);
+        assertEquals(IntRangeSet.fromString("[1,2] [3,4]"), outside);
+    }
+
+    @Test
+    public void testIntersection() throws Exception {
+        IntRangeSet as1 = IntRangeSet.fromString("[10,20] [30,40]");
+        IntRangeSet as2 = IntRangeSet.fromString("[15,22] [27,38]");
+
+        IntRangeSet intersection = new IntRangeSet();
+        IntRangeSet.intersection(as1, as2, intersection);
+
+        assertEquals(IntRangeSet.fromString("[15,20] [30,38]"), intersection);
+    }
+}